@@ -0,0 +1,40 @@
+package test;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import test.PosDump.Line;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Shared fixtures: the sample PDFs in the project root (the jmh profile runs from there).
+final class BenchData {
+    static final String[] PDFS = {"testScript.pdf", "Scriptkht.pdf"};
+
+    private BenchData() {
+    }
+
+    static PDDocument load(String pdf) throws IOException {
+        return Loader.loadPDF(new File(pdf));
+    }
+
+    static List<Line> lines(String pdf) throws IOException {
+        try (PDDocument doc = load(pdf)) {
+            return PosDump.buildLines(PosDump.captureGlyphs(doc, 1, doc.getNumberOfPages(), PosDump.Engine.STRIPPER, Metrics.OFF));
+        }
+    }
+
+    // normalized text of every line of every sample, i.e. what the classifier helpers see
+    static List<String> lineCorpus() throws IOException {
+        List<String> corpus = new ArrayList<>();
+        for (String pdf : PDFS) {
+            for (Line ln : lines(pdf)) {
+                String t = PosDump.normalize(ln.text.toString());
+                if (!t.isBlank()) corpus.add(PosDump.cleanupWeirdInterleaving(t));
+            }
+        }
+        return corpus;
+    }
+}
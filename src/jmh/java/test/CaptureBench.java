@@ -0,0 +1,70 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// PDFBox text extraction on an already loaded document: getText is the stripper with its text
+// assembly, stripper / raw are PosDump.captureGlyphs with either engine. The "pages" secondary
+// result is pages per second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureBench {
+
+    @Param({"testScript.pdf", "Scriptkht.pdf"})
+    public String pdf;
+
+    private PDDocument doc;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        doc = BenchData.load(pdf);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        doc.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Pages {
+        public long pages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pages = 0;
+        }
+    }
+
+    @Benchmark
+    public int getText(Pages counter) throws IOException {
+        PosDump.CaptureStripper stripper = new PosDump.CaptureStripper();
+        stripper.getText(doc);
+        counter.pages += doc.getNumberOfPages();
+        return stripper.glyphs.size;
+    }
+
+    @Benchmark
+    public int stripper(Pages counter) throws IOException {
+        return capture(PosDump.Engine.STRIPPER, counter);
+    }
+
+    @Benchmark
+    public int raw(Pages counter) throws IOException {
+        return capture(PosDump.Engine.RAW, counter);
+    }
+
+    private int capture(PosDump.Engine engine, Pages counter) throws IOException {
+        int n = doc.getNumberOfPages();
+        GlyphBuffer glyphs = PosDump.captureGlyphs(doc, 1, n, engine, Metrics.OFF);
+        counter.pages += n;
+        return glyphs.size;
+    }
+}
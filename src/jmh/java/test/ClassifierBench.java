@@ -0,0 +1,45 @@
+package test;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-line classification helpers over every line of both samples (one op = whole corpus).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassifierBench {
+
+    private List<String> corpus;
+    private final LineClassifier classifier = new LineClassifier();
+
+    @Setup(Level.Trial)
+    public void corpus() throws IOException {
+        corpus = BenchData.lineCorpus();
+    }
+
+    @Benchmark
+    public void sceneScore(Blackhole bh) {
+        for (String t : corpus) bh.consume(PosDump.sceneScore(t));
+    }
+
+    @Benchmark
+    public void isCharacterCue(Blackhole bh) {
+        for (String t : corpus) bh.consume(PosDump.isCharacterCue(t));
+    }
+
+    // what the grouper actually runs per line: normalize + cleanup + score + cue flags
+    @Benchmark
+    public void lineClassifier(Blackhole bh) {
+        for (String t : corpus) {
+            bh.consume(classifier.classify(t));
+            bh.consume(classifier.sceneScore);
+        }
+    }
+}
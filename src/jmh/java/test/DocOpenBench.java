@@ -0,0 +1,44 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+// Opening a document and capturing its first page, over and over, as a batch of documents
+// from one template would: fontCacheMb=0 parses every font again per document, otherwise
+// each document after the first borrows them from a FontCache.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocOpenBench {
+
+    @Param({"testScript.pdf", "Scriptkht.pdf"})
+    public String pdf;
+
+    @Param({"0", "32"})
+    public int fontCacheMb;
+
+    private byte[] bytes;
+    private DocLoader loader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        bytes = Files.readAllBytes(Paths.get(pdf));
+        loader = new DocLoader(DocLoader.Access.BUFFERED, 64L << 20, null,
+                fontCacheMb > 0 ? new FontCache((long) fontCacheMb << 20) : null);
+    }
+
+    @Benchmark
+    public int firstPage() throws IOException {
+        try (PDDocument doc = loader.load(bytes)) {
+            return PosDump.captureGlyphs(doc, 1, 1, PosDump.Engine.STRIPPER, Metrics.OFF).size;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+import test.PosDump.Line;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Line building and paragraph grouping on pre-captured glyphs: no PDF parsing in the loop.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupingBench {
+
+    @Param({"testScript.pdf", "Scriptkht.pdf"})
+    public String pdf;
+
+    private GlyphBuffer glyphs;
+    private List<Line> lines;
+
+    @Setup(Level.Trial)
+    public void capture() throws IOException {
+        try (PDDocument doc = BenchData.load(pdf)) {
+            glyphs = PosDump.captureGlyphs(doc, 1, doc.getNumberOfPages(), PosDump.Engine.STRIPPER, Metrics.OFF);
+        }
+        lines = PosDump.buildLines(glyphs);
+    }
+
+    @Benchmark
+    public List<Line> buildLines() {
+        return PosDump.buildLines(glyphs);
+    }
+
+    // the same glyphs through LineAssembler (the default tolerances)
+    @Benchmark
+    public List<Line> assembleLines() {
+        return PosDump.buildLines(glyphs, GroupingConfig.DEFAULT);
+    }
+
+    @Benchmark
+    public List<ParaOut> groupLinesIntoParagraphs() throws IOException {
+        // grouping sorts its input in place; the copy keeps every invocation identical
+        return PosDump.groupLinesIntoParagraphs(new ArrayList<>(lines), Integer.MAX_VALUE, GroupingConfig.DEFAULT, Metrics.OFF);
+    }
+}
@@ -0,0 +1,74 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Paragraph serialization: the file writer used by PosDump, and the same writer into a
+// null stream to separate formatting cost from disk I/O; the binary format's writer and a
+// reader pass that filters on kind and page without decoding text.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonOutBench {
+
+    private List<ParaOut> paras;
+    private File out;
+    private byte[] bin;
+
+    @Setup(Level.Trial)
+    public void paragraphs() throws IOException {
+        try (PDDocument doc = BenchData.load("Scriptkht.pdf")) {
+            paras = PosDump.extractParagraphs(doc, 1, doc.getNumberOfPages(), Integer.MAX_VALUE,
+                    PosDump.Engine.STRIPPER, GroupingConfig.DEFAULT, Metrics.OFF, Guard.NONE);
+        }
+        out = File.createTempFile("jsonout-bench", ".json");
+        out.deleteOnExit();
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        try (BinOut.ParaWriter w = new BinOut.ParaWriter(b)) {
+            for (ParaOut p : paras) w.write(p);
+        }
+        bin = b.toByteArray();
+    }
+
+    @Benchmark
+    public void writeParasJson() throws IOException {
+        JsonOut.writeParasJson(out, paras);
+    }
+
+    @Benchmark
+    public int paraWriterNoIo() throws IOException {
+        try (JsonOut.ParaWriter w = new JsonOut.ParaWriter(OutputStream.nullOutputStream(), false)) {
+            for (ParaOut p : paras) w.write(p);
+            return w.count();
+        }
+    }
+
+    @Benchmark
+    public int binWriterNoIo() throws IOException {
+        try (BinOut.ParaWriter w = new BinOut.ParaWriter(OutputStream.nullOutputStream())) {
+            for (ParaOut p : paras) w.write(p);
+            return w.count();
+        }
+    }
+
+    @Benchmark
+    public int binReadDialoguePage() throws IOException {
+        try (BinOut.Reader r = BinOut.Reader.wrap(bin)) {
+            int n = 0;
+            for (int i = 0; i < r.size(); i++) {
+                if (r.kind(i) == Kind.DIALOGUE && r.page(i) >= 10) n += r.textBytes(i).remaining();
+            }
+            return n;
+        }
+    }
+}
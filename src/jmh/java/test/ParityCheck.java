@@ -0,0 +1,192 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import test.PosDump.Line;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Differential checks behind two byte-for-byte claims, run by the jmh profile before the
+// benchmarks (exec execution "parity", or java test.ParityCheck [fuzzLines] from the project
+// root with the test classpath):
+//
+//   LineClassifier.classify  vs  the PosDump String helpers it replaced (normalize,
+//       cleanupWeirdInterleaving, sceneScore, isCharacterCue, isParenthetical), on every line
+//       of the samples and on fuzzed lines built from the characters the scan special-cases
+//   BinOut write -> Reader  vs  the paragraphs written, field by field and as the JSON /
+//       NDJSON ParaWriter output, for the samples' paragraphs and fuzzed ones
+//
+// Exits 1 on the first few mismatches, printed; the fuzz is seeded, so a failure repeats.
+public final class ParityCheck {
+    private ParityCheck() {}
+
+    // every character class the scan or the regexes treat specially, plus plain text
+    private static final String ALPHABET = "  \t __..//\\--–—|,((AZaz09?ÇĞİÖŞÜçğıöşüé\u0001\n \u0085";
+    private static final String[] WORDS = {"INT.", "EXT.", "IÇ", "GÜN", "GECE", "HIRT", "1.", "2)", "3 -", "(devam)",
+            "Created using Celtx", "created USING celtx", "s a r a d a", "_", "__", "a_b", "...", "/"};
+    private static final int MAX_REPORTED = 10;
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        int fuzz = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Random rnd = new Random(20261018L);
+
+        List<String> lines = new ArrayList<>();
+        List<ParaOut> paras = new ArrayList<>();
+        for (String pdf : BenchData.PDFS) {
+            for (Line ln : BenchData.lines(pdf)) lines.add(ln.text.toString());
+            try (PDDocument doc = BenchData.load(pdf)) {
+                paras.addAll(PosDump.extractParagraphs(doc, 1, doc.getNumberOfPages(), Integer.MAX_VALUE,
+                        PosDump.Engine.STRIPPER, GroupingConfig.DEFAULT, Metrics.OFF, Guard.NONE));
+            }
+        }
+
+        LineClassifier classifier = new LineClassifier();
+        int sampleLines = lines.size();
+        for (String raw : lines) checkLine(classifier, raw);
+        for (int i = 0; i < fuzz; i++) checkLine(classifier, fuzzLine(rnd, lines));
+        System.out.printf("LineClassifier: %d sample + %d fuzzed lines%n", sampleLines, fuzz);
+
+        checkBin(paras);
+        List<ParaOut> fuzzed = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) fuzzed.add(fuzzPara(rnd, i));
+        checkBin(fuzzed);
+        System.out.printf("BinOut: %d sample + %d fuzzed paragraphs%n", paras.size(), fuzzed.size());
+
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " mismatch(es)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // --- LineClassifier ---
+
+    private static void checkLine(LineClassifier c, String raw) {
+        boolean got = c.classify(raw);
+
+        // the grouper's per-line chain before LineClassifier
+        String t = PosDump.normalize(raw);
+        boolean want = !t.isBlank() && !t.equalsIgnoreCase("Created using Celtx");
+        if (want) {
+            t = PosDump.cleanupWeirdInterleaving(t);
+            want = !t.isBlank();
+        }
+        if (got != want) {
+            fail(raw, "classify " + got + ", reference " + want);
+            return;
+        }
+        if (!want) return;
+
+        PosDump.SceneScore sc = PosDump.sceneScore(t);
+        String text = new String(c.text, 0, c.length);
+        if (!text.equals(t)) fail(raw, "text '" + text + "', reference '" + t + "'");
+        else if (c.sceneScore != sc.score || c.hasSceneNumber != sc.hasSceneNumber || c.sepCount != sc.sepCount
+                || c.blockCount != sc.blockCount || c.mostlyCaps != sc.mostlyCaps) {
+            fail(raw, "scene " + c.sceneScore + "/" + c.hasSceneNumber + "/" + c.sepCount + "/" + c.blockCount
+                    + "/" + c.mostlyCaps + ", reference " + sc.score + "/" + sc.hasSceneNumber + "/" + sc.sepCount
+                    + "/" + sc.blockCount + "/" + sc.mostlyCaps);
+        } else if (c.cue != PosDump.isCharacterCue(t)) fail(raw, "cue " + c.cue);
+        else if (c.paren != PosDump.isParenthetical(t)) fail(raw, "paren " + c.paren);
+    }
+
+    // a sample line mutated, or words and characters from the special cases run together
+    private static String fuzzLine(Random rnd, List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        if (rnd.nextInt(3) == 0) {
+            String base = lines.get(rnd.nextInt(lines.size()));
+            for (int i = 0; i < base.length(); i++) {
+                char ch = base.charAt(i);
+                switch (rnd.nextInt(12)) {
+                    case 0: break;                                                   // drop
+                    case 1: sb.append(ch).append(' '); break;                        // space out
+                    case 2: sb.append(ch).append('_'); break;                        // underscore
+                    case 3: sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length()))); break;
+                    default: sb.append(ch);
+                }
+            }
+            return sb.toString();
+        }
+        int n = rnd.nextInt(40);
+        for (int i = 0; i < n; i++) {
+            if (rnd.nextInt(4) == 0) sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+            else sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    // --- BinOut ---
+
+    private static void checkBin(List<ParaOut> paras) throws IOException {
+        ByteArrayOutputStream bin = new ByteArrayOutputStream();
+        try (BinOut.ParaWriter w = new BinOut.ParaWriter(bin)) {
+            for (ParaOut p : paras) w.write(p);
+        }
+        List<ParaOut> back = new ArrayList<>();
+        try (BinOut.Reader r = BinOut.Reader.wrap(bin.toByteArray())) {
+            if (r.size() != paras.size()) fail("bin", "size " + r.size() + ", wrote " + paras.size());
+            for (int i = 0; i < r.size(); i++) back.add(r.para(i));
+        }
+        for (int i = 0; i < Math.min(paras.size(), back.size()); i++) {
+            ParaOut a = paras.get(i), b = back.get(i);
+            if (a.index != b.index || a.page != b.page || a.kind != b.kind || !a.style.equals(b.style)
+                    || Float.compare(a.minX, b.minX) != 0 || Float.compare(a.fontSize, b.fontSize) != 0
+                    || a.lineCount != b.lineCount || Float.compare(a.yTop, b.yTop) != 0
+                    || Float.compare(a.yBottom, b.yBottom) != 0 || !a.text.equals(b.text)) {
+                fail("bin #" + i, "read back differs: '" + b.text + "'");
+            }
+        }
+        for (boolean ndjson : new boolean[] {false, true}) {
+            if (!Arrays.equals(json(paras, ndjson), json(back, ndjson))) {
+                fail("bin", (ndjson ? "NDJSON" : "JSON") + " of the read-back paragraphs differs");
+            }
+        }
+    }
+
+    private static byte[] json(List<ParaOut> paras, boolean ndjson) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonOut.ParaWriter w = new JsonOut.ParaWriter(out, ndjson)) {
+            for (ParaOut p : paras) w.write(p);
+        }
+        return out.toByteArray();
+    }
+
+    // escapes, surrogate pairs, empty text, a handful of repeated styles
+    private static ParaOut fuzzPara(Random rnd, int index) {
+        StringBuilder text = new StringBuilder();
+        int n = rnd.nextInt(60);
+        for (int i = 0; i < n; i++) {
+            switch (rnd.nextInt(8)) {
+                case 0: text.append("\"\\\n\t\r\b\f".charAt(rnd.nextInt(7))); break;
+                case 1: text.append((char) rnd.nextInt(0x20)); break;
+                case 2: text.appendCodePoint(0x1F600 + rnd.nextInt(64)); break;
+                case 3: text.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length()))); break;
+                default: text.append((char) ('a' + rnd.nextInt(26)));
+            }
+        }
+        Kind kind = Kind.values()[rnd.nextInt(Kind.values().length)];
+        String style = kind + "_x" + rnd.nextInt(5) * 10 + "_f12";
+        float y = rnd.nextFloat() * 800f;
+        return new ParaOut(index, 1 + rnd.nextInt(300), kind, style, rnd.nextFloat() * 600f, 6f + rnd.nextFloat() * 20f,
+                1 + rnd.nextInt(20), y, y + rnd.nextFloat() * 100f, text.toString());
+    }
+
+    private static void fail(String what, String detail) {
+        if (++failures <= MAX_REPORTED) System.out.println("MISMATCH " + quote(what) + ": " + detail);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x20 || ch == 0x85 || ch == 0x2028 || ch == 0xA0) sb.append(String.format("\\u%04x", (int) ch));
+            else sb.append(ch);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,293 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Batch entry point: runs the PosDump pipeline over many PDFs in one JVM.
+//
+//   BatchRun <dir | file.pdf | @list.txt>... [--out=dir] [--workers=N] [--doc-mem-mb=64]
+//            [--start=1] [--pages=N] [--paras=N] [--format=json|ndjson] [--cache=dir --cache-mb=256]
+//            [--engine=stripper|raw] [--load=buffered|mmap] [--temp-dir=dir] [--bin] [--index=file.pix]
+//            [--metrics] [--font-cache-mb=32] [--breakdown=file.json]
+//            [--max-doc-ms=600000] [--max-page-glyphs=50000] [--max-glyphs=10000000] [--max-line-chars=2000]
+//
+// Directories are scanned recursively for *.pdf; @list.txt names one path per line.
+// Every input gets <out>/<name>.json (plus <name>.bin with --bin, <name>.metrics.json with --metrics).
+// A failing document is reported and skipped. --index builds a ScriptIndex over the
+// documents that succeeded; --breakdown their Breakdown, merged per project (directory).
+// A document over one of the --max-* limits (see Guard) is written partial and flagged.
+public final class BatchRun {
+
+    static final class Result {
+        final File pdf;
+        File out;
+        int pages;
+        int paras;
+        boolean cached; // served from ResultCache, pages were not re-extracted
+        String partial; // what its Guard cut, null = complete
+        long nanos;
+        Throwable error;
+
+        Result(File pdf) {
+            this.pdf = pdf;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        RunOptions opt = RunOptions.parseBatch(args);
+        List<File> pdfs = collectInputs(opt.inputs);
+        if (pdfs.isEmpty()) {
+            System.err.println("No PDF inputs. Usage: BatchRun <dir | file.pdf | @list.txt>... [--out=dir] [--workers=N]");
+            System.exit(2);
+        }
+
+        File outDir = new File(opt.outDir);
+        Files.createDirectories(outDir.toPath());
+
+        ResultCache cache = opt.cacheDir == null ? null : new ResultCache(new File(opt.cacheDir), opt.cacheBytes);
+        int workers = boundedWorkers(opt);
+        DocLoader loader = DocLoader.of(opt);
+        MemoryReport memory = MemoryReport.start(loader);
+        ScriptIndex.Builder index = opt.indexPath == null ? null : new ScriptIndex.Builder();
+        Breakdown.Project breakdown = opt.breakdownPath == null ? null : new Breakdown.Project();
+        long t0 = System.nanoTime();
+        List<Result> results = run(pdfs, outDir, opt, workers, cache, loader, memory, index, breakdown);
+        printSummary(results, System.nanoTime() - t0, workers);
+        if (cache != null) System.out.println("  " + cache.stats());
+        if (loader.fonts != null) System.out.println("  " + loader.fonts.stats());
+        if (index != null) {
+            File f = new File(opt.indexPath);
+            index.write(f);
+            System.out.println("  Index: " + index.sceneCount + " scenes, " + index.termCount + " terms: "
+                    + f.getAbsolutePath());
+        }
+        if (breakdown != null) {
+            File f = new File(opt.breakdownPath.isEmpty() ? "breakdown.json" : opt.breakdownPath);
+            breakdown.write(f);
+            System.out.println("  " + breakdown.summary() + ": " + f.getAbsolutePath());
+        }
+        System.out.println("  " + memory.summary());
+        if (results.stream().anyMatch(r -> r.error != null)) System.exit(1);
+    }
+
+    static List<Result> run(List<File> pdfs, File outDir, RunOptions opt, int workers, ResultCache cache,
+                            DocLoader loader, MemoryReport memory, ScriptIndex.Builder index,
+                            Breakdown.Project breakdown) throws InterruptedException {
+        String ext = opt.ndjson ? ".ndjson" : ".json";
+
+        List<Result> results = new ArrayList<>(pdfs.size());
+        Set<String> used = new HashSet<>();
+        for (File pdf : pdfs) {
+            Result r = new Result(pdf);
+            r.out = new File(outDir, uniqueName(baseName(pdf), used) + ext);
+            results.add(r);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread t = new Thread(runnable, "posdump-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(results.size());
+            for (Result r : results) {
+                futures.add(pool.submit(() -> processOne(r, opt, cache, loader, memory, index, breakdown)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    // processOne records its own failures; this only catches bugs in it
+                    Result r = results.get(i);
+                    if (r.error == null) r.error = e.getCause();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    // Never throws: any failure, including running out of memory on one document,
+    // is recorded on the result and the worker moves on.
+    // index: where the document's paragraphs go once written, null = not indexing
+    // project: where its Breakdown goes, null = no breakdown
+    // loader: shared by all documents, so they share its font cache and one MemoryReport
+    static void processOne(Result r, RunOptions opt, ResultCache cache, DocLoader loader, MemoryReport memory,
+                           ScriptIndex.Builder index, Breakdown.Project project) {
+        long t0 = System.nanoTime();
+        File tmp = new File(r.out.getPath() + ".tmp");
+        Metrics metrics = Metrics.create(opt.metricsPath != null);
+        metrics.memory(memory);
+        Breakdown breakdown = project == null ? null : new Breakdown();
+        try {
+            metrics.begin(Metrics.Stage.CACHE);
+            String key = cache == null ? null : cache.key(r.pdf, opt.startPage, opt.maxPages, opt.maxParas, opt.engine, opt.grouping);
+            List<ParaOut> paras = cache == null ? null : cache.get(key);
+            metrics.end(Metrics.Stage.CACHE);
+            if (paras != null) {
+                r.cached = true;
+                if (breakdown != null) for (ParaOut p : paras) breakdown.accept(p);
+            } else {
+                metrics.begin(Metrics.Stage.LOAD);
+                try (PDDocument doc = loader.load(r.pdf)) {
+                    int total = doc.getNumberOfPages();
+                    int start = opt.firstPage(total);
+                    int end = opt.lastPage(total);
+                    metrics.end(Metrics.Stage.LOAD);
+                    paras = new ArrayList<>();
+                    Guard guard = Guard.of(opt);
+                    PosDump.extractParagraphs(doc, start, end, opt.maxParas, opt.engine, opt.grouping, metrics,
+                            guard, ParaSink.tee(paras::add, breakdown));
+                    r.pages = end - start + 1;
+                    r.partial = guard.describe();
+                    memory.sample();
+                }
+                if (cache != null && r.partial == null) {
+                    metrics.begin(Metrics.Stage.CACHE);
+                    cache.put(key, paras);
+                    metrics.end(Metrics.Stage.CACHE);
+                }
+            }
+
+            metrics.begin(Metrics.Stage.WRITE);
+            try (JsonOut.ParaWriter w = new JsonOut.ParaWriter(tmp, opt.ndjson)) {
+                for (ParaOut p : paras) w.write(p);
+                w.partial(r.partial);
+            }
+            Files.move(tmp.toPath(), r.out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (opt.bin) {
+                String name = r.out.getName();
+                File bin = new File(r.out.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".bin");
+                File binTmp = new File(bin.getPath() + ".tmp");
+                try {
+                    try (BinOut.ParaWriter w = new BinOut.ParaWriter(binTmp)) {
+                        for (ParaOut p : paras) w.write(p);
+                    }
+                    Files.move(binTmp.toPath(), bin.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    binTmp.delete(); // no-op after the move
+                }
+            }
+            metrics.end(Metrics.Stage.WRITE);
+            r.paras = paras.size();
+            if (index != null) index.add(r.pdf.getPath(), paras);
+            if (breakdown != null) {
+                breakdown.finish();
+                project.add(r.pdf, breakdown);
+            }
+            metrics.finish(opt.metricsPath != null ? Metrics.besides(r.out) : null,
+                    r.pdf.getPath(), r.cached ? "cached" : "batch");
+        } catch (Exception | OutOfMemoryError | StackOverflowError e) {
+            r.error = e;
+            tmp.delete();
+        } finally {
+            r.nanos = System.nanoTime() - t0;
+        }
+    }
+
+    // Every in-flight document may hold up to docMemBytes of PDFBox stream cache on the heap
+    // (the rest spills to temp files), so never run more documents at once than fit in
+    // three quarters of the max heap.
+    static int boundedWorkers(RunOptions opt) {
+        int workers = opt.effectiveWorkers();
+        long heapShare = Runtime.getRuntime().maxMemory() * 3 / 4;
+        long fit = Math.max(1, heapShare / Math.max(1, opt.docMemBytes));
+        return (int) Math.max(1, Math.min(workers, fit));
+    }
+
+    static List<File> collectInputs(List<String> inputs) throws IOException {
+        List<File> out = new ArrayList<>();
+        for (String in : inputs) {
+            if (in.startsWith("@")) {
+                for (String line : Files.readAllLines(new File(in.substring(1)).toPath(), StandardCharsets.UTF_8)) {
+                    String p = line.trim();
+                    if (!p.isEmpty() && !p.startsWith("#")) out.add(new File(p));
+                }
+                continue;
+            }
+            File f = new File(in);
+            if (f.isDirectory()) {
+                try (var walk = Files.walk(f.toPath())) {
+                    walk.filter(p -> p.toString().toLowerCase(Locale.ROOT).endsWith(".pdf"))
+                        .sorted()
+                        .forEach(p -> out.add(p.toFile()));
+                }
+            } else {
+                out.add(f);
+            }
+        }
+        return out;
+    }
+
+    static String baseName(File pdf) {
+        String n = pdf.getName();
+        return n.toLowerCase(Locale.ROOT).endsWith(".pdf") ? n.substring(0, n.length() - 4) : n;
+    }
+
+    // two inputs called script.pdf in different folders -> script, script-2
+    private static String uniqueName(String base, Set<String> used) {
+        String name = base;
+        for (int i = 2; !used.add(name); i++) name = base + "-" + i;
+        return name;
+    }
+
+    static void printSummary(List<Result> results, long wallNanos, int workers) {
+        int ok = 0, pages = 0, paras = 0;
+        List<Result> failed = new ArrayList<>();
+        List<Result> partial = new ArrayList<>();
+        for (Result r : results) {
+            if (r.error != null) { failed.add(r); continue; }
+            if (r.partial != null) partial.add(r);
+            ok++;
+            pages += r.pages;
+            paras += r.paras;
+        }
+
+        double wallSec = wallNanos / 1e9;
+        System.out.printf(Locale.ROOT, "Batch: %d documents, %d ok, %d failed, %d workers%n",
+                results.size(), ok, failed.size(), workers);
+        if (!partial.isEmpty()) System.out.printf(Locale.ROOT, "  %d of them partial%n", partial.size());
+        System.out.printf(Locale.ROOT, "  pages=%d paragraphs=%d wall=%.2fs throughput=%.1f pages/s%n",
+                pages, paras, wallSec, wallSec > 0 ? pages / wallSec : 0.0);
+
+        List<Result> slowest = new ArrayList<>(results);
+        slowest.sort(Comparator.comparingLong((Result r) -> r.nanos).reversed());
+        System.out.println("  slowest:");
+        for (int i = 0; i < Math.min(5, slowest.size()); i++) {
+            Result r = slowest.get(i);
+            double sec = r.nanos / 1e9;
+            System.out.printf(Locale.ROOT, "    %8.3fs  %4d pages  %6.1f pages/s  %s%s%n",
+                    sec, r.pages, sec > 0 ? r.pages / sec : 0.0, r.pdf.getPath(),
+                    r.error != null ? "  (FAILED)" : r.partial != null ? "  (partial)" : r.cached ? "  (cached)" : "");
+        }
+
+        if (!partial.isEmpty()) {
+            System.out.println("  partial:");
+            for (Result r : partial) {
+                System.out.println("    " + r.pdf.getPath() + ": " + r.partial);
+            }
+        }
+        if (!failed.isEmpty()) {
+            System.out.println("  failures:");
+            for (Result r : failed) {
+                System.out.println("    " + r.pdf.getPath() + ": " + r.error);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Compact binary paragraph file (--bin writes out.bin next to out.json), for consumers that
+// filter by kind or page and would otherwise re-parse the whole JSON.
+//
+//   header   magic "PBN1", record count, string count, kind count, then the byte offsets of
+//            the string table, the records and the text heap (7 big-endian ints)
+//   strings  kind names (ids 0..kinds-1, in Kind order when written) followed by the distinct
+//            style labels; each a u16 byte length + UTF-8, padded to a multiple of 4
+//   records  RECORD bytes each: index, page, style id, kind id (+3 pad), minX, fontSize,
+//            lines, yTop, yBottom, text offset, text length
+//   text     the paragraphs' UTF-8 bytes, back to back
+//
+// Reader maps the file and reads fields straight out of the mapping; only the string table
+// is decoded up front. Converting back (BinOut <in.bin> [out.json] [--format=ndjson]) gives
+// byte-for-byte the JSON ParaWriter writes for the same paragraphs.
+public final class BinOut {
+    private BinOut() {}
+
+    static final int MAGIC = 0x50424E31; // "PBN1"
+    static final int HEADER = 7 * 4;
+    static final int RECORD = 44;
+
+    // record field offsets
+    private static final int R_INDEX = 0, R_PAGE = 4, R_STYLE = 8, R_KIND = 12, R_MINX = 16, R_FONT = 20,
+            R_LINES = 24, R_YTOP = 28, R_YBOTTOM = 32, R_TEXT_OFF = 36, R_TEXT_LEN = 40;
+
+    public static void main(String[] args) throws IOException {
+        List<String> pos = new ArrayList<>();
+        boolean ndjson = false;
+        for (String a : args) {
+            if (a.equals("--format=ndjson")) ndjson = true;
+            else if (a.equals("--format=json")) ndjson = false;
+            else if (a.startsWith("--")) throw new IllegalArgumentException("Unknown option: " + a);
+            else pos.add(a);
+        }
+        if (pos.isEmpty()) {
+            System.err.println("Usage: BinOut <in.bin> [out.json] [--format=json|ndjson]");
+            System.exit(2);
+        }
+        File in = new File(pos.get(0));
+        File out = new File(pos.size() > 1 ? pos.get(1) : ndjson ? "out.ndjson" : "out.json");
+        long t0 = System.nanoTime();
+        try (Reader r = Reader.open(in);
+             JsonOut.ParaWriter w = new JsonOut.ParaWriter(out, ndjson)) {
+            for (int i = 0; i < r.size(); i++) w.write(r.para(i));
+            System.out.printf(Locale.ROOT, "Converted %d paragraphs (%d bytes) in %.1f ms%n",
+                    r.size(), in.length(), (System.nanoTime() - t0) / 1e6);
+        }
+        System.out.println("Wrote: " + out.getAbsolutePath());
+    }
+
+    // Collects records and text while paragraphs arrive and writes the file on close; the
+    // header needs the final counts and offsets.
+    static final class ParaWriter implements ParaSink, Closeable {
+        private final OutputStream out;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream(16 * 1024);
+        private final DataOutputStream rec = new DataOutputStream(records);
+        private final ByteArrayOutputStream text = new ByteArrayOutputStream(64 * 1024);
+        private int count = 0;
+
+        ParaWriter(File outFile) throws IOException {
+            this(new FileOutputStream(outFile));
+        }
+
+        ParaWriter(OutputStream out) {
+            this.out = out;
+            for (Kind k : Kind.values()) id(k.name());
+        }
+
+        @Override
+        public void accept(ParaOut p) throws IOException {
+            write(p);
+        }
+
+        void write(ParaOut p) throws IOException {
+            byte[] t = p.text.getBytes(StandardCharsets.UTF_8);
+            if ((long) text.size() + t.length > Integer.MAX_VALUE) throw new IOException("Text heap over 2 GB");
+            rec.writeInt(p.index);
+            rec.writeInt(p.page);
+            rec.writeInt(id(p.style));
+            rec.writeInt(p.kind.ordinal() << 24); // kind byte + 3 pad
+            rec.writeFloat(p.minX);
+            rec.writeFloat(p.fontSize);
+            rec.writeInt(p.lineCount);
+            rec.writeFloat(p.yTop);
+            rec.writeFloat(p.yBottom);
+            rec.writeInt(text.size());
+            rec.writeInt(t.length);
+            text.write(t);
+            count++;
+        }
+
+        int count() {
+            return count;
+        }
+
+        private int id(String s) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = strings.size();
+                ids.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024))) {
+                ByteArrayOutputStream table = new ByteArrayOutputStream(strings.size() * 24);
+                DataOutputStream t = new DataOutputStream(table);
+                for (String s : strings) {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    if (b.length > 0xFFFF) throw new IOException("Style label too long: " + s);
+                    t.writeShort(b.length);
+                    t.write(b);
+                }
+                while (table.size() % 4 != 0) table.write(0);
+
+                int stringsOff = HEADER;
+                int recordsOff = stringsOff + table.size();
+                long textOff = (long) recordsOff + records.size();
+                if (textOff + text.size() > Integer.MAX_VALUE) throw new IOException("Binary output over 2 GB");
+                o.writeInt(MAGIC);
+                o.writeInt(count);
+                o.writeInt(strings.size());
+                o.writeInt(Kind.values().length);
+                o.writeInt(stringsOff);
+                o.writeInt(recordsOff);
+                o.writeInt((int) textOff);
+                table.writeTo(o);
+                records.writeTo(o);
+                text.writeTo(o);
+            }
+        }
+    }
+
+    // Read-only view of a mapped file. Numeric fields and text bytes come straight from the
+    // mapping; text(i) and para(i) decode on request. The mapping is released with the last
+    // reference to it (no unmap: PDFBox's IOUtils.unmap would drag commons-logging into a
+    // millisecond-sized open for nothing), so close() only guards against later use.
+    static final class Reader implements Closeable {
+        private final ByteBuffer buf;
+        private final int size;
+        private final int recordsOff;
+        private final int textOff;
+        private final String[] strings;
+        private final Kind[] kinds;     // kind id -> Kind, by name, so a reordered enum still reads
+        private boolean closed;
+
+        private Reader(ByteBuffer buf) throws IOException {
+            this.buf = buf;
+            if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) throw new IOException("Not a paragraph file");
+            size = buf.getInt(4);
+            int stringCount = buf.getInt(8);
+            int kindCount = buf.getInt(12);
+            int pos = buf.getInt(16);
+            recordsOff = buf.getInt(20);
+            textOff = buf.getInt(24);
+            if (kindCount > stringCount || (long) recordsOff + (long) size * RECORD > textOff || textOff > buf.limit()) {
+                throw new IOException("Corrupt paragraph file");
+            }
+
+            strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int len = buf.getShort(pos) & 0xFFFF;
+                strings[i] = utf8(pos + 2, len);
+                pos += 2 + len;
+            }
+            kinds = new Kind[kindCount];
+            for (int i = 0; i < kindCount; i++) kinds[i] = Kind.valueOf(strings[i]);
+        }
+
+        static Reader open(File f) throws IOException {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                if (ch.size() > Integer.MAX_VALUE) throw new IOException("Not a paragraph file: " + f);
+                return new Reader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            }
+        }
+
+        // for bytes already in memory (tests, benchmarks)
+        static Reader wrap(byte[] b) throws IOException {
+            return new Reader(ByteBuffer.wrap(b));
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int at(int i) {
+            if (closed) throw new IllegalStateException("Reader is closed");
+            if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Record " + i + " of " + size);
+            return recordsOff + i * RECORD;
+        }
+
+        int index(int i)      { return buf.getInt(at(i) + R_INDEX); }
+        int page(int i)       { return buf.getInt(at(i) + R_PAGE); }
+        int styleId(int i)    { return buf.getInt(at(i) + R_STYLE); }
+        String style(int i)   { return strings[styleId(i)]; }
+        Kind kind(int i)      { return kinds[buf.get(at(i) + R_KIND)]; }
+        float minX(int i)     { return buf.getFloat(at(i) + R_MINX); }
+        float fontSize(int i) { return buf.getFloat(at(i) + R_FONT); }
+        int lineCount(int i)  { return buf.getInt(at(i) + R_LINES); }
+        float yTop(int i)     { return buf.getFloat(at(i) + R_YTOP); }
+        float yBottom(int i)  { return buf.getFloat(at(i) + R_YBOTTOM); }
+
+        // the paragraph's UTF-8 bytes as a slice of the mapping, no copy
+        ByteBuffer textBytes(int i) {
+            int r = at(i);
+            int off = textOff + buf.getInt(r + R_TEXT_OFF);
+            return buf.slice(off, buf.getInt(r + R_TEXT_LEN));
+        }
+
+        String text(int i) {
+            int r = at(i);
+            return utf8(textOff + buf.getInt(r + R_TEXT_OFF), buf.getInt(r + R_TEXT_LEN));
+        }
+
+        ParaOut para(int i) {
+            return new ParaOut(index(i), page(i), kind(i), style(i), minX(i), fontSize(i),
+                    lineCount(i), yTop(i), yBottom(i), text(i));
+        }
+
+        private String utf8(int off, int len) {
+            if (buf.hasArray()) return new String(buf.array(), buf.arrayOffset() + off, len, StandardCharsets.UTF_8);
+            byte[] b = new byte[len];
+            buf.get(off, b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
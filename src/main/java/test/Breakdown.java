@@ -0,0 +1,366 @@
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Script breakdown for scheduling (--breakdown=file.json), built as the paragraphs stream
+// past: a ParaSink next to the JSON writer, one pass, nothing kept but counters.
+//
+//   scenes      one per SCENE paragraph, with its heading, first page, cast and length
+//   length      in page-eighths: a scene runs from its heading's baseline to the next
+//               heading's (or to the bottom of the text), summed over pages, against the
+//               tallest text body of the script; at least 1/8, as on a breakdown sheet
+//   characters  per cue name (ScriptIndex.cueName): cues, words of the DIALOGUE paragraphs
+//               in its CHARACTER -> PAREN / DIALOGUE chains, scenes it speaks in
+//
+// Page numbers (_PG_ styles) neither end a dialogue chain nor count towards a page's text
+// body. Paragraphs before the first scene heading (title page) count for the characters
+// only. Characters get dense int ids on their first cue, so every counter is an int array.
+final class Breakdown implements ParaSink {
+
+    // --- scenes ---
+    private int scenes;
+    private String[] heading = new String[64];
+    private int[] scenePage = new int[64];
+    private float[] sceneLength = new float[64];   // pt of text body
+    private int[] castStart = new int[65];         // scene s's cast is cast[castStart[s] .. castStart[s + 1])
+    private int[] cast = new int[256];
+    private int castSize;
+    private int[] eighths;                          // set by finish()
+
+    // --- characters ---
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int characters;
+    private String[] names = new String[32];
+    private int[] cues = new int[32];
+    private int[] words = new int[32];
+    private int[] sceneCount = new int[32];
+    private int[] lastScene = new int[32];
+    private int speaker = -1;                       // open CHARACTER chain, -1 = none
+
+    // --- the page being read ---
+    private int page;
+    private int pages;
+    private float top, bottom;
+    private int carried = -1;                       // scene still open when the page began
+    private int starts;
+    private int[] startScene = new int[8];
+    private float[] startY = new float[8];
+    private float body;                             // tallest page text body seen
+
+    int dialogueWords;
+
+    @Override
+    public void accept(ParaOut p) {
+        if (p.page != page) {
+            closePage();
+            page = p.page;
+            pages++;
+            top = Float.MAX_VALUE;
+            bottom = -Float.MAX_VALUE;
+        }
+        boolean pageNumber = p.style.contains("_PG_");
+        if (!pageNumber) {
+            top = Math.min(top, p.yTop);
+            // one line's height below the last baseline, so a one-line page is not empty
+            bottom = Math.max(bottom, p.yBottom + p.fontSize);
+        }
+
+        switch (p.kind) {
+            case SCENE:
+                startScene(p);
+                speaker = -1;
+                break;
+            case CHARACTER:
+                speaker = character(p.text);
+                if (speaker >= 0) {
+                    cues[speaker]++;
+                    if (scenes > 0 && lastScene[speaker] != scenes) {
+                        lastScene[speaker] = scenes;
+                        sceneCount[speaker]++;
+                        if (castSize == cast.length) cast = Arrays.copyOf(cast, castSize * 2);
+                        cast[castSize++] = speaker;
+                    }
+                }
+                break;
+            case DIALOGUE:
+                int n = wordCount(p.text);
+                dialogueWords += n;
+                if (speaker >= 0) words[speaker] += n;
+                break;
+            case PAREN:
+                break;
+            case ACTION:
+                if (!pageNumber) speaker = -1;
+                break;
+        }
+    }
+
+    // Call once after the last paragraph.
+    void finish() {
+        closePage();
+        page = 0;
+        castStart[scenes] = castSize;
+        eighths = new int[scenes];
+        for (int s = 0; s < scenes; s++) {
+            eighths[s] = body <= 0f ? 1 : Math.max(1, Math.round(8f * sceneLength[s] / body));
+        }
+    }
+
+    private void startScene(ParaOut p) {
+        if (scenes + 1 == heading.length) {
+            int cap = heading.length * 2;
+            heading = Arrays.copyOf(heading, cap);
+            scenePage = Arrays.copyOf(scenePage, cap);
+            sceneLength = Arrays.copyOf(sceneLength, cap);
+            castStart = Arrays.copyOf(castStart, cap + 1);
+        }
+        castStart[scenes] = castSize;
+        heading[scenes] = p.text.replace('\n', ' ');
+        scenePage[scenes] = p.page;
+        scenes++;   // scene ids in lastScene are 1-based, 0 = none yet
+
+        if (starts == startScene.length) {
+            startScene = Arrays.copyOf(startScene, starts * 2);
+            startY = Arrays.copyOf(startY, starts * 2);
+        }
+        startScene[starts] = scenes - 1;
+        startY[starts] = p.yTop;
+        starts++;
+    }
+
+    // Cuts the finished page's text body at the scene headings on it.
+    private void closePage() {
+        if (page == 0) return;
+        if (top <= bottom) {
+            body = Math.max(body, bottom - top);
+            int open = carried;
+            float from = top;
+            for (int i = 0; i < starts; i++) {
+                if (open >= 0) sceneLength[open] += Math.max(0f, startY[i] - from);
+                open = startScene[i];
+                from = startY[i];
+            }
+            if (open >= 0) sceneLength[open] += Math.max(0f, bottom - from);
+            carried = open;
+        } else if (starts > 0) {
+            carried = startScene[starts - 1];
+        }
+        starts = 0;
+    }
+
+    private int character(String cue) {
+        String key = ScriptIndex.cueName(cue);
+        if (key.isEmpty()) return -1;
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        int c = characters++;
+        if (c == names.length) {
+            int cap = c * 2;
+            names = Arrays.copyOf(names, cap);
+            cues = Arrays.copyOf(cues, cap);
+            words = Arrays.copyOf(words, cap);
+            sceneCount = Arrays.copyOf(sceneCount, cap);
+            lastScene = Arrays.copyOf(lastScene, cap);
+        }
+        names[c] = displayName(cue);
+        ids.put(key, c);
+        return c;
+    }
+
+    // "HİRT (V.O.)" -> "HİRT", whitespace runs -> one space
+    static String displayName(String cue) {
+        int paren = cue.indexOf('(');
+        return Golden.normalize(paren < 0 ? cue : cue.substring(0, paren));
+    }
+
+    static int wordCount(CharSequence s) {
+        int n = 0;
+        boolean in = false;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            boolean letter = Character.isLetterOrDigit(s.charAt(i));
+            if (letter && !in) n++;
+            in = letter || (in && (s.charAt(i) == '\'' || s.charAt(i) == '’' || s.charAt(i) == '-'));
+        }
+        return n;
+    }
+
+    // 11 -> "1 3/8", 8 -> "1", 3 -> "3/8"
+    static String eighthsLabel(long e) {
+        long whole = e / 8, rest = e % 8;
+        if (rest == 0) return Long.toString(whole);
+        return whole == 0 ? rest + "/8" : whole + " " + rest + "/8";
+    }
+
+    int scenes() {
+        return scenes;
+    }
+
+    long totalEighths() {
+        long sum = 0;
+        for (int e : eighths) sum += e;
+        return sum;
+    }
+
+    // --- project report ---
+
+    // Breakdowns of a whole batch, grouped by project (the PDF's directory). Thread-safe:
+    // BatchRun workers add their documents as they finish, in any order.
+    static final class Project {
+        // keyed by the directory's absolute path, so /a/drafts and /b/drafts stay apart;
+        // the report names a project by its last component and gives the path besides
+        private final Map<String, Map<String, Breakdown>> projects = new TreeMap<>();
+        int documents, sceneTotal, characterTotal;
+
+        synchronized void add(File pdf, Breakdown b) {
+            File dir = pdf.getAbsoluteFile().getParentFile();
+            String project = dir == null ? "" : dir.getPath();
+            projects.computeIfAbsent(project, k -> new TreeMap<>()).put(pdf.getPath(), b);
+        }
+
+        // Breakdown: 12 scripts in 2 projects, 640 scenes, 85 characters (counts as of the last write)
+        synchronized String summary() {
+            return "Breakdown: " + documents + " scripts in " + projects.size() + " projects, "
+                    + sceneTotal + " scenes, " + characterTotal + " characters";
+        }
+
+        // Merges each project's documents (characters by cue name) and writes everything.
+        synchronized void write(File file) throws IOException {
+            documents = sceneTotal = characterTotal = 0;
+            StringBuilder sb = new StringBuilder(64 * 1024);
+            sb.append("{\"projects\": [");
+            boolean firstProject = true;
+            for (Map.Entry<String, Map<String, Breakdown>> pe : projects.entrySet()) {
+                sb.append(firstProject ? "\n" : ",\n");
+                firstProject = false;
+                appendProject(sb, pe.getKey(), pe.getValue());
+            }
+            sb.append(firstProject ? "]}\n" : "\n]}\n");
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                w.write(sb.toString());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void appendProject(StringBuilder sb, String path, Map<String, Breakdown> docs) {
+            // merged characters: key -> id into the arrays below
+            Map<String, Integer> merged = new HashMap<>();
+            List<String> mergedNames = new ArrayList<>();
+            int[] m = new int[0];   // cues, words, scenes, scripts per merged id
+            int pages = 0, scenes = 0;
+            long eighths = 0;
+            for (Breakdown b : docs.values()) {
+                pages += b.pages;
+                scenes += b.scenes;
+                eighths += b.totalEighths();
+                for (Map.Entry<String, Integer> ce : b.ids.entrySet()) {
+                    int c = ce.getValue();
+                    Integer id = merged.get(ce.getKey());
+                    if (id == null) {
+                        id = mergedNames.size();
+                        merged.put(ce.getKey(), id);
+                        mergedNames.add(b.names[c]);
+                        if (m.length < 4 * mergedNames.size()) m = Arrays.copyOf(m, Math.max(64, m.length * 2));
+                    }
+                    m[4 * id] += b.cues[c];
+                    m[4 * id + 1] += b.words[c];
+                    m[4 * id + 2] += b.sceneCount[c];
+                    m[4 * id + 3]++;
+                }
+            }
+            documents += docs.size();
+            sceneTotal += scenes;
+            characterTotal += mergedNames.size();
+
+            sb.append("  {\"project\": ");
+            JsonOut.appendString(sb, new File(path).getName());
+            sb.append(", \"path\": ");
+            JsonOut.appendString(sb, path);
+            sb.append(", \"scripts\": ").append(docs.size())
+              .append(", \"pages\": ").append(pages)
+              .append(", \"scenes\": ").append(scenes)
+              .append(", \"eighths\": ").append(eighths)
+              .append(", \"length\": \"").append(eighthsLabel(eighths)).append('"');
+            sb.append(",\n   \"characters\": [");
+            int[] counts = m;
+            Integer[] order = new Integer[mergedNames.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> counts[4 * a] != counts[4 * b] ? Integer.compare(counts[4 * b], counts[4 * a])
+                    : mergedNames.get(a).compareTo(mergedNames.get(b)));
+            for (int i = 0; i < order.length; i++) {
+                int id = order[i];
+                sb.append(i == 0 ? "\n    " : ",\n    ");
+                appendCharacter(sb, mergedNames.get(id), counts[4 * id], counts[4 * id + 1], counts[4 * id + 2]);
+                sb.append(", \"scripts\": ").append(counts[4 * id + 3]).append('}');
+            }
+            sb.append(order.length == 0 ? "]" : "\n   ]");
+
+            sb.append(",\n   \"documents\": [");
+            boolean first = true;
+            for (Map.Entry<String, Breakdown> de : docs.entrySet()) {
+                sb.append(first ? "\n" : ",\n");
+                first = false;
+                de.getValue().appendDocument(sb, de.getKey());
+            }
+            sb.append(first ? "]}" : "\n   ]}");
+        }
+    }
+
+    private static void appendCharacter(StringBuilder sb, String name, int cues, int words, int scenes) {
+        sb.append("{\"name\": ");
+        JsonOut.appendString(sb, name);
+        sb.append(", \"cues\": ").append(cues)
+          .append(", \"dialogueWords\": ").append(words)
+          .append(", \"scenes\": ").append(scenes);
+    }
+
+    void appendDocument(StringBuilder sb, String pdf) {
+        sb.append("    {\"pdf\": ");
+        JsonOut.appendString(sb, pdf);
+        sb.append(", \"pages\": ").append(pages)
+          .append(", \"scenes\": ").append(scenes)
+          .append(", \"eighths\": ").append(totalEighths())
+          .append(", \"dialogueWords\": ").append(dialogueWords);
+        sb.append(",\n     \"sceneList\": [");
+        for (int s = 0; s < scenes; s++) {
+            sb.append(s == 0 ? "\n      " : ",\n      ");
+            sb.append("{\"scene\": ").append(s + 1).append(", \"page\": ").append(scenePage[s])
+              .append(", \"eighths\": ").append(eighths[s])
+              .append(", \"length\": \"").append(eighthsLabel(eighths[s])).append('"')
+              .append(", \"heading\": ");
+            JsonOut.appendString(sb, heading[s]);
+            sb.append(", \"cast\": [");
+            for (int i = castStart[s]; i < castStart[s + 1]; i++) {
+                if (i > castStart[s]) sb.append(", ");
+                JsonOut.appendString(sb, names[cast[i]]);
+            }
+            sb.append("]}");
+        }
+        sb.append(scenes == 0 ? "]" : "\n     ]");
+        sb.append(",\n     \"characters\": [");
+        Integer[] order = new Integer[characters];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> cues[a] != cues[b] ? Integer.compare(cues[b], cues[a]) : names[a].compareTo(names[b]));
+        for (int i = 0; i < order.length; i++) {
+            int c = order[i];
+            sb.append(i == 0 ? "\n      " : ",\n      ");
+            appendCharacter(sb, names[c], cues[c], words[c], sceneCount[c]);
+            sb.append('}');
+        }
+        sb.append(order.length == 0 ? "]}" : "\n     ]}");
+    }
+}
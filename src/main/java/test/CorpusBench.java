@@ -0,0 +1,162 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// End-to-end throughput over a corpus (CorpusGen output, or any PDFs):
+//
+//   CorpusBench <dir | file.pdf | @list.txt>... [--stream | --pipeline] [--engine=raw] [--grouping=...]
+//               [--load=mmap] [--doc-mem-mb=64] [--font-cache-mb=32] [--warmup=1] [--min-f1=0.99]
+//
+// Documents run one after another on this thread, each the way PosDump would run it (load,
+// capture, lines, paragraphs; no output written). Per document and for the whole corpus:
+// pages/s over load-to-last-paragraph wall time, p50 / p99 of the per-page latency
+// (Metrics.pageLatencies: the whole page with --stream, capture only otherwise), the heap
+// peak while the document was open, and, where <name>.golden.json sits next to the PDF, the
+// Golden kind / seg F1. Exits 1 when a labelled document scores below --min-f1.
+//
+// A document one of the --max-* limits cut (see Guard) counts only the pages it captured and
+// is flagged partial; it is left out of the TOTAL row and of the --min-f1 gate, and what was
+// cut is listed after the table.
+//
+// The first document is run --warmup times untimed first so the JIT is not what gets measured.
+public final class CorpusBench {
+    private CorpusBench() {}
+
+    static final class Run {
+        final File pdf;
+        int pages, paras;
+        long nanos;
+        long[] latencies;
+        long heapPeak;
+        Golden.Match match;   // null = no labels
+        String partial;       // what its Guard cut, null = complete
+
+        Run(File pdf) {
+            this.pdf = pdf;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        RunOptions opt = RunOptions.parseBench(args);
+        List<File> pdfs = BatchRun.collectInputs(opt.inputs);
+        if (pdfs.isEmpty()) {
+            System.err.println("No PDF inputs. Usage: CorpusBench <dir | file.pdf | @list.txt>... [--stream] [--warmup=1]");
+            System.exit(2);
+        }
+        DocLoader loader = DocLoader.of(opt);
+
+        for (int i = 0; i < opt.warmup; i++) run(pdfs.get(0), opt, loader);
+
+        List<Run> runs = new ArrayList<>(pdfs.size());
+        System.out.println("document                        pages  paras    wall ms  pages/s  p50 ms  p99 ms  heap MB  kindF1   segF1");
+        for (File pdf : pdfs) {
+            Run r = run(pdf, opt, loader);
+            runs.add(r);
+            printRow(pdf.getName(), r.pages, r.paras, r.nanos, r.latencies, r.heapPeak, r.match, r.partial != null);
+        }
+
+        int pages = 0, paras = 0;
+        long nanos = 0, heap = 0;
+        List<long[]> all = new ArrayList<>();
+        List<Run> failed = new ArrayList<>();
+        List<Run> partial = new ArrayList<>();
+        for (Run r : runs) {
+            heap = Math.max(heap, r.heapPeak);
+            if (r.partial != null) {
+                partial.add(r);
+                continue;
+            }
+            pages += r.pages;
+            paras += r.paras;
+            nanos += r.nanos;
+            all.add(r.latencies);
+            if (r.match != null && r.match.kindF1 < opt.minF1) failed.add(r);
+        }
+        long[] latencies = all.stream().flatMapToLong(Arrays::stream).toArray();
+        printRow("TOTAL", pages, paras, nanos, latencies, heap, null, false);
+        System.out.printf(Locale.ROOT, "Mode: %s, engine %s, grouping %s, %s, %d warmup run(s)%n",
+                opt.pipeline ? "pipeline" : opt.stream ? "stream" : "batch", opt.engine.name().toLowerCase(Locale.ROOT), opt.grouping,
+                loader.describe(), opt.warmup);
+        if (loader.fonts != null) System.out.println(loader.fonts.stats());
+        for (Run r : partial) System.out.println("PARTIAL: " + r.pdf.getPath() + ": " + r.partial);
+        for (Run r : failed) {
+            System.out.printf(Locale.ROOT, "BELOW %.3f: %s kind F1 %.4f%n", opt.minF1, r.pdf.getPath(), r.match.kindF1);
+        }
+        if (!failed.isEmpty()) System.exit(1);
+    }
+
+    static Run run(File pdf, RunOptions opt, DocLoader loader) throws IOException {
+        Run r = new Run(pdf);
+        File labels = golden(pdf);
+        Golden golden = labels.isFile() ? new Golden(JsonOut.readParas(labels)) : null;
+
+        // so one document's garbage does not count towards the next one's peak
+        System.gc();
+        MemoryReport memory = MemoryReport.start(loader);
+        Metrics metrics = Metrics.create(true);
+        long t0 = System.nanoTime();
+        List<ParaOut> paras;
+        Guard guard = Guard.of(opt);
+        try (PDDocument doc = loader.load(pdf)) {
+            int total = doc.getNumberOfPages();
+            int start = opt.firstPage(total);
+            int end = opt.lastPage(total);
+            if (opt.pipeline) {
+                List<ParaOut> out = new ArrayList<>();
+                metrics.pages(start, end);
+                Pipeline.run(doc, start, end, opt.maxParas, opt.engine, opt.grouping, opt.pipelineDepth, metrics,
+                        guard, out::add);
+                paras = out;
+            } else if (opt.stream) {
+                List<ParaOut> out = new ArrayList<>();
+                metrics.pages(start, end);
+                PosDump.streamParagraphs(doc, start, end, opt.maxParas, opt.engine, opt.grouping, metrics,
+                        guard, out::add);
+                paras = out;
+            } else {
+                paras = PosDump.extractParagraphs(doc, start, end, opt.maxParas, opt.engine, opt.grouping, metrics,
+                        guard);
+            }
+            // a stopped document only got as far as its last captured page
+            r.pages = guard.stopped() ? Math.max(0, metrics.lastPage() - start + 1) : end - start + 1;
+            r.partial = guard.describe();
+        }
+        r.nanos = System.nanoTime() - t0;
+        r.heapPeak = memory.heapPeak();
+        r.paras = paras.size();
+        r.latencies = metrics.pageLatencies();
+        if (golden != null) r.match = golden.match(paras);
+        return r;
+    }
+
+    // screenplay-0100p.pdf -> screenplay-0100p.golden.json
+    static File golden(File pdf) {
+        return new File(pdf.getAbsoluteFile().getParentFile(), BatchRun.baseName(pdf) + ".golden.json");
+    }
+
+    private static void printRow(String name, int pages, int paras, long nanos, long[] latencies, long heap,
+                                 Golden.Match m, boolean partial) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf(Locale.ROOT, "%-30s %6d %6d %10.1f %8.1f %7.2f %7.2f %8.1f  %s%s%n",
+                name.length() > 30 ? name.substring(0, 30) : name, pages, paras, nanos / 1e6,
+                pages / Math.max(nanos / 1e9, 1e-9), percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+                heap / (double) (1 << 20),
+                m == null ? "   -        -" : String.format(Locale.ROOT, "%.4f  %.4f", m.kindF1, m.segF1),
+                partial ? "  (partial)" : "");
+    }
+
+    // nearest rank on sorted values, 0 when there are none
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0L;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+}
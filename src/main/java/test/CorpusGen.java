@@ -0,0 +1,411 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Synthetic screenplays for scaling runs (CorpusBench), written with PDFBox:
+//
+//   CorpusGen <outDir> [--sizes=10,100,500,2000] [--seed=1] [--corrupt=0.03] [--jitter=0]
+//
+// For every size N: screenplay-<N>p.pdf, N letter pages laid out like the Celtx exports
+// the grouper was written against, and screenplay-<N>p.golden.json, the paragraphs it
+// should produce (JsonOut layout; style left empty, Golden ignores it). Positions:
+//   scene headings x 80     "12. KAHVEHANE. İÇ. GECE"
+//   action         x 110    wrapped at 380 pt, blank line between paragraphs
+//   dialogue       x 170    wrapped at 240 pt, under a cue at x 240, optional
+//                           parenthetical at x 200
+//   transitions    x 420    "(KESME)"
+//   page numbers   "N." at x 110 on top of every page but the first (ACTION, like the exports)
+//   footer         "Created using Celtx", which the grouper drops
+// A cue / parenthetical / dialogue block, and a scene heading with its first action
+// paragraph, never break across pages. --corrupt is the share of action and dialogue
+// paragraphs drawn l_e_t_t_e_r_s with underscores or as s p a c e d letters; their expected
+// text is what the classifier's cleanup gives back, which for short lines is the corruption.
+// --jitter is the share of the other action and dialogue paragraphs drawn word by word, each
+// word's baseline up to 0.3 pt off and every fourth word drawn twice 0.35 pt apart (fake
+// bold), the way mixed-font and shadowed exports come out; their expected text is the clean one.
+//
+// The text is Turkish (ç ğ ı İ ö ş ü) in Liberation Sans, the TrueType font PDFBox ships
+// for forms, embedded as a subset, so no system fonts are needed. Same seed, same corpus.
+public final class CorpusGen {
+    private CorpusGen() {}
+
+    private static final String FONT_RESOURCE = "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf";
+    private static final Locale TR = new Locale("tr", "TR");
+
+    static final float FONT_SIZE = 12f;
+    static final float LEADING = 13f;     // baseline to baseline inside a paragraph
+    static final float TOP = 72f;         // first baseline, top-down
+    static final float BOTTOM = 720f;     // last usable baseline
+    static final float PAGE_NO_Y = 46f;
+    static final float FOOTER_Y = 770f;
+
+    static final float X_SCENE = 80f, X_ACTION = 110f, X_DIALOGUE = 170f, X_PAREN = 200f, X_CUE = 240f,
+            X_TRANSITION = 420f, X_FOOTER = 250f;
+    static final float ACTION_WIDTH = 380f, DIALOGUE_WIDTH = 240f;
+
+    private static final String[] NAMES = {
+            "ŞERMİN", "FERDA", "ADNAN", "GÜLŞEN", "ÖMER", "ÇAĞLAR", "İHSAN", "DOĞAN", "NİLÜFER", "KEMAL"
+    };
+    private static final String[] PLACES = {
+            "KAHVEHANE", "KARANLIK BİR SOKAK", "ŞERMİN EV", "SAHİL YOLU", "KARAKOL", "İSKELE", "ÇARŞI",
+            "ADNAN ARABA", "HASTANE KORİDORU", "ÖĞRETMENLER ODASI", "GÜMRÜK DEPOSU"
+    };
+    private static final String[] SIDES = { "İÇ", "DIŞ" };
+    private static final String[] TIMES = { "GECE", "GÜN", "AKŞAM", "SABAH" };
+    private static final String[] WORDS = (
+            "kapı araba sokak telefon gece yavaşça bakıyor şehir ışık çocuk gözleri ağır değil için önce sonra "
+            + "üzerinde içeri dışarı pencere merdiven soğuk yağmur kağıt çanta sessizce gülümsüyor şaşkın iğne "
+            + "düşünür koşar çıkar girer oturur ayağa kalkar bir ve ile ama hemen birden eski yeni küçük büyük "
+            + "kırmızı siyah beyaz masa sandalye kadın adam polis doktor mektup anahtar kapının önünde arkasında "
+            + "yanında çay bardağı saat duvar gölge ürperir fısıldar bağırır dinler görür güneş rüzgar deniz "
+            + "köprü ağaç yol kitap defter ilaç şişe kahve sigara dumanı yüzü eli omuzu çekmece dolap ayna").split(" ");
+    private static final String[] PARENS = {
+            "(fısıltıyla)", "(gülerek)", "(telefonda)", "(öfkeyle)", "(durur)", "(sessizce)", "(şaşkın)"
+    };
+    private static final String[] TRANSITIONS = { "(KESME)", "(KARARMA)", "(GEÇİŞ)" };
+
+    public static void main(String[] args) throws IOException {
+        List<String> pos = new ArrayList<>();
+        String sizes = "10,100,500,2000";
+        long seed = 1;
+        double corrupt = 0.03;
+        double jitter = 0;
+        for (String a : args) {
+            if (a.startsWith("--sizes=")) sizes = a.substring(8);
+            else if (a.startsWith("--seed=")) seed = Long.parseLong(a.substring(7));
+            else if (a.startsWith("--corrupt=")) corrupt = Double.parseDouble(a.substring(10));
+            else if (a.startsWith("--jitter=")) jitter = Double.parseDouble(a.substring(9));
+            else if (a.startsWith("--")) throw new IllegalArgumentException("Unknown option: " + a);
+            else pos.add(a);
+        }
+        if (pos.size() != 1) {
+            System.err.println("Usage: CorpusGen <outDir> [--sizes=10,100,500,2000] [--seed=1] [--corrupt=0.03] [--jitter=0]");
+            System.exit(2);
+        }
+        File dir = new File(pos.get(0));
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        for (String s : sizes.split(",")) {
+            int pages = Integer.parseInt(s.trim());
+            String name = String.format(Locale.ROOT, "screenplay-%04dp", pages);
+            File pdf = new File(dir, name + ".pdf");
+            File golden = new File(dir, name + ".golden.json");
+            long t0 = System.nanoTime();
+            int paras = generate(pdf, golden, pages, seed * 1_000_003L + pages, corrupt, jitter);
+            System.out.printf(Locale.ROOT, "%s: %d pages, %d paragraphs, %.1f MB in %.1f s%n", pdf.getPath(), pages,
+                    paras, pdf.length() / (double) (1 << 20), (System.nanoTime() - t0) / 1e9);
+        }
+    }
+
+    // Writes the PDF and its labels; returns the number of labelled paragraphs.
+    static int generate(File pdf, File golden, int pages, long seed, double corrupt, double jitter) throws IOException {
+        if (pages < 1) throw new IllegalArgumentException("pages must be >= 1");
+        try (PDDocument doc = new PDDocument();
+             InputStream ttf = CorpusGen.class.getResourceAsStream(FONT_RESOURCE);
+             JsonOut.ParaWriter labels = new JsonOut.ParaWriter(golden, false)) {
+            if (ttf == null) throw new IOException("Font not on the classpath: " + FONT_RESOURCE);
+            Writer w = new Writer(doc, PDType0Font.load(doc, ttf), labels, pages);
+            new Script(new Random(seed), corrupt, jitter, w.font).write(w);
+            w.finish();
+            doc.save(pdf);
+            return w.labelled;
+        }
+    }
+
+    // one paragraph: drawn lines and the text the extractor should give back for each
+    private static final class Para {
+        final Kind kind;
+        final float x;
+        final float gapBefore;   // from the previous paragraph of the same block
+        final List<String> drawn = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        Random jitter;           // drawn word by word off this, null = one showText per line
+
+        Para(Kind kind, float x, float gapBefore) {
+            this.kind = kind;
+            this.x = x;
+            this.gapBefore = gapBefore;
+        }
+
+        Para line(String drawnLine, String expectedLine) {
+            drawn.add(drawnLine);
+            expected.add(expectedLine);
+            return this;
+        }
+
+        float height() {
+            return (drawn.size() - 1) * LEADING;
+        }
+    }
+
+    // Places blocks of paragraphs top-down, starting a page when a block does not fit, and
+    // stops once the requested number of pages is full.
+    private static final class Writer {
+        final PDDocument doc;
+        final PDType0Font font;
+        final JsonOut.ParaWriter labels;
+        final int maxPages;
+        int labelled = 0;
+
+        private PDPageContentStream cs;
+        private int pageNo = 0;
+        private float y;            // baseline of the last line placed, top-down
+        private boolean pageEmpty;
+        private boolean done;
+
+        Writer(PDDocument doc, PDType0Font font, JsonOut.ParaWriter labels, int maxPages) {
+            this.doc = doc;
+            this.font = font;
+            this.labels = labels;
+            this.maxPages = maxPages;
+        }
+
+        boolean done() {
+            return done;
+        }
+
+        // false once the pages are full; the block is then dropped
+        boolean block(List<Para> block) throws IOException {
+            if (done) return false;
+            float h = 0;
+            for (int i = 0; i < block.size(); i++) {
+                Para p = block.get(i);
+                h += (i == 0 ? 2 * LEADING : p.gapBefore) + p.height();
+            }
+            if (cs == null || (!pageEmpty && y + h > BOTTOM)) {
+                if (pageNo == maxPages) {
+                    done = true;
+                    return false;
+                }
+                newPage();
+            }
+            for (int i = 0; i < block.size(); i++) {
+                Para p = block.get(i);
+                float top = pageEmpty ? TOP : y + (i == 0 ? 2 * LEADING : p.gapBefore);
+                place(p, top);
+            }
+            return true;
+        }
+
+        private void place(Para p, float top) throws IOException {
+            float ly = top;
+            for (String line : p.drawn) {
+                if (p.jitter != null) jittered(p.x, ly, line, p.jitter);
+                else text(p.x, ly, line);
+                ly += LEADING;
+            }
+            y = top + p.height();
+            pageEmpty = false;
+            label(p.kind, p.x, p.drawn.size(), top, y, String.join("\n", p.expected));
+        }
+
+        private void newPage() throws IOException {
+            if (cs != null) cs.close();
+            PDPage page = new PDPage(PDRectangle.LETTER);
+            doc.addPage(page);
+            cs = new PDPageContentStream(doc, page);
+            pageNo++;
+            text(X_FOOTER, FOOTER_Y, "Created using Celtx");
+            pageEmpty = true;
+            if (pageNo > 1) {
+                String no = pageNo + ".";
+                text(X_ACTION, PAGE_NO_Y, no);
+                label(Kind.ACTION, X_ACTION, 1, PAGE_NO_Y, PAGE_NO_Y, no);
+            }
+        }
+
+        private void text(float x, float top, String s) throws IOException {
+            cs.beginText();
+            cs.setFont(font, FONT_SIZE);
+            cs.newLineAtOffset(x, PDRectangle.LETTER.getHeight() - top);
+            cs.showText(s);
+            cs.endText();
+        }
+
+        // each word (with its trailing space) on its own baseline, within 0.3 pt of top;
+        // every fourth one drawn a second time 0.35 pt to the right
+        private void jittered(float x, float top, String s, Random rnd) throws IOException {
+            String[] words = s.split(" ");
+            for (int i = 0; i < words.length; i++) {
+                String word = i < words.length - 1 ? words[i] + " " : words[i];
+                float dy = (rnd.nextFloat() - 0.5f) * 0.6f;
+                text(x, top + dy, word);
+                if (rnd.nextInt(4) == 0) text(x + 0.35f, top + dy, word);
+                x += font.getStringWidth(word) / 1000f * FONT_SIZE;
+            }
+        }
+
+        private void label(Kind kind, float x, int lines, float yTop, float yBottom, String text) throws IOException {
+            labels.write(new ParaOut(labelled++, pageNo, kind, "", x, FONT_SIZE, lines, yTop, yBottom, text));
+        }
+
+        void finish() throws IOException {
+            if (cs != null) cs.close();
+        }
+    }
+
+    // The story: scenes of action paragraphs and dialogue blocks until the writer is full.
+    private static final class Script {
+        final Random rnd;
+        final double corrupt;
+        final double jitter;
+        final PDType0Font font;
+        int scene = 0;
+
+        Script(Random rnd, double corrupt, double jitter, PDType0Font font) {
+            this.rnd = rnd;
+            this.corrupt = corrupt;
+            this.jitter = jitter;
+            this.font = font;
+        }
+
+        void write(Writer w) throws IOException {
+            while (!w.done()) {
+                List<Para> opening = new ArrayList<>();
+                opening.add(sceneHeading());
+                opening.add(action(2 * LEADING));
+                if (!w.block(opening)) return;
+
+                int beats = 3 + rnd.nextInt(8);
+                for (int b = 0; b < beats; b++) {
+                    List<Para> block = rnd.nextInt(3) == 0 ? List.of(action(0)) : dialogue();
+                    if (!w.block(block)) return;
+                }
+                if (rnd.nextInt(4) == 0) {
+                    Para t = new Para(Kind.PAREN, X_TRANSITION, 0);
+                    String s = pick(TRANSITIONS);
+                    if (!w.block(List.of(t.line(s, s)))) return;
+                }
+            }
+        }
+
+        Para sceneHeading() {
+            String s = String.format(Locale.ROOT, "%d. %s. %s. %s", ++scene, pick(PLACES), pick(SIDES), pick(TIMES));
+            return new Para(Kind.SCENE, X_SCENE, 0).line(s, s);
+        }
+
+        Para action(float gap) throws IOException {
+            return wrapped(new Para(Kind.ACTION, X_ACTION, gap), sentences(1 + rnd.nextInt(3), false), ACTION_WIDTH);
+        }
+
+        List<Para> dialogue() throws IOException {
+            List<Para> block = new ArrayList<>();
+            String cue = pick(NAMES);
+            block.add(new Para(Kind.CHARACTER, X_CUE, 0).line(cue, cue));
+            if (rnd.nextInt(4) == 0) {
+                String p = pick(PARENS);
+                block.add(new Para(Kind.PAREN, X_PAREN, LEADING).line(p, p));
+            }
+            block.add(wrapped(new Para(Kind.DIALOGUE, X_DIALOGUE, LEADING), sentences(1 + rnd.nextInt(2), true),
+                    DIALOGUE_WIDTH));
+            return block;
+        }
+
+        // Greedy word wrap on the drawn width (glyph advances add up, the font is not kerned
+        // here). Corrupted paragraphs wrap their corrupted form.
+        Para wrapped(Para p, String text, float width) throws IOException {
+            int mode = rnd.nextDouble() < corrupt ? 1 + rnd.nextInt(2) : 0; // 1 underscores, 2 spaced
+            if (mode == 0 && jitter > 0 && rnd.nextDouble() < jitter) p.jitter = new Random(rnd.nextLong());
+            StringBuilder drawn = new StringBuilder();
+            StringBuilder clean = new StringBuilder();
+            String sep = mode == 2 ? "   " : " ";
+            float sepWidth = width(sep), lineWidth = 0;
+            for (String word : text.split(" ")) {
+                String d = mode == 1 ? underscored(word) : mode == 2 ? spaced(word) : word;
+                float w = width(d);
+                if (drawn.length() > 0 && lineWidth + sepWidth + w > width) {
+                    p.line(drawn.toString(), expected(mode, drawn.toString(), clean.toString()));
+                    drawn.setLength(0);
+                    clean.setLength(0);
+                }
+                if (drawn.length() > 0) {
+                    drawn.append(sep);
+                    clean.append(' ');
+                    lineWidth += sepWidth;
+                } else {
+                    lineWidth = 0;
+                }
+                drawn.append(d);
+                clean.append(word);
+                lineWidth += w;
+            }
+            p.line(drawn.toString(), expected(mode, drawn.toString(), clean.toString()));
+            return p;
+        }
+
+        private float width(String s) throws IOException {
+            return font.getStringWidth(s) / 1000f * FONT_SIZE;
+        }
+
+        // What the classifier's cleanup makes of a corrupted line: underscores join back once
+        // they are at least 2 and a fifth of the line, spaced letters once there are 8.
+        private static String expected(int mode, String drawn, String clean) {
+            if (mode == 0) return clean;
+            if (mode == 1) {
+                int underscores = drawn.length() - drawn.replace("_", "").length();
+                return underscores >= Math.max(2, drawn.length() / 5) ? clean : drawn;
+            }
+            String letters = drawn.replace(" ", "");
+            return letters.length() >= 8 ? letters : drawn.replaceAll(" +", " ");
+        }
+
+        // "k_a_p_ı_y_ı." : underscores only between letters, so they all join back
+        private static String underscored(String word) {
+            StringBuilder sb = new StringBuilder(word.length() * 2);
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                if (i > 0 && Character.isLetter(c) && Character.isLetter(word.charAt(i - 1))) sb.append('_');
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        private static String spaced(String word) {
+            StringBuilder sb = new StringBuilder(word.length() * 2);
+            for (int i = 0; i < word.length(); i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(word.charAt(i));
+            }
+            return sb.toString();
+        }
+
+        private String sentences(int n, boolean spoken) {
+            StringBuilder sb = new StringBuilder();
+            for (int s = 0; s < n; s++) {
+                if (sb.length() > 0) sb.append(' ');
+                int words = 5 + rnd.nextInt(10);
+                for (int i = 0; i < words; i++) {
+                    String word = i > 0 && rnd.nextInt(8) == 0 ? name() : pick(WORDS);
+                    if (i == 0) word = word.substring(0, 1).toUpperCase(TR) + word.substring(1);
+                    else if (i < words - 1 && rnd.nextInt(12) == 0) word += ",";
+                    if (i > 0) sb.append(' ');
+                    sb.append(word);
+                }
+                sb.append(spoken && rnd.nextInt(3) == 0 ? "?" : ".");
+            }
+            return sb.toString();
+        }
+
+        // "Şermin": names in running text are capitalized, never all caps (that reads as a cue)
+        private String name() {
+            String n = pick(NAMES);
+            return n.charAt(0) + n.substring(1).toLowerCase(TR);
+        }
+
+        private String pick(String[] xs) {
+            return xs[rnd.nextInt(xs.length)];
+        }
+    }
+}
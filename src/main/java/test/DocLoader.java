@@ -0,0 +1,126 @@
+package test;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessReadMemoryMappedFile;
+import org.apache.pdfbox.io.RandomAccessReadView;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+// How documents are opened (--load, --doc-mem-mb, --temp-dir, --font-cache-mb); shared by
+// every entry point.
+//
+// Loader.loadPDF(File) keeps every stream PDFBox has to buffer (decoded object streams,
+// anything written while parsing) in an unbounded in-memory cache. Here that cache holds at
+// most --doc-mem-mb on the heap and spills the rest to temp files. The file itself is read
+// through PDFBox's paged read-ahead reader (BUFFERED, a few MB of heap whatever the file
+// size) or mapped into memory (MMAP: no heap at all, the OS page cache backs it, so it
+// shows up in the resident size instead).
+//
+// Every document gets a lease on the JVM-wide FontCache as its resource cache, returned
+// when the document closes: PDDocument.close() closes its reader last, so the reader is
+// wrapped to do it.
+final class DocLoader {
+
+    enum Access { BUFFERED, MMAP }
+
+    // a single mapping is limited to 2 GB; larger files are read buffered
+    private static final long MAX_MAPPED = Integer.MAX_VALUE;
+
+    final Access access;
+    final long memBytes;    // main-memory part of the stream cache, per open document
+    final File tempDir;     // null = java.io.tmpdir
+    final FontCache fonts;  // null = PDFBox's per-document resource cache
+
+    DocLoader(Access access, long memBytes, File tempDir, FontCache fonts) {
+        this.access = access;
+        this.memBytes = memBytes;
+        this.tempDir = tempDir;
+        this.fonts = fonts;
+    }
+
+    static DocLoader of(RunOptions opt) {
+        return new DocLoader(opt.load, opt.docMemBytes, opt.tempDir == null ? null : new File(opt.tempDir),
+                opt.fontCacheBytes > 0 ? FontCache.shared(opt.fontCacheBytes) : null);
+    }
+
+    PDDocument load(File pdf) throws IOException {
+        return open(access == Access.MMAP && pdf.length() <= MAX_MAPPED
+                ? new RandomAccessReadMemoryMappedFile(pdf)
+                : new RandomAccessReadBufferedFile(pdf));
+    }
+
+    // ExtractServer uploads, already on the heap
+    PDDocument load(byte[] pdf) throws IOException {
+        return open(new RandomAccessReadBuffer(pdf));
+    }
+
+    private PDDocument open(RandomAccessRead source) throws IOException {
+        FontCache.Lease lease = fonts == null ? null : fonts.lease();
+        RandomAccessRead in = lease == null ? source : new Releasing(source, lease);
+        try {
+            // the document owns the reader from here on and closes it with itself
+            PDDocument doc = Loader.loadPDF(in, "", null, null, streamCache());
+            if (lease != null) doc.setResourceCache(lease);
+            return doc;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    StreamCacheCreateFunction streamCache() {
+        MemoryUsageSetting mem = MemoryUsageSetting.setupMixed(memBytes);
+        if (tempDir != null) mem.setTempDir(tempDir);
+        return mem.streamCache;
+    }
+
+    // "mmap, 64 MB stream cache, 32 MB font cache" for reports
+    String describe() {
+        return access.name().toLowerCase(Locale.ROOT) + ", " + (memBytes >> 20) + " MB stream cache"
+                + (fonts == null ? "" : ", " + (fonts.budgetBytes() >> 20) + " MB font cache");
+    }
+
+    // The document's reader, giving the document's fonts back to the cache once closed.
+    private static final class Releasing implements RandomAccessRead {
+        private final RandomAccessRead in;
+        private final FontCache.Lease lease;
+
+        Releasing(RandomAccessRead in, FontCache.Lease lease) {
+            this.in = in;
+            this.lease = lease;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                lease.release();
+            }
+        }
+
+        @Override public int read() throws IOException { return in.read(); }
+        @Override public int read(byte[] b) throws IOException { return in.read(b); }
+        @Override public int read(byte[] b, int off, int len) throws IOException { return in.read(b, off, len); }
+        @Override public long getPosition() throws IOException { return in.getPosition(); }
+        @Override public void seek(long position) throws IOException { in.seek(position); }
+        @Override public long length() throws IOException { return in.length(); }
+        @Override public boolean isClosed() { return in.isClosed(); }
+        @Override public int peek() throws IOException { return in.peek(); }
+        @Override public void rewind(int bytes) throws IOException { in.rewind(bytes); }
+        @Override public boolean isEOF() throws IOException { return in.isEOF(); }
+        @Override public int available() throws IOException { return in.available(); }
+        @Override public void skip(int length) throws IOException { in.skip(length); }
+        @Override public RandomAccessReadView createView(long start, long length) throws IOException {
+            return in.createView(start, length);
+        }
+    }
+}
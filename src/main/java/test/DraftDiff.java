@@ -0,0 +1,621 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// What changed between two drafts of a script, scene by scene:
+//
+//   DraftDiff <old> <new> [--out=diff.json] [--cache=dir] [--engine=stripper|raw]
+//             [--start=N] [--pages=N] [--grouping=...] [--font-cache-mb=32]
+//
+// Each side is a PDF (extracted here, through the ResultCache with --cache) or paragraphs
+// extracted earlier: json / ndjson (ParaWriter) or .bin (BinOut).
+//
+// Paragraphs are compared by a 64-bit hash of their kind and whitespace-normalized text,
+// never by index. Scene numbers are left out of a heading's hash, since an inserted scene
+// renumbers every later one; page numbers (_PG_ styles) are dropped altogether.
+//
+//   1. scenes are aligned on their headings: patience diff (headings unique in both drafts
+//      are the anchors, longest increasing run of them kept), LCS in the gaps between
+//   2. a scene left over on both sides is paired with one of the same heading elsewhere
+//      (moved), or in the same gap with mostly the same paragraphs (heading edited)
+//   3. inside each pair of scenes the paragraphs are aligned the same way
+//   4. a removed paragraph whose hash turns up as added anywhere was moved; a removed and an
+//      added paragraph of the same kind in one hunk, mostly the same words, were modified
+//
+// The report lists the changed scenes in the new draft's order, removed scenes after the
+// scene they used to follow.
+public final class DraftDiff {
+    private DraftDiff() {}
+
+    // gaps with no unique anchors get an LCS table of at most this many cells, else no matches
+    private static final int MAX_LCS_CELLS = 1 << 22;
+    // shorter paragraphs ("Evet.", "CUT TO:") repeat too often to be called moved
+    private static final int MOVE_MIN_CHARS = 20;
+    // word (or paragraph-hash) overlap, Dice, for modified paragraphs and paired scenes
+    private static final double SIMILAR = 0.5;
+
+    // paragraph states, per side
+    private static final byte EQUAL = 0, CHANGED = 1, MOVED = 2, MODIFIED = 3;
+
+    public static void main(String[] args) throws Exception {
+        RunOptions opt;
+        try {
+            opt = RunOptions.parseDiff(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: DraftDiff <old.pdf|json|bin> <new.pdf|json|bin> [--out=diff.json] [--cache=dir]");
+            System.exit(2);
+            return;
+        }
+        ResultCache cache = opt.cacheDir == null ? null : new ResultCache(new File(opt.cacheDir), opt.cacheBytes);
+        DocLoader loader = DocLoader.of(opt);
+
+        long t0 = System.nanoTime();
+        List<ParaOut> oldParas = load(new File(opt.inputs.get(0)), opt, loader, cache);
+        long t1 = System.nanoTime();
+        List<ParaOut> newParas = load(new File(opt.inputs.get(1)), opt, loader, cache);
+        long t2 = System.nanoTime();
+        System.out.printf(Locale.ROOT, "Loaded: old %d paragraphs in %.1f ms, new %d in %.1f ms%n",
+                oldParas.size(), (t1 - t0) / 1e6, newParas.size(), (t2 - t1) / 1e6);
+
+        Result diff = diff(oldParas, newParas);
+        StringBuilder sb = new StringBuilder(64 * 1024);
+        diff.appendJson(sb, opt.inputs.get(0), opt.inputs.get(1));
+        long t3 = System.nanoTime();
+
+        File out = new File(opt.outPath);
+        File tmp = new File(out.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            w.write(sb.toString());
+        }
+        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.printf(Locale.ROOT, "%s, %.1f ms: %s%n", diff.summary(), (t3 - t2) / 1e6, out.getAbsolutePath());
+        if (cache != null) System.out.println(cache.stats());
+    }
+
+    // one side of the diff, by file type
+    static List<ParaOut> load(File f, RunOptions opt, DocLoader loader, ResultCache cache) throws IOException {
+        String name = f.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".json") || name.endsWith(".ndjson")) return JsonOut.readParas(f);
+        if (name.endsWith(".bin")) {
+            try (BinOut.Reader r = BinOut.Reader.open(f)) {
+                List<ParaOut> paras = new ArrayList<>(r.size());
+                for (int i = 0; i < r.size(); i++) paras.add(r.para(i));
+                return paras;
+            }
+        }
+        String key = cache == null ? null : cache.key(f, opt.startPage, opt.maxPages, opt.maxParas, opt.engine, opt.grouping);
+        List<ParaOut> paras = cache == null ? null : cache.get(key);
+        if (paras != null) return paras;
+        Guard guard = Guard.of(opt);
+        try (PDDocument doc = loader.load(f)) {
+            int total = doc.getNumberOfPages();
+            paras = PosDump.extractParagraphs(doc, opt.firstPage(total), opt.lastPage(total), opt.maxParas,
+                    opt.engine, opt.grouping, Metrics.OFF, guard);
+        }
+        if (guard.partial()) System.err.println("Warning: " + f + " is partial, " + guard.describe());
+        else if (cache != null) cache.put(key, paras);
+        return paras;
+    }
+
+    // --- one draft ---
+
+    private static final class Draft {
+        final List<ParaOut> paras = new ArrayList<>();   // page numbers dropped
+        final long[] keys;
+        final int[] speaker;       // the CHARACTER paragraph of a PAREN / DIALOGUE's chain, -1 = none
+        final int[] sceneStart;    // scene s is paras [sceneStart[s], sceneStart[s + 1]); 0 = before the first heading
+        final long[] sceneKeys;
+        final int[] sceneOf;
+        final byte[] state;
+        final int[] partner;       // the other draft's paragraph for EQUAL / MOVED / MODIFIED
+
+        Draft(List<ParaOut> all) {
+            for (ParaOut p : all) if (!p.style.contains("_PG_")) paras.add(p);
+            int n = paras.size();
+            keys = new long[n];
+            speaker = new int[n];
+            sceneOf = new int[n];
+            state = new byte[n];
+            partner = new int[n];
+            Arrays.fill(state, CHANGED);
+            Arrays.fill(partner, -1);
+
+            int[] starts = new int[16];
+            int scenes = 1, open = -1;
+            for (int i = 0; i < n; i++) {
+                ParaOut p = paras.get(i);
+                keys[i] = key(p.kind, p.text);
+                if (p.kind == Kind.SCENE) {
+                    if (scenes == starts.length) starts = Arrays.copyOf(starts, scenes * 2);
+                    starts[scenes++] = i;
+                }
+                if (p.kind == Kind.CHARACTER) open = i;
+                else if (p.kind == Kind.SCENE || p.kind == Kind.ACTION) open = -1;
+                speaker[i] = p.kind == Kind.DIALOGUE || p.kind == Kind.PAREN ? open : -1;
+                sceneOf[i] = scenes - 1;
+            }
+            sceneStart = Arrays.copyOf(starts, scenes + 1);
+            sceneStart[scenes] = n;
+            sceneKeys = new long[scenes];
+            sceneKeys[0] = 0L;   // the part before the first heading always pairs up
+            for (int s = 1; s < scenes; s++) sceneKeys[s] = keys[sceneStart[s]];
+        }
+
+        int scenes() {
+            return sceneKeys.length;
+        }
+
+        // the paragraphs of scene s after its heading
+        int bodyStart(int s) {
+            return s == 0 ? 0 : sceneStart[s] + 1;
+        }
+
+        long[] body(int s) {
+            return Arrays.copyOfRange(keys, bodyStart(s), sceneStart[s + 1]);
+        }
+    }
+
+    // FNV-1a over the kind and the text with whitespace runs as one space; scene headings
+    // without their leading / trailing scene numbers
+    static long key(Kind kind, String text) {
+        int from = 0, to = text.length();
+        if (kind == Kind.SCENE) {
+            while (from < to && !Character.isLetter(text.charAt(from))) from++;
+            int t = to;
+            while (t > from && Character.isDigit(text.charAt(t - 1))) t--;
+            if (t < to && t > from && Character.isWhitespace(text.charAt(t - 1))) to = t;
+        }
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ (kind.ordinal() + 1)) * 0x100000001b3L;
+        boolean space = false, any = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == '\u00A0') {
+                space = any;
+                continue;
+            }
+            if (space) h = (h ^ ' ') * 0x100000001b3L;
+            space = false;
+            any = true;
+            h = (h ^ c) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // --- alignment ---
+
+    // m[i] = j where a[i] is matched to b[j], -1 = unmatched; matches increase on both sides
+    static int[] align(long[] a, long[] b) {
+        int[] m = new int[a.length];
+        Arrays.fill(m, -1);
+        align(a, 0, a.length, b, 0, b.length, m);
+        return m;
+    }
+
+    private static void align(long[] a, int alo, int ahi, long[] b, int blo, int bhi, int[] m) {
+        while (alo < ahi && blo < bhi && a[alo] == b[blo]) m[alo++] = blo++;
+        while (alo < ahi && blo < bhi && a[ahi - 1] == b[bhi - 1]) m[--ahi] = --bhi;
+        if (alo == ahi || blo == bhi) return;
+
+        // keys that occur exactly once on each side: {count a, index a, count b, index b}
+        Map<Long, int[]> seen = new HashMap<>();
+        for (int i = alo; i < ahi; i++) {
+            int[] c = seen.computeIfAbsent(a[i], k -> new int[4]);
+            c[0]++;
+            c[1] = i;
+        }
+        for (int j = blo; j < bhi; j++) {
+            int[] c = seen.get(b[j]);
+            if (c != null) {
+                c[2]++;
+                c[3] = j;
+            }
+        }
+        int[] ai = new int[ahi - alo], bj = new int[ahi - alo];
+        int n = 0;
+        for (int i = alo; i < ahi; i++) {
+            int[] c = seen.get(a[i]);
+            if (c[0] == 1 && c[2] == 1) {
+                ai[n] = i;
+                bj[n++] = c[3];
+            }
+        }
+        if (n == 0) {
+            lcs(a, alo, ahi, b, blo, bhi, m);
+            return;
+        }
+
+        // longest increasing run of bj (patience sorting), as indexes into ai / bj
+        int[] tails = new int[n], prev = new int[n];
+        int len = 0;
+        for (int k = 0; k < n; k++) {
+            int lo = 0, hi = len;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (bj[tails[mid]] < bj[k]) lo = mid + 1;
+                else hi = mid;
+            }
+            prev[k] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            if (lo == len) len++;
+        }
+        int[] run = new int[len];
+        for (int k = tails[len - 1], r = len - 1; k >= 0; k = prev[k]) run[r--] = k;
+
+        int pa = alo, pb = blo;
+        for (int k : run) {
+            align(a, pa, ai[k], b, pb, bj[k], m);
+            m[ai[k]] = bj[k];
+            pa = ai[k] + 1;
+            pb = bj[k] + 1;
+        }
+        align(a, pa, ahi, b, pb, bhi, m);
+    }
+
+    private static void lcs(long[] a, int alo, int ahi, long[] b, int blo, int bhi, int[] m) {
+        int n = ahi - alo, w = bhi - blo + 1;
+        if ((long) (n + 1) * w > MAX_LCS_CELLS) return;
+        // t[i][j] = LCS of a[alo + i ..] and b[blo + j ..]
+        int[] t = new int[(n + 1) * w];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = w - 2; j >= 0; j--) {
+                t[i * w + j] = a[alo + i] == b[blo + j] ? t[(i + 1) * w + j + 1] + 1
+                        : Math.max(t[(i + 1) * w + j], t[i * w + j + 1]);
+            }
+        }
+        for (int i = 0, j = 0; i < n && j < w - 1; ) {
+            if (a[alo + i] == b[blo + j]) {
+                m[alo + i++] = blo + j++;
+            } else if (t[(i + 1) * w + j] >= t[i * w + j + 1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+    }
+
+    // Dice overlap of two multisets of hashes
+    static double dice(long[] a, long[] b) {
+        if (a.length + b.length == 0) return 1.0;
+        Map<Long, Integer> left = new HashMap<>();
+        for (long k : a) left.merge(k, 1, Integer::sum);
+        int common = 0;
+        for (long k : b) {
+            Integer c = left.get(k);
+            if (c == null) continue;
+            common++;
+            if (c == 1) left.remove(k);
+            else left.put(k, c - 1);
+        }
+        return 2.0 * common / (a.length + b.length);
+    }
+
+    static long[] words(String text) {
+        List<String> tokens = ScriptIndex.tokens(text);
+        long[] h = new long[tokens.size()];
+        for (int i = 0; i < h.length; i++) h[i] = key(Kind.ACTION, tokens.get(i));
+        return h;
+    }
+
+    // --- the diff ---
+
+    static Result diff(List<ParaOut> oldParas, List<ParaOut> newParas) {
+        Draft a = new Draft(oldParas), b = new Draft(newParas);
+        Result r = new Result(a, b);
+
+        // 1. scenes on their headings
+        int[] sm = align(a.sceneKeys, b.sceneKeys);
+        int[] back = new int[b.scenes()];
+        Arrays.fill(back, -1);
+        for (int s = 0; s < sm.length; s++) if (sm[s] >= 0) back[sm[s]] = s;
+
+        // 2. leftovers: the same heading elsewhere with mostly the same paragraphs, then
+        // mostly the same paragraphs between the same two aligned scenes
+        Map<Long, ArrayDeque<Integer>> added = new HashMap<>();
+        for (int t = 0; t < back.length; t++) {
+            if (back[t] < 0) added.computeIfAbsent(b.sceneKeys[t], k -> new ArrayDeque<>()).add(t);
+        }
+        for (int s = 0; s < sm.length; s++) {
+            if (sm[s] >= 0) continue;
+            ArrayDeque<Integer> q = added.get(a.sceneKeys[s]);
+            if (q == null) continue;
+            for (Integer t : q) {
+                if (dice(a.body(s), b.body(t)) >= SIMILAR) {
+                    q.remove(t);
+                    sm[s] = t;
+                    back[t] = s;
+                    r.movedScene[t] = true;
+                    break;
+                }
+            }
+        }
+        for (int s = 0, t = 0; s < sm.length; s++) {
+            if (sm[s] >= 0) {
+                if (!r.movedScene[sm[s]]) t = sm[s] + 1;
+                continue;
+            }
+            // t: first new scene after the last in-place pair
+            for (int u = t; u < back.length; u++) {
+                if (back[u] >= 0) {
+                    if (!r.movedScene[u]) break;
+                    continue;
+                }
+                long[] x = a.body(s), y = b.body(u);
+                double sim = x.length + y.length > 0 ? dice(x, y)
+                        : dice(words(a.paras.get(a.sceneStart[s]).text), words(b.paras.get(b.sceneStart[u]).text));
+                if (sim >= SIMILAR) {
+                    sm[s] = u;
+                    back[u] = s;
+                    t = u + 1;
+                    break;
+                }
+            }
+        }
+        r.sceneMatch = sm;
+        r.sceneBack = back;
+
+        // 3. paragraphs inside each pair of scenes; hunks are {old from, old to, new from, new to}
+        List<int[]> hunks = new ArrayList<>();
+        for (int s = 0; s < sm.length; s++) {
+            int t = sm[s];
+            if (t < 0) {
+                hunks.add(new int[]{a.sceneStart[s], a.sceneStart[s + 1], 0, 0});
+                continue;
+            }
+            if (s > 0) {
+                int h = a.sceneStart[s], g = b.sceneStart[t];
+                if (a.keys[h] == b.keys[g]) pair(a, h, b, g, EQUAL);
+                else hunks.add(new int[]{h, h + 1, g, g + 1});
+            }
+            int oa = a.bodyStart(s), ob = a.sceneStart[s + 1], na = b.bodyStart(t), nb = b.sceneStart[t + 1];
+            int[] m = align(Arrays.copyOfRange(a.keys, oa, ob), Arrays.copyOfRange(b.keys, na, nb));
+            int i = 0, j = 0;
+            while (i < m.length) {
+                if (m[i] < 0) {
+                    int i0 = i;
+                    while (i < m.length && m[i] < 0) i++;
+                    int j1 = i < m.length ? m[i] : nb - na;
+                    hunks.add(new int[]{oa + i0, oa + i, na + j, na + j1});
+                    j = j1;
+                    continue;
+                }
+                if (m[i] > j) hunks.add(new int[]{oa + i, oa + i, na + j, na + m[i]});
+                pair(a, oa + i, b, na + m[i], EQUAL);
+                j = m[i] + 1;
+                i++;
+            }
+            if (j < nb - na) hunks.add(new int[]{ob, ob, na + j, nb});
+        }
+        for (int t = 0; t < back.length; t++) {
+            if (back[t] < 0) hunks.add(new int[]{0, 0, b.sceneStart[t], b.sceneStart[t + 1]});
+        }
+
+        // 4. moved anywhere, then modified within a hunk
+        Map<Long, ArrayDeque<Integer>> removed = new HashMap<>();
+        for (int i = 0; i < a.keys.length; i++) {
+            if (a.state[i] == CHANGED && a.paras.get(i).text.length() >= MOVE_MIN_CHARS) {
+                removed.computeIfAbsent(a.keys[i], k -> new ArrayDeque<>()).add(i);
+            }
+        }
+        for (int j = 0; j < b.keys.length; j++) {
+            if (b.state[j] != CHANGED) continue;
+            ArrayDeque<Integer> q = removed.get(b.keys[j]);
+            if (q != null && !q.isEmpty()) pair(a, q.poll(), b, j, MOVED);
+        }
+        for (int[] h : hunks) {
+            int cursor = h[2];
+            boolean single = h[1] - h[0] == 1 && h[3] - h[2] == 1;
+            for (int i = h[0]; i < h[1]; i++) {
+                if (a.state[i] != CHANGED) continue;
+                ParaOut p = a.paras.get(i);
+                long[] pw = null;
+                for (int j = cursor; j < h[3]; j++) {
+                    if (b.state[j] != CHANGED || b.paras.get(j).kind != p.kind) continue;
+                    if (!single) {
+                        if (pw == null) pw = words(p.text);
+                        if (dice(pw, words(b.paras.get(j).text)) < SIMILAR) continue;
+                    }
+                    pair(a, i, b, j, MODIFIED);
+                    cursor = j + 1;
+                    break;
+                }
+            }
+        }
+        return r;
+    }
+
+    private static void pair(Draft a, int i, Draft b, int j, byte state) {
+        a.state[i] = state;
+        b.state[j] = state;
+        a.partner[i] = j;
+        b.partner[j] = i;
+    }
+
+    static final class Result {
+        private final Draft a, b;
+        private int[] sceneMatch, sceneBack;
+        private final boolean[] movedScene;   // by new scene
+
+        Result(Draft a, Draft b) {
+            this.a = a;
+            this.b = b;
+            this.movedScene = new boolean[b.scenes()];
+        }
+
+        int count(Draft d, byte state) {
+            int n = 0;
+            for (byte s : d.state) if (s == state) n++;
+            return n;
+        }
+
+        private boolean changed(Draft d, int s) {
+            for (int i = d.sceneStart[s]; i < d.sceneStart[s + 1]; i++) if (d.state[i] != EQUAL) return true;
+            return false;
+        }
+
+        // scene status counts: added, removed, moved, modified, unchanged
+        int[] sceneCounts() {
+            int[] c = new int[5];
+            for (int t = 0; t < sceneBack.length; t++) {
+                if (sceneBack[t] < 0) c[0]++;
+                else if (movedScene[t]) c[2]++;
+                else if (changed(b, t) || changed(a, sceneBack[t])) c[3]++;
+                else c[4]++;
+            }
+            for (int m : sceneMatch) if (m < 0) c[1]++;
+            return c;
+        }
+
+        // Diff: scenes +2 -1 >1 ~5 =140, paragraphs +12 -8 >3 ~9
+        String summary() {
+            int[] c = sceneCounts();
+            return String.format(Locale.ROOT, "Diff: scenes +%d -%d >%d ~%d =%d, paragraphs +%d -%d >%d ~%d",
+                    c[0], c[1], c[2], c[3], c[4], count(b, CHANGED), count(a, CHANGED), count(b, MOVED),
+                    count(b, MODIFIED));
+        }
+
+        void appendJson(StringBuilder sb, String oldName, String newName) {
+            int[] c = sceneCounts();
+            sb.append("{\"old\": ");
+            JsonOut.appendString(sb, oldName);
+            sb.append(", \"new\": ");
+            JsonOut.appendString(sb, newName);
+            sb.append(",\n \"scenes\": {\"added\": ").append(c[0]).append(", \"removed\": ").append(c[1])
+              .append(", \"moved\": ").append(c[2]).append(", \"modified\": ").append(c[3])
+              .append(", \"unchanged\": ").append(c[4]).append('}');
+            sb.append(",\n \"paragraphs\": {\"added\": ").append(count(b, CHANGED))
+              .append(", \"removed\": ").append(count(a, CHANGED))
+              .append(", \"moved\": ").append(count(b, MOVED))
+              .append(", \"modified\": ").append(count(b, MODIFIED)).append('}');
+            sb.append(",\n \"changes\": [");
+
+            // removed scenes go after the new scene their predecessor became
+            List<List<Integer>> after = new ArrayList<>();
+            for (int t = 0; t <= b.scenes(); t++) after.add(null);
+            int last = -1;
+            for (int s = 0; s < sceneMatch.length; s++) {
+                if (sceneMatch[s] >= 0) {
+                    last = sceneMatch[s];
+                } else {
+                    if (after.get(last + 1) == null) after.set(last + 1, new ArrayList<>());
+                    after.get(last + 1).add(s);
+                }
+            }
+            boolean[] first = {true};
+            for (int t = -1; t < b.scenes(); t++) {
+                if (t >= 0) {
+                    int s = sceneBack[t];
+                    String status = s < 0 ? "added" : movedScene[t] ? "moved"
+                            : changed(b, t) || changed(a, s) ? "modified" : null;
+                    if (status != null) appendScene(sb, first, status, s, t);
+                }
+                List<Integer> gone = after.get(t + 1);
+                if (gone != null) for (int s : gone) appendScene(sb, first, "removed", s, -1);
+            }
+            sb.append(first[0] ? "]}\n" : "\n ]}\n");
+        }
+
+        private void appendScene(StringBuilder sb, boolean[] first, String status, int s, int t) {
+            sb.append(first[0] ? "\n  " : ",\n  ");
+            first[0] = false;
+            sb.append("{\"status\": \"").append(status).append('"');
+            sb.append(", \"old\": ");
+            appendSceneRef(sb, a, s);
+            sb.append(", \"new\": ");
+            appendSceneRef(sb, b, t);
+            sb.append(",\n   \"paragraphs\": [");
+            int n = 0;
+            int i = s < 0 ? 0 : a.sceneStart[s], ie = s < 0 ? 0 : a.sceneStart[s + 1];
+            int j = t < 0 ? 0 : b.sceneStart[t], je = t < 0 ? 0 : b.sceneStart[t + 1];
+            // old-only changes (removed, moved away) before the new side up to the next equal pair
+            while (i < ie || j < je) {
+                if (i < ie && a.state[i] != EQUAL) {
+                    if (a.state[i] == MOVED) n = appendChange(sb, n, "movedAway", i, a.partner[i]);
+                    else if (a.state[i] == CHANGED) n = appendChange(sb, n, "removed", i, -1);
+                    i++;
+                } else if (j < je && (i == ie || b.partner[j] != i)) {
+                    if (b.state[j] != EQUAL) {
+                        String op = b.state[j] == MOVED ? "moved" : b.state[j] == MODIFIED ? "modified" : "added";
+                        n = appendChange(sb, n, op, b.partner[j], j);
+                    }
+                    j++;
+                } else {
+                    i++;
+                    if (j < je) j++;
+                }
+            }
+            sb.append(n == 0 ? "]}" : "\n   ]}");
+        }
+
+        private static void appendSceneRef(StringBuilder sb, Draft d, int s) {
+            if (s < 0) {
+                sb.append("null");
+                return;
+            }
+            sb.append("{\"scene\": ").append(s);
+            if (s > 0) {
+                ParaOut h = d.paras.get(d.sceneStart[s]);
+                sb.append(", \"page\": ").append(h.page).append(", \"heading\": ");
+                JsonOut.appendString(sb, h.text);
+            }
+            sb.append('}');
+        }
+
+        // i / j: old / new paragraph, -1 = none on that side
+        private int appendChange(StringBuilder sb, int n, String op, int i, int j) {
+            sb.append(n == 0 ? "\n    " : ",\n    ");
+            ParaOut p = j >= 0 ? b.paras.get(j) : a.paras.get(i);
+            boolean moved = op.startsWith("moved"), modified = op.equals("modified");
+            sb.append("{\"op\": \"").append(op).append("\", \"kind\": \"").append(p.kind.name()).append('"');
+            Draft d = j >= 0 ? b : a;
+            int who = d.speaker[j >= 0 ? j : i];
+            if (who >= 0) {
+                sb.append(", \"character\": ");
+                JsonOut.appendString(sb, Breakdown.displayName(d.paras.get(who).text));
+            }
+            if (i >= 0) {
+                sb.append(", \"old\": ");
+                appendPara(sb, a, i, moved, modified);
+            }
+            if (j >= 0) {
+                sb.append(", \"new\": ");
+                appendPara(sb, b, j, moved, modified);
+            }
+            if (!modified) {
+                sb.append(", \"text\": ");
+                JsonOut.appendString(sb, p.text);
+            }
+            sb.append('}');
+            return n + 1;
+        }
+
+        // withText for modified paragraphs only, the others carry the text on the change
+        private static void appendPara(StringBuilder sb, Draft d, int i, boolean withScene, boolean withText) {
+            ParaOut p = d.paras.get(i);
+            sb.append("{\"index\": ").append(p.index).append(", \"page\": ").append(p.page);
+            if (withScene) sb.append(", \"scene\": ").append(d.sceneOf[i]);
+            if (withText) {
+                sb.append(", \"text\": ");
+                JsonOut.appendString(sb, p.text);
+            }
+            sb.append('}');
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Long-running extraction service on localhost, so an editor does not pay JVM startup and
+// JIT warm-up per document.
+//
+//   ExtractServer [--port=8089] [--workers=N] [--queue=16] [--timeout-ms=30000]
+//                 [--max-upload-mb=64] [--engine=stripper|raw] [--pages=N] [--paras=N]
+//                 [--doc-mem-mb=64] [--temp-dir=dir] [--font-cache-mb=32]
+//
+//   POST /extract?start=1&pages=5&paras=200[&format=ndjson]   body = the PDF bytes
+//        200 paragraph JSON (same layout as out.json), 400 bad request / unreadable PDF,
+//        413 upload too large, 429 queue full (Retry-After), 504 timed out
+//   GET  /health   worker, queue and request counters as JSON
+//
+// A fixed pool of --workers extraction threads, warmed up on a generated screenplay page
+// before the port opens, takes jobs from a queue of --queue slots; when every worker is busy
+// and the queue is full the request is refused at once with 429 instead of piling up, before
+// its body is read; so is a Content-Length over --max-upload-mb (413). Connections beyond the
+// HTTP threads wait in a bounded queue, and past that are closed unanswered (counted as
+// dropped in /health), so back-pressure reaches the clients instead of the heap. The
+// deadline covers queue wait plus extraction; a request that misses it is answered with 504
+// and its worker is interrupted, which the capture engines notice at the next page.
+// A document over one of the --max-* limits (see Guard) is answered 200 with what was
+// extracted and a "partial" note, and counted under partial in /health.
+public final class ExtractServer {
+
+    private final RunOptions opt;
+    private final DocLoader loader;
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor http;
+    private final HttpServer server;
+    private final long startNanos = System.nanoTime();
+
+    final AtomicLong accepted = new AtomicLong();
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong timedOut = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong partial = new AtomicLong();
+    final AtomicLong pagesDone = new AtomicLong();
+    final AtomicLong extractNanos = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        RunOptions opt = RunOptions.parseServer(args);
+        ExtractServer s = new ExtractServer(opt);
+        Runtime.getRuntime().addShutdownHook(new Thread(s::stop, "posdump-server-stop"));
+        s.warmUp();
+        s.start();
+        System.out.println("ExtractServer: http://" + s.server.getAddress().getHostString() + ":"
+                + s.server.getAddress().getPort() + "/extract  (" + s.workers.getCorePoolSize()
+                + " workers, queue " + opt.queue + ", timeout " + opt.timeoutMs + "ms)");
+    }
+
+    ExtractServer(RunOptions opt) throws IOException {
+        this.opt = opt;
+        this.loader = DocLoader.of(opt);
+        int n = BatchRun.boundedWorkers(opt);
+        workers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, opt.queue)), r -> {
+                    Thread t = new Thread(r, "posdump-worker");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        workers.prestartAllCoreThreads();
+
+        // every admitted request holds one HTTP thread while it waits; a few more answer
+        // /health and 429s while the workers are saturated. The HTTP server closes a
+        // connection its executor rejects.
+        int httpThreads = n + Math.max(1, opt.queue) + 4;
+        http = new ThreadPoolExecutor(httpThreads, httpThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(httpThreads), r -> {
+                    Thread t = new Thread(r, "posdump-http");
+                    t.setDaemon(true);
+                    return t;
+                }, (r, pool) -> {
+                    dropped.incrementAndGet();
+                    throw new RejectedExecutionException("HTTP queue full");
+                });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), opt.port), 64);
+        server.setExecutor(http);
+        server.createContext("/extract", this::handleExtract);
+        server.createContext("/health", this::handleHealth);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(1);
+        workers.shutdownNow();
+        http.shutdownNow();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    // Runs the whole pipeline on every worker thread until the JIT has compiled the hot
+    // paths, so the first real request is not the slow one.
+    void warmUp() throws Exception {
+        byte[] pdf = warmUpPdf();
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        int n = workers.getCorePoolSize();
+        Future<?>[] runs = new Future<?>[n];
+        for (int i = 0; i < n; i++) {
+            runs[i] = workers.submit(() -> {
+                // one load per worker: every load of a standard-14 font logs a fallback warning
+                try (PDDocument doc = loader.load(pdf)) {
+                    int rounds = 0;
+                    while (rounds < 20 || (rounds < 200 && System.nanoTime() < until)) {
+                        render(doc, 1, Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+                        rounds++;
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<?> f : runs) f.get();
+        pagesDone.set(0);
+        partial.set(0);
+    }
+
+    private void handleExtract(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().set("Allow", "POST");
+                error(ex, 405, "POST the PDF bytes to /extract");
+                return;
+            }
+
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            int start, pages, paras;
+            boolean ndjson;
+            try {
+                start = Integer.parseInt(q.getOrDefault("start", Integer.toString(opt.startPage)));
+                pages = Integer.parseInt(q.getOrDefault("pages", Integer.toString(opt.maxPages)));
+                paras = Integer.parseInt(q.getOrDefault("paras", Integer.toString(opt.maxParas)));
+                ndjson = "ndjson".equals(q.getOrDefault("format", opt.ndjson ? "ndjson" : "json"));
+            } catch (NumberFormatException e) {
+                error(ex, 400, "Bad number: " + e.getMessage());
+                return;
+            }
+            if (start < 1 || pages < 1 || paras < 1) {
+                error(ex, 400, "start, pages and paras must be >= 1");
+                return;
+            }
+
+            // refuse before the body costs any heap
+            long length = contentLength(ex);
+            if (length > opt.maxUploadBytes) {
+                error(ex, 413, "Upload larger than " + (opt.maxUploadBytes >> 20) + " MB");
+                return;
+            }
+            if (workers.getQueue().remainingCapacity() == 0) {
+                reject(ex);
+                return;
+            }
+
+            byte[] pdf = readBody(ex.getRequestBody(), opt.maxUploadBytes);
+            if (pdf == null) {
+                error(ex, 413, "Upload larger than " + (opt.maxUploadBytes >> 20) + " MB");
+                return;
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(opt.timeoutMs);
+            Future<byte[]> job;
+            try {
+                job = workers.submit(() -> extract(pdf, start, pages, paras, ndjson));
+            } catch (RejectedExecutionException e) {
+                reject(ex);
+                return;
+            }
+            accepted.incrementAndGet();
+
+            byte[] body;
+            try {
+                body = job.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                job.cancel(true);
+                timedOut.incrementAndGet();
+                error(ex, 504, "Extraction exceeded " + opt.timeoutMs + " ms");
+                return;
+            } catch (InterruptedException e) {
+                job.cancel(true);
+                Thread.currentThread().interrupt();
+                error(ex, 503, "Server shutting down");
+                return;
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                Throwable c = e.getCause();
+                // PDFBox reports unreadable / encrypted input as IOException
+                error(ex, c instanceof IOException ? 400 : 500, String.valueOf(c));
+                return;
+            }
+            completed.incrementAndGet();
+            ex.getResponseHeaders().set("Content-Type",
+                    ndjson ? "application/x-ndjson; charset=utf-8" : "application/json; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+        }
+    }
+
+    private void handleHealth(HttpExchange ex) throws IOException {
+        try (ex) {
+            long done = completed.get();
+            StringBuilder sb = new StringBuilder(320);
+            sb.append("{\"status\":\"ok\"");
+            sb.append(",\"uptimeMs\":").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            sb.append(",\"workers\":").append(workers.getCorePoolSize());
+            sb.append(",\"active\":").append(workers.getActiveCount());
+            sb.append(",\"queued\":").append(workers.getQueue().size());
+            sb.append(",\"queueCapacity\":").append(workers.getQueue().size() + workers.getQueue().remainingCapacity());
+            sb.append(",\"accepted\":").append(accepted.get());
+            sb.append(",\"completed\":").append(done);
+            sb.append(",\"rejected\":").append(rejected.get());
+            sb.append(",\"dropped\":").append(dropped.get());
+            sb.append(",\"timedOut\":").append(timedOut.get());
+            sb.append(",\"failed\":").append(failed.get());
+            sb.append(",\"partial\":").append(partial.get());
+            sb.append(",\"pages\":").append(pagesDone.get());
+            sb.append(",\"avgExtractMs\":").append(String.format(Locale.ROOT, "%.3f",
+                    done == 0 ? 0.0 : extractNanos.get() / 1e6 / done));
+            sb.append(",\"heapUsedBytes\":").append(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+            sb.append(",\"heapMaxBytes\":").append(MemoryReport.heapMax());
+            sb.append(",\"residentPeakBytes\":").append(MemoryReport.residentPeak());
+            if (loader.fonts != null) {
+                sb.append(",\"fontCache\":");
+                loader.fonts.appendJson(sb);
+            }
+            sb.append("}\n");
+            byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+        }
+    }
+
+    // On a worker thread.
+    private byte[] extract(byte[] pdf, int startPage, int maxPages, int maxParas, boolean ndjson)
+            throws IOException {
+        long t0 = System.nanoTime();
+        try (PDDocument doc = loader.load(pdf)) {
+            byte[] body = render(doc, startPage, maxPages, maxParas, ndjson);
+            extractNanos.addAndGet(System.nanoTime() - t0);
+            return body;
+        }
+    }
+
+    // The response is built in memory so a failure can still become a proper error status
+    // instead of a truncated 200.
+    private byte[] render(PDDocument doc, int startPage, int maxPages, int maxParas, boolean ndjson)
+            throws IOException {
+        int total = doc.getNumberOfPages();
+        int start = Math.max(1, Math.min(startPage, total));
+        int end = (int) Math.min(total, (long) start + maxPages - 1);
+        Guard guard = Guard.of(opt);
+        List<ParaOut> paras = PosDump.extractParagraphs(doc, start, end, maxParas, opt.engine, opt.grouping,
+                Metrics.OFF, guard);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096 + paras.size() * 160);
+        try (JsonOut.ParaWriter w = new JsonOut.ParaWriter(out, ndjson)) {
+            for (ParaOut p : paras) w.accept(p);
+            w.partial(guard.describe());
+        }
+        if (guard.partial()) partial.incrementAndGet();
+        pagesDone.addAndGet(end - start + 1);
+        return out.toByteArray();
+    }
+
+    private void reject(HttpExchange ex) throws IOException {
+        rejected.incrementAndGet();
+        ex.getResponseHeaders().set("Retry-After", "1");
+        error(ex, 429, "All workers busy and queue full");
+    }
+
+    // -1 when absent (chunked) or unparsable; readBody still enforces the limit then
+    private static long contentLength(HttpExchange ex) {
+        String v = ex.getRequestHeaders().getFirst("Content-Length");
+        if (v == null) return -1;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // null when the body exceeds limit
+    private static byte[] readBody(InputStream in, long limit) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64 * 1024);
+        byte[] chunk = new byte[64 * 1024];
+        long total = 0;
+        for (int n; (n = in.read(chunk)) > 0; ) {
+            total += n;
+            if (total > limit) return null;
+            buf.write(chunk, 0, n);
+        }
+        return buf.toByteArray();
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> q = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return q;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            q.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+
+    private static void error(HttpExchange ex, int status, String message) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        JsonOut.appendString(sb, message);
+        sb.append(",\"status\":").append(status).append("}\n");
+        byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    // One page of screenplay-shaped text (scene heading, action, cue, parenthetical,
+    // dialogue) in a standard-14 font, so warm-up needs no file on disk.
+    static byte[] warmUpPdf() throws IOException {
+        String[][] lines = {
+                {"72", "1. INT. MUTFAK - GECE"},
+                {"108", "Ayse masaya oturur, telefonuna bakar. Disarida yagmur yagiyor."},
+                {"108", "Kapi calar."},
+                {"252", "AYSE"},
+                {"216", "(fisildayarak)"},
+                {"180", "Kim o? Bu saatte kimse gelmez."},
+                {"252", "MEHMET (O.S.)"},
+                {"180", "Benim. Ac kapiyi."},
+                {"72", "2. EXT. SOKAK - GECE"},
+                {"108", "Mehmet islak kaldirimda bekler, elinde bir zarf."},
+        };
+        try (PDDocument doc = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.COURIER);
+            for (int p = 0; p < 2; p++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    float y = 720;
+                    for (int rep = 0; rep < 3; rep++) {
+                        for (String[] ln : lines) {
+                            cs.beginText();
+                            cs.setFont(font, 12);
+                            cs.newLineAtOffset(Float.parseFloat(ln[0]), y);
+                            cs.showText(ln[1]);
+                            cs.endText();
+                            y -= ln[0].equals("72") || ln[0].equals("252") ? 26 : 13;
+                        }
+                    }
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            doc.save(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package test;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Parsed fonts shared by every document opened in this JVM (--font-cache-mb, 0 = off).
+//
+// PDFBox's own ResourceCache lives and dies with one PDDocument, so every document parses
+// its fonts again: the embedded subset, the ToUnicode CMap, the standard-14 fallback lookup
+// (and its warning). Documents made from one template carry byte-identical font objects,
+// so here a font is keyed by a SHA-256 over its whole object graph (dictionaries with sorted
+// keys, arrays, indirect objects resolved, raw stream bytes) and the parsed PDFont is handed
+// to the next document with the same key.
+//
+// A PDFont is not thread-safe (width, CMap and glyph lookups fill plain HashMaps), so an
+// instance belongs to one document at a time: lease() gives each document its own
+// ResourceCache, which borrows fonts from the idle pool and gives them all back when the
+// document closes (DocLoader ties that to the document's reader). Concurrent documents with
+// the same font each parse their own copy; all copies end up in the pool. Idle copies are
+// bounded by an estimate of their size and evicted least recently used first.
+//
+// Type 3 fonts are never shared: their glyphs are content streams run against the
+// document's own resources. The hash walk dereferences every object a font can reach, so
+// a parsed font never goes back to its (closed) source document for data.
+final class FontCache {
+
+    private static FontCache shared;   // guarded by FontCache.class
+
+    // objects a font graph may reach before it is treated as not shareable
+    private static final int MAX_OBJECTS = 4096;
+
+    private final Map<String, ArrayDeque<Entry>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;    // guarded by this, like everything below
+    private long idleBytes;
+    private int idleCount;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+    final AtomicLong hashNanos = new AtomicLong();
+
+    FontCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // The JVM-wide cache; a later budget replaces an earlier one.
+    static synchronized FontCache shared(long maxBytes) {
+        if (shared == null) shared = new FontCache(maxBytes);
+        else shared.budget(maxBytes);
+        return shared;
+    }
+
+    synchronized void budget(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    synchronized long budgetBytes() {
+        return maxBytes;
+    }
+
+    private static final class Entry {
+        final String key;
+        final PDFont font;
+        final long bytes;
+
+        Entry(String key, PDFont font, long bytes) {
+            this.key = key;
+            this.font = font;
+            this.bytes = bytes;
+        }
+    }
+
+    // content key and size estimate of one font object
+    private static final class Hashed {
+        final String key;
+        final long bytes;
+
+        Hashed(String key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Hashed NOT_SHARED = new Hashed(null, 0L);
+
+    Lease lease() {
+        return new Lease();
+    }
+
+    // The ResourceCache of one document. Used by the thread working on that document only;
+    // everything non-font is PDFBox's default per-document behaviour.
+    final class Lease extends DefaultResourceCache {
+        private final Map<COSObject, PDFont> fonts = new HashMap<>();
+        private final Map<COSObject, Hashed> hashes = new HashMap<>();
+        private final Map<String, Entry> held = new HashMap<>();
+        private boolean released;
+
+        @Override
+        public PDFont getFont(COSObject indirect) {
+            PDFont font = fonts.get(indirect);
+            if (font != null) return font;
+            Hashed h = hash(indirect);
+            if (h == NOT_SHARED) return super.getFont(indirect);
+            // the same font object twice in one document (copied pages) is one instance
+            Entry e = held.get(h.key);
+            if (e == null) {
+                e = borrow(h.key);
+                if (e == null) return null;   // PDFBox parses it and put()s it here
+                hits.incrementAndGet();
+                held.put(h.key, e);
+            }
+            fonts.put(indirect, e.font);
+            return e.font;
+        }
+
+        @Override
+        public void put(COSObject indirect, PDFont font) {
+            Hashed h = hash(indirect);
+            if (h == NOT_SHARED || held.containsKey(h.key)) {
+                super.put(indirect, font);
+                return;
+            }
+            misses.incrementAndGet();
+            held.put(h.key, new Entry(h.key, font, h.bytes));
+            fonts.put(indirect, font);
+        }
+
+        // Hands every font back; called once the document is closed.
+        void release() {
+            if (released) return;
+            released = true;
+            giveBack(held.values());
+            held.clear();
+            fonts.clear();
+        }
+
+        private Hashed hash(COSObject indirect) {
+            Hashed h = hashes.get(indirect);
+            if (h == null) {
+                long t0 = System.nanoTime();
+                h = contentKey(indirect);
+                hashNanos.addAndGet(System.nanoTime() - t0);
+                hashes.put(indirect, h);
+            }
+            return h;
+        }
+    }
+
+    private synchronized Entry borrow(String key) {
+        ArrayDeque<Entry> q = idle.get(key);
+        if (q == null) return null;
+        Entry e = q.pollFirst();
+        if (q.isEmpty()) idle.remove(key);
+        if (e != null) {
+            idleBytes -= e.bytes;
+            idleCount--;
+        }
+        return e;
+    }
+
+    private synchronized void giveBack(Iterable<Entry> entries) {
+        for (Entry e : entries) {
+            idle.computeIfAbsent(e.key, k -> new ArrayDeque<>(2)).addFirst(e);
+            idleBytes += e.bytes;
+            idleCount++;
+        }
+        evict();
+    }
+
+    // least recently borrowed or returned keys first
+    private void evict() {
+        Iterator<ArrayDeque<Entry>> it = idle.values().iterator();
+        while (idleBytes > maxBytes && it.hasNext()) {
+            ArrayDeque<Entry> q = it.next();
+            while (idleBytes > maxBytes && !q.isEmpty()) {
+                Entry e = q.pollLast();
+                idleBytes -= e.bytes;
+                idleCount--;
+                evictions.incrementAndGet();
+            }
+            if (q.isEmpty()) it.remove();
+        }
+    }
+
+    // Fonts: hits=12 misses=15 (44.4% hit), 15 idle fonts, 1.9 of 32.0 MB, evictions=0, hashing 3.1 ms
+    synchronized String stats() {
+        return String.format(Locale.ROOT, "Fonts: hits=%d misses=%d (%.1f%% hit), %d idle fonts, %.1f of %.1f MB, evictions=%d, hashing %.1f ms",
+                hits.get(), misses.get(), 100.0 * hitRate(), idleCount, idleBytes / (double) (1 << 20),
+                maxBytes / (double) (1 << 20), evictions.get(), hashNanos.get() / 1e6);
+    }
+
+    synchronized void appendJson(StringBuilder sb) {
+        sb.append("{\"hits\": ").append(hits.get())
+          .append(", \"misses\": ").append(misses.get())
+          .append(", \"hitRate\": ").append(String.format(Locale.ROOT, "%.4f", hitRate()))
+          .append(", \"idleFonts\": ").append(idleCount)
+          .append(", \"idleBytes\": ").append(idleBytes)
+          .append(", \"budgetBytes\": ").append(maxBytes)
+          .append(", \"evictions\": ").append(evictions.get())
+          .append(", \"hashMs\": ").append(String.format(Locale.ROOT, "%.3f", hashNanos.get() / 1e6)).append('}');
+    }
+
+    double hitRate() {
+        long h = hits.get(), n = h + misses.get();
+        return n == 0 ? 0.0 : h / (double) n;
+    }
+
+    // NOT_SHARED for Type 3 fonts, graphs over MAX_OBJECTS and anything unreadable
+    static Hashed contentKey(COSObject indirect) {
+        COSBase font = indirect.getObject();
+        if (!(font instanceof COSDictionary)
+                || COSName.TYPE3.equals(((COSDictionary) font).getCOSName(COSName.SUBTYPE))) {
+            return NOT_SHARED;
+        }
+        try {
+            Walk w = new Walk();
+            w.feed(font);
+            // parsed glyph tables, CMaps and width maps run to a few times the raw streams
+            return new Hashed(ResultCache.hex(w.md.digest()), 4096 + 3 * w.streamBytes);
+        } catch (IOException | RuntimeException e) {
+            return NOT_SHARED;
+        }
+    }
+
+    private static final class Walk {
+        final MessageDigest md = ResultCache.sha256();
+        final Map<COSBase, Integer> seen = new IdentityHashMap<>();
+        final byte[] buf = new byte[16 * 1024];
+        long streamBytes;
+
+        void feed(COSBase b) throws IOException {
+            if (b instanceof COSObject) b = ((COSObject) b).getObject();
+            if (b == null || b instanceof COSNull) {
+                md.update((byte) 'n');
+            } else if (b instanceof COSName) {
+                bytes('N', ((COSName) b).getName().getBytes(StandardCharsets.UTF_8));
+            } else if (b instanceof COSString) {
+                bytes('S', ((COSString) b).getBytes());
+            } else if (b instanceof COSInteger) {
+                md.update((byte) 'I');
+                number(((COSInteger) b).longValue());
+            } else if (b instanceof COSFloat) {
+                md.update((byte) 'F');
+                number(Float.floatToIntBits(((COSFloat) b).floatValue()));
+            } else if (b instanceof COSBoolean) {
+                md.update((byte) (((COSBoolean) b).getValue() ? 'T' : 'f'));
+            } else if (seen.containsKey(b)) {
+                // shared or cyclic: which earlier container it is
+                md.update((byte) 'R');
+                number(seen.get(b));
+            } else if (b instanceof COSArray) {
+                visit(b);
+                COSArray a = (COSArray) b;
+                md.update((byte) 'A');
+                number(a.size());
+                for (int i = 0; i < a.size(); i++) feed(a.get(i));
+            } else if (b instanceof COSDictionary) {
+                visit(b);
+                COSDictionary d = (COSDictionary) b;
+                List<COSName> keys = new ArrayList<>(d.keySet());
+                keys.sort(null);
+                md.update((byte) (b instanceof COSStream ? 'X' : 'D'));
+                number(keys.size());
+                for (COSName k : keys) {
+                    feed(k);
+                    feed(d.getItem(k));
+                }
+                if (b instanceof COSStream) stream((COSStream) b);
+            } else {
+                throw new IOException("Unexpected object in font: " + b.getClass().getSimpleName());
+            }
+        }
+
+        private void visit(COSBase b) throws IOException {
+            if (seen.size() >= MAX_OBJECTS) throw new IOException("Font graph over " + MAX_OBJECTS + " objects");
+            seen.put(b, seen.size());
+        }
+
+        private void stream(COSStream s) throws IOException {
+            long n = 0;
+            try (InputStream in = s.createRawInputStream()) {
+                for (int r; (r = in.read(buf)) > 0; ) {
+                    md.update(buf, 0, r);
+                    n += r;
+                }
+            }
+            number(n);
+            streamBytes += n;
+        }
+
+        private void bytes(char tag, byte[] b) {
+            md.update((byte) tag);
+            number(b.length);
+            md.update(b);
+        }
+
+        private void number(long v) {
+            for (int i = 56; i >= 0; i -= 8) md.update((byte) (v >>> i));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package test;
+
+import java.util.Arrays;
+
+// Running median of vertical line gaps for the streaming pipeline, in constant memory,
+// plus the exact median the whole-document pipeline uses.
+// Gaps are kept in a 1/32pt histogram over 0..128pt (larger gaps land in the last bin),
+// which is far finer than anything the paragraph-break threshold can tell apart.
+final class GapStats {
+    private static final int PER_PT = 32;
+    private static final int BINS = 128 * PER_PT;
+
+    private final int[] bins = new int[BINS];
+    private int count = 0;
+
+    void add(float gap) {
+        int b = Math.round(gap * PER_PT);
+        if (b < 0) b = 0;
+        else if (b >= BINS) b = BINS - 1;
+        bins[b]++;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    // Same convention as the exact median below: mean of the two middle values for even counts.
+    float median(float fallback) {
+        if (count == 0) return fallback;
+        int mid = count / 2;
+        if (count % 2 == 1) return valueAt(mid);
+        return (valueAt(mid - 1) + valueAt(mid)) / 2f;
+    }
+
+    // Exact median of xs[0..n) for the whole-document pipeline; reorders xs. Quickselect in
+    // expected linear time, ordered like Float.compare (what the sorted List<Float> used).
+    static float median(float[] xs, int n, float fallback) {
+        if (n == 0) return fallback;
+        int mid = n / 2;
+        float hi = select(xs, n, mid);
+        if (n % 2 == 1) return hi;
+        // select left everything below mid in xs[0..mid); the lower middle is their maximum
+        float lo = xs[0];
+        for (int i = 1; i < mid; i++) if (Float.compare(xs[i], lo) > 0) lo = xs[i];
+        return (lo + hi) / 2f;
+    }
+
+    // k-th smallest of xs[0..n); afterwards xs[0..k) <= xs[k] <= xs[k+1..n)
+    private static float select(float[] xs, int n, int k) {
+        int lo = 0, hi = n - 1;
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(n)) + 4;
+        while (hi > lo) {
+            if (--budget < 0) {
+                // adversarial input: finish with a sort instead of going quadratic
+                Arrays.sort(xs, lo, hi + 1);
+                return xs[k];
+            }
+            int m = (lo + hi) >>> 1;
+            // median of three into xs[m]
+            if (Float.compare(xs[m], xs[lo]) < 0) swap(xs, m, lo);
+            if (Float.compare(xs[hi], xs[lo]) < 0) swap(xs, hi, lo);
+            if (Float.compare(xs[hi], xs[m]) < 0) swap(xs, hi, m);
+            float pivot = xs[m];
+
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (Float.compare(xs[i], pivot) < 0) i++;
+                while (Float.compare(xs[j], pivot) > 0) j--;
+                if (i <= j) swap(xs, i++, j--);
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return xs[k];
+        }
+        return xs[k];
+    }
+
+    private static void swap(float[] xs, int a, int b) {
+        float t = xs[a];
+        xs[a] = xs[b];
+        xs[b] = t;
+    }
+
+    // value of the k-th smallest gap (0-based)
+    private float valueAt(int k) {
+        int seen = 0;
+        for (int b = 0; b < BINS; b++) {
+            seen += bins[b];
+            if (seen > k) return b / (float) PER_PT;
+        }
+        return (BINS - 1) / (float) PER_PT;
+    }
+}
@@ -0,0 +1,257 @@
+package test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Struct-of-arrays store for captured glyphs: glyph i is x[i], y[i], ... and its unicode
+// text is chars[charOff[i] .. charOff[i + 1]). Replaces one object + one String per glyph
+// with a handful of growable primitive arrays.
+final class GlyphBuffer {
+    private static final int INITIAL = 2048;
+
+    // a dense screenplay page is roughly 1.5k glyphs; used to presize whole-range buffers
+    static final int GLYPHS_PER_PAGE = 1536;
+
+    int size = 0;
+    float[] x, y, w, fontSize;
+    int[] page, yKey;
+
+    // yKey = round(y * yBucketsPerPt), the line bucket (GroupingConfig.yBucketsPerPt)
+    int yBucketsPerPt = 2;
+
+    // packed unicode store; charOff has size + 1 entries
+    char[] chars;
+    int[] charOff;
+
+    GlyphBuffer() {
+        this(INITIAL);
+    }
+
+    GlyphBuffer(int capacity) {
+        capacity = Math.max(16, capacity);
+        x = new float[capacity];
+        y = new float[capacity];
+        w = new float[capacity];
+        fontSize = new float[capacity];
+        page = new int[capacity];
+        yKey = new int[capacity];
+        chars = new char[capacity];
+        charOff = new int[capacity + 1];
+    }
+
+    void add(int pg, float gx, float gy, float gw, float fs, String unicode) {
+        if (size == x.length) grow(size * 2);
+        int i = size;
+        page[i] = pg;
+        x[i] = gx;
+        y[i] = gy;
+        w[i] = gw;
+        fontSize[i] = fs;
+        yKey[i] = Math.round(gy * yBucketsPerPt);
+
+        int off = charOff[i];
+        int n = unicode.length();
+        if (off + n > chars.length) chars = Arrays.copyOf(chars, Math.max(chars.length * 2, off + n));
+        unicode.getChars(0, n, chars, off);
+        charOff[i + 1] = off + n;
+        size++;
+    }
+
+    // Appends every glyph of other, keeping its order.
+    void addAll(GlyphBuffer other) {
+        int n = other.size;
+        if (n == 0) return;
+        if (size + n > x.length) grow(size + n);
+        System.arraycopy(other.x, 0, x, size, n);
+        System.arraycopy(other.y, 0, y, size, n);
+        System.arraycopy(other.w, 0, w, size, n);
+        System.arraycopy(other.fontSize, 0, fontSize, size, n);
+        System.arraycopy(other.page, 0, page, size, n);
+        System.arraycopy(other.yKey, 0, yKey, size, n);
+
+        int base = charOff[size];
+        int len = other.charOff[n];
+        if (base + len > chars.length) chars = Arrays.copyOf(chars, base + len);
+        System.arraycopy(other.chars, 0, chars, base, len);
+        for (int i = 1; i <= n; i++) charOff[size + i] = base + other.charOff[i];
+        size += n;
+    }
+
+    // Re-buckets every glyph's baseline, for a config with another yBucketsPerPt.
+    void rekey(int bucketsPerPt) {
+        if (bucketsPerPt == yBucketsPerPt) return;
+        yBucketsPerPt = bucketsPerPt;
+        for (int i = 0; i < size; i++) yKey[i] = Math.round(y[i] * bucketsPerPt);
+    }
+
+    // Serialized form (GroupingTuner's glyph files): size, yBucketsPerPt, char count, then the
+    // arrays back to back in the buffer's byte order. yKey is recomputed on read.
+    long serializedBytes() {
+        return 12L + size * 20L + (size + 1) * 4L + charOff[size] * 2L;
+    }
+
+    void write(ByteBuffer out) {
+        int n = size;
+        out.putInt(n).putInt(yBucketsPerPt).putInt(charOff[n]);
+        out.asIntBuffer().put(page, 0, n);
+        out.position(out.position() + n * 4);
+        for (float[] a : new float[][] {x, y, w, fontSize}) {
+            out.asFloatBuffer().put(a, 0, n);
+            out.position(out.position() + n * 4);
+        }
+        out.asIntBuffer().put(charOff, 0, n + 1);
+        out.position(out.position() + (n + 1) * 4);
+        out.asCharBuffer().put(chars, 0, charOff[n]);
+        out.position(out.position() + charOff[n] * 2);
+    }
+
+    static GlyphBuffer read(ByteBuffer in) throws IOException {
+        int n = in.getInt();
+        int buckets = in.getInt();
+        int charCount = in.getInt();
+        if (n < 0 || buckets < 1 || charCount < 0 || in.remaining() < n * 24L + 4 + charCount * 2L) {
+            throw new IOException("Corrupt glyph data");
+        }
+        GlyphBuffer g = new GlyphBuffer(n);
+        g.size = n;
+        g.yBucketsPerPt = buckets;
+        in.asIntBuffer().get(g.page, 0, n);
+        in.position(in.position() + n * 4);
+        for (float[] a : new float[][] {g.x, g.y, g.w, g.fontSize}) {
+            in.asFloatBuffer().get(a, 0, n);
+            in.position(in.position() + n * 4);
+        }
+        in.asIntBuffer().get(g.charOff, 0, n + 1);
+        in.position(in.position() + (n + 1) * 4);
+        if (g.charOff[n] != charCount) throw new IOException("Corrupt glyph data");
+        g.chars = new char[Math.max(16, charCount)];
+        in.asCharBuffer().get(g.chars, 0, charCount);
+        in.position(in.position() + charCount * 2);
+        for (int i = 0; i < n; i++) g.yKey[i] = Math.round(g.y[i] * buckets);
+        return g;
+    }
+
+    void clear() {
+        size = 0; // charOff[0] stays 0
+    }
+
+    int charStart(int i) {
+        return charOff[i];
+    }
+
+    int charLength(int i) {
+        return charOff[i + 1] - charOff[i];
+    }
+
+    // Glyph indices in (page, yKey, x) order. Stable, so equal keys keep capture order
+    // exactly like the List.sort over G objects this replaces.
+    //
+    // Linear for real documents. The stripper hands glyphs over already in this order and
+    // the raw engine nearly so, which the first pass detects. Otherwise one stable counting
+    // sort on the (page, yKey) bucket, then x within each line, where glyphs nearly always
+    // arrive left to right. Coordinates spread over far more buckets than there are glyphs
+    // (garbage transforms) fall back to the merge sort.
+    int[] sortedOrder() {
+        int[] idx = new int[size];
+        for (int i = 0; i < size; i++) idx[i] = i;
+        if (size < 2) return idx;
+
+        boolean sorted = true;
+        int minPage = page[0], maxPage = page[0], minY = yKey[0], maxY = yKey[0];
+        for (int i = 1; i < size; i++) {
+            int p = page[i], y = yKey[i];
+            if (sorted) {
+                int pp = page[i - 1], py = yKey[i - 1];
+                sorted = pp < p || (pp == p && (py < y || (py == y && Float.compare(x[i - 1], x[i]) <= 0)));
+            }
+            if (p < minPage) minPage = p;
+            else if (p > maxPage) maxPage = p;
+            if (y < minY) minY = y;
+            else if (y > maxY) maxY = y;
+        }
+        if (sorted) return idx;
+
+        int[] tmp = new int[size];
+        long yRange = (long) maxY - minY + 1;
+        long buckets = ((long) maxPage - minPage + 1) * yRange;
+        if (buckets > 4L * size + 65536) {
+            mergeSort(idx, tmp, 0, size);
+            return idx;
+        }
+
+        int[] start = new int[(int) buckets + 1];
+        for (int i = 0; i < size; i++) start[bucket(i, minPage, minY, yRange) + 1]++;
+        for (int b = 1; b < start.length; b++) start[b] += start[b - 1];
+        for (int i = 0; i < size; i++) idx[start[bucket(i, minPage, minY, yRange)]++] = i;
+
+        for (int a = 0; a < size; ) {
+            int p = page[idx[a]], y = yKey[idx[a]];
+            int b = a + 1;
+            while (b < size && yKey[idx[b]] == y && page[idx[b]] == p) b++;
+            if (b - a > 1) sortByX(idx, tmp, a, b);
+            a = b;
+        }
+        return idx;
+    }
+
+    private int bucket(int i, int minPage, int minY, long yRange) {
+        return (int) ((page[i] - minPage) * yRange + (yKey[i] - minY));
+    }
+
+    // one line: usually already in x order, so insertion sort is a single pass
+    private void sortByX(int[] a, int[] tmp, int lo, int hi) {
+        int moves = 0;
+        for (int i = lo + 1; i < hi; i++) {
+            int v = a[i];
+            float vx = x[v];
+            int j = i - 1;
+            while (j >= lo && Float.compare(x[a[j]], vx) > 0) { a[j + 1] = a[j]; j--; moves++; }
+            a[j + 1] = v;
+            // badly shuffled long line: stop paying quadratic cost
+            if (moves > 8 * (hi - lo) + 64) {
+                mergeSort(a, tmp, lo, hi);
+                return;
+            }
+        }
+    }
+
+    // stable fallback for inputs the bucket passes do not suit
+    private void mergeSort(int[] a, int[] tmp, int lo, int hi) {
+        if (hi - lo <= 16) {
+            for (int i = lo + 1; i < hi; i++) {
+                int v = a[i];
+                int j = i - 1;
+                while (j >= lo && compare(a[j], v) > 0) { a[j + 1] = a[j]; j--; }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(a, tmp, lo, mid);
+        mergeSort(a, tmp, mid, hi);
+        if (compare(a[mid - 1], a[mid]) <= 0) return; // already in order
+
+        System.arraycopy(a, lo, tmp, lo, hi - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) a[k++] = compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+        while (i < mid) a[k++] = tmp[i++];
+        while (j < hi) a[k++] = tmp[j++];
+    }
+
+    private int compare(int a, int b) {
+        if (page[a] != page[b]) return Integer.compare(page[a], page[b]);
+        if (yKey[a] != yKey[b]) return Integer.compare(yKey[a], yKey[b]);
+        return Float.compare(x[a], x[b]);
+    }
+
+    private void grow(int cap) {
+        x = Arrays.copyOf(x, cap);
+        y = Arrays.copyOf(y, cap);
+        w = Arrays.copyOf(w, cap);
+        fontSize = Arrays.copyOf(fontSize, cap);
+        page = Arrays.copyOf(page, cap);
+        yKey = Arrays.copyOf(yKey, cap);
+        charOff = Arrays.copyOf(charOff, cap + 1);
+    }
+}
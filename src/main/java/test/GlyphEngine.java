@@ -0,0 +1,239 @@
+package test;
+
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.DrawObject;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetGraphicsStateParameters;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.contentstream.operator.text.*;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDCIDFont;
+import org.apache.pdfbox.pdmodel.font.PDCIDFontType2;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+import org.apache.pdfbox.pdmodel.font.PDTrueTypeFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+import test.PosDump.PageListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.List;
+
+// Raw glyph capture straight off PDFBox's content stream engine (--engine=raw).
+//
+// CaptureStripper only keeps the positioned glyphs, yet PDFTextStripper still builds a
+// TextPosition (plus font height / space width) per glyph, checks article beads, runs its
+// duplicate-overlap TreeMaps, sorts every page and assembles the page text. Everything after
+// the glyph position is redone by buildLines anyway, so this engine writes x / y / width /
+// font size / unicode into the GlyphBuffer from showGlyph and does nothing else.
+//
+// Coordinates are the stripper's exactly: the same operator set, the same deliberately
+// "legacy" displacement (no char / word spacing, own width for vertical fonts), the crop box
+// shift and the direction-adjusted getters of TextPosition, in the same float operation
+// order. What it does not do is the stripper's duplicate suppression and diacritic merging,
+// so a PDF that sets accents as separate glyphs gives different lines than --engine=stripper;
+// overdrawn text (fake bold) is left to LineAssembler's overdrawTol.
+final class GlyphEngine extends PDFStreamEngine {
+
+    // PDFTextStripper's extra names on top of the Adobe glyph list
+    private static final GlyphList GLYPHLIST;
+
+    static {
+        String path = "/org/apache/pdfbox/resources/glyphlist/additional.txt";
+        try (InputStream input = GlyphList.class.getResourceAsStream(path)) {
+            GLYPHLIST = new GlyphList(GlyphList.getAdobeGlyphList(), input);
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final GlyphBuffer glyphs;
+
+    // same hooks as CaptureStripper
+    PageListener onPage;
+    BitSet skipPages;
+    Metrics metrics = Metrics.OFF;
+    Guard guard = Guard.NONE;
+
+    private int pageNo;
+    private int pageGlyphs;
+    private int pageRotation;
+    private float pageWidth, pageHeight;
+    private float cropX, cropY;
+
+    GlyphEngine(GlyphBuffer glyphs) {
+        this.glyphs = glyphs;
+        addOperator(new BeginText(this));
+        addOperator(new Concatenate(this));
+        addOperator(new DrawObject(this));
+        addOperator(new EndText(this));
+        addOperator(new SetGraphicsStateParameters(this));
+        addOperator(new Save(this));
+        addOperator(new Restore(this));
+        addOperator(new NextLine(this));
+        addOperator(new SetCharSpacing(this));
+        addOperator(new MoveText(this));
+        addOperator(new MoveTextSetLeading(this));
+        addOperator(new SetFontAndSize(this));
+        addOperator(new ShowText(this));
+        addOperator(new ShowTextAdjusted(this));
+        addOperator(new SetTextLeading(this));
+        addOperator(new SetMatrix(this));
+        addOperator(new SetTextRenderingMode(this));
+        addOperator(new SetTextRise(this));
+        addOperator(new SetWordSpacing(this));
+        addOperator(new SetTextHorizontalScaling(this));
+        addOperator(new ShowTextLine(this));
+        addOperator(new ShowTextLineAndSpace(this));
+    }
+
+    // Pages start..end (1-based, inclusive); like the stripper, pages without content are
+    // skipped entirely (no onPage call).
+    void capture(PDDocument doc, int start, int end) throws IOException {
+        int no = 0;
+        for (PDPage page : doc.getPages()) {
+            if (++no < start) continue;
+            if (no > end) break;
+            if (!page.hasContents() || (skipPages != null && skipPages.get(no))) continue;
+            PosDump.checkInterrupted();
+            guard.check(no);
+
+            long t0 = metrics.enabled ? System.nanoTime() : 0L;
+            int g0 = glyphs.size;
+            Metrics.PageEvent event = metrics.enabled ? metrics.pageStart() : null;
+            pageNo = no;
+            pageGlyphs = 0;
+            processPage(page);
+            guard.endPage(no, pageGlyphs);
+            if (metrics.enabled) metrics.page(no, glyphs.size - g0, System.nanoTime() - t0, event);
+            if (onPage != null) {
+                onPage.page(no, glyphs);
+                glyphs.clear();
+            }
+        }
+    }
+
+    @Override
+    public void processPage(PDPage page) throws IOException {
+        PDRectangle crop = page.getCropBox();
+        pageRotation = page.getRotation();
+        pageWidth = crop.getWidth();
+        pageHeight = crop.getHeight();
+        cropX = crop.getLowerLeftX();
+        cropY = crop.getLowerLeftY();
+        super.processPage(page);
+    }
+
+    @Override
+    protected void operatorException(Operator operator, List<COSBase> operands, IOException e) throws IOException {
+        Guard.rethrow(e);
+        super.operatorException(operator, operands, e);
+    }
+
+    @Override
+    protected void showGlyph(Matrix trm, PDFont font, int code, Vector displacement) throws IOException {
+        if (!guard.admit(pageNo, ++pageGlyphs)) {
+            if (guard.stopped()) guard.check(pageNo);
+            return;
+        }
+        String unicode = font.toUnicode(code, GLYPHLIST);
+        if (unicode == null) {
+            // Acrobat coerces simple-font codes and drops composite ones; so does the stripper
+            if (!(font instanceof PDSimpleFont)) return;
+            unicode = String.valueOf((char) code);
+        }
+        if (unicode.isEmpty() || unicode.equals("\r") || unicode.equals("\n")) return;
+
+        PDGraphicsState state = getGraphicsState();
+        Matrix ctm = state.getCurrentTransformationMatrix();
+        Matrix tm = getTextMatrix();
+        float fontSize = state.getTextState().getFontSize();
+        float hScale = state.getTextState().getHorizontalScaling() / 100f;
+
+        float dx = font.isVertical() ? verticalWidth(font, code) : displacement.getX();
+        float tx = dx * fontSize * hScale;
+        float ty = displacement.getY() * fontSize;
+
+        // translation of translate(tx, ty) * tm * ctm, i.e. where the next glyph starts
+        float ex = tx * tm.getScaleX() + ty * tm.getShearX() + tm.getTranslateX();
+        float ey = tx * tm.getShearY() + ty * tm.getScaleY() + tm.getTranslateY();
+        float endX = ex * ctm.getScaleX() + ey * ctm.getShearX() + ctm.getTranslateX();
+        float endY = ex * ctm.getShearY() + ey * ctm.getScaleY() + ctm.getTranslateY();
+
+        float x0 = trm.getTranslateX();
+        float y0 = trm.getTranslateY();
+        if (cropX != 0 || cropY != 0) {
+            x0 -= cropX;
+            y0 -= cropY;
+            endX -= cropX;
+            endY -= cropY;
+        }
+
+        // TextPosition.getXDirAdj / getYDirAdj / getWidthDirAdj
+        float x, y, w;
+        switch (direction(trm)) {
+            case 90:
+                x = y0;
+                y = pageWidth - (pageWidth - x0);
+                w = Math.abs(endY - y0);
+                break;
+            case 180:
+                x = pageWidth - x0;
+                y = pageHeight - (pageHeight - y0);
+                w = Math.abs(endX - x0);
+                break;
+            case 270:
+                x = pageHeight - y0;
+                y = pageWidth - x0;
+                w = Math.abs(endY - y0);
+                break;
+            default:
+                x = x0;
+                y = pageHeight - y0;
+                w = Math.abs(endX - x0);
+                break;
+        }
+
+        glyphs.add(pageNo, x, y, w, (int) (fontSize * tm.getScalingFactorX()), unicode);
+    }
+
+    // TextPosition.getDir
+    private static int direction(Matrix m) {
+        float a = m.getScaleY();
+        float b = m.getShearY();
+        float c = m.getShearX();
+        float d = m.getScaleX();
+        if (a > 0 && Math.abs(b) < d && Math.abs(c) < a && d > 0) return 0;
+        if (a < 0 && Math.abs(b) < Math.abs(d) && Math.abs(c) < Math.abs(a) && d < 0) return 180;
+        if (Math.abs(a) < Math.abs(c) && b > 0 && c < 0 && Math.abs(d) < b) return 90;
+        if (Math.abs(a) < c && b < 0 && c > 0 && Math.abs(d) < Math.abs(b)) return 270;
+        return 0;
+    }
+
+    // vertical displacement says nothing about the glyph's width; use the font's own,
+    // corrected for TrueType fonts not on a 1000 units/em grid
+    private static float verticalWidth(PDFont font, int code) throws IOException {
+        float w = font.getWidth(code) / 1000;
+        TrueTypeFont ttf = null;
+        if (font instanceof PDTrueTypeFont) {
+            ttf = ((PDTrueTypeFont) font).getTrueTypeFont();
+        } else if (font instanceof PDType0Font) {
+            PDCIDFont cid = ((PDType0Font) font).getDescendantFont();
+            if (cid instanceof PDCIDFontType2) ttf = ((PDCIDFontType2) cid).getTrueTypeFont();
+        }
+        if (ttf != null && ttf.getUnitsPerEm() != 1000) w *= 1000f / ttf.getUnitsPerEm();
+        return w;
+    }
+}
@@ -0,0 +1,97 @@
+package test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Labelled paragraphs (a golden file, or CorpusGen's expected labels) to score extractions
+// against. Both scores are F1 over multisets of paragraphs with whitespace-normalized text:
+//   kind  (page, kind, text): segmentation and classification right
+//   seg   (page, text):       segmentation right whatever the kind
+// Only pages that have golden paragraphs are scored, so a golden file may label a few pages.
+// Immutable once built; match() may run on several threads.
+final class Golden {
+    private final Map<String, Integer> kinds = new HashMap<>();
+    private final Map<String, Integer> segments = new HashMap<>();
+    private final Set<Integer> pages = new HashSet<>();
+    private final int size;
+
+    Golden(List<ParaOut> paras) {
+        for (ParaOut p : paras) {
+            String text = normalize(p.text);
+            kinds.merge(kindKey(p, text), 1, Integer::sum);
+            segments.merge(segmentKey(p, text), 1, Integer::sum);
+            pages.add(p.page);
+        }
+        size = paras.size();
+    }
+
+    int size() {
+        return size;
+    }
+
+    static final class Match {
+        final double kindF1, segF1;
+        final int paras;   // predicted paragraphs on golden pages
+
+        Match(double kindF1, double segF1, int paras) {
+            this.kindF1 = kindF1;
+            this.segF1 = segF1;
+            this.paras = paras;
+        }
+    }
+
+    Match match(List<ParaOut> predicted) {
+        Map<String, Integer> kindLeft = new HashMap<>(kinds);
+        Map<String, Integer> segLeft = new HashMap<>(segments);
+        int n = 0, kindHits = 0, segHits = 0;
+        for (ParaOut p : predicted) {
+            if (!pages.contains(p.page)) continue;
+            n++;
+            String text = normalize(p.text);
+            if (take(kindLeft, kindKey(p, text))) kindHits++;
+            if (take(segLeft, segmentKey(p, text))) segHits++;
+        }
+        return new Match(f1(kindHits, n, size), f1(segHits, n, size), n);
+    }
+
+    private static boolean take(Map<String, Integer> left, String key) {
+        Integer c = left.get(key);
+        if (c == null) return false;
+        if (c == 1) left.remove(key);
+        else left.put(key, c - 1);
+        return true;
+    }
+
+    private static double f1(int hits, int predicted, int golden) {
+        return predicted + golden == 0 ? 1.0 : 2.0 * hits / (predicted + golden);
+    }
+
+    private static String kindKey(ParaOut p, String text) {
+        return p.page + "\u0000" + p.kind.name() + "\u0000" + text;
+    }
+
+    private static String segmentKey(ParaOut p, String text) {
+        return p.page + "\u0000" + text;
+    }
+
+    // whitespace runs -> one space, trimmed: hand edits to a golden file rarely keep the
+    // extractor's exact spacing
+    static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c) || c == '\u00A0') {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
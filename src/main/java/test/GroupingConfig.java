@@ -0,0 +1,148 @@
+package test;
+
+import java.util.Arrays;
+
+// The grouper's thresholds, formerly literals marked "tune later". DEFAULT is what every run
+// uses unless --grouping=key=value,... overrides some; GroupingTuner sweeps grids of them.
+// Immutable: a different value is a different config (with()).
+final class GroupingConfig {
+
+    static final String[] KEYS = {
+            "sceneMaxX", "sceneMinScore", "indentJump", "dialogueEscape", "gapFactor", "defaultLineGap", "yBucketsPerPt",
+            "baselineTol", "overdrawTol"
+    };
+
+    // the keys that shape the lines themselves (buildLines); the rest only steer the grouper
+    static final String[] LINE_KEYS = { "yBucketsPerPt", "baselineTol", "overdrawTol" };
+
+    static final GroupingConfig DEFAULT = new GroupingConfig(90f, 6, 35f, 15f, 1.6f, 13f, 2, 2f, 1f);
+
+    final float sceneMaxX;       // a SCENE heading starts at or left of this x
+    final int sceneMinScore;     // sceneScore a line needs to be a SCENE
+    final float indentJump;      // ACTION / DIALOGUE indent change that starts a new paragraph
+    final float dialogueEscape;  // a dialogue-mode line within this of the action indent is ACTION
+    final float gapFactor;       // paragraph break = median line gap * gapFactor
+    final float defaultLineGap;  // median line gap assumed when there is nothing to measure
+    final int yBucketsPerPt;     // baselines are bucketed to 1/yBucketsPerPt pt into lines
+    final float baselineTol;     // buckets within this of a line's first one join it, 0 = exact buckets
+    final float overdrawTol;     // the same glyph again within this of itself is dropped, 0 = kept
+
+    GroupingConfig(float sceneMaxX, int sceneMinScore, float indentJump, float dialogueEscape,
+                   float gapFactor, float defaultLineGap, int yBucketsPerPt, float baselineTol, float overdrawTol) {
+        if (yBucketsPerPt < 1) throw new IllegalArgumentException("yBucketsPerPt must be >= 1");
+        if (baselineTol < 0 || overdrawTol < 0) throw new IllegalArgumentException("tolerances must be >= 0");
+        this.sceneMaxX = sceneMaxX;
+        this.sceneMinScore = sceneMinScore;
+        this.indentJump = indentJump;
+        this.dialogueEscape = dialogueEscape;
+        this.gapFactor = gapFactor;
+        this.defaultLineGap = defaultLineGap;
+        this.yBucketsPerPt = yBucketsPerPt;
+        this.baselineTol = baselineTol;
+        this.overdrawTol = overdrawTol;
+    }
+
+    // "gapFactor=1.5,sceneMaxX=100" on top of DEFAULT
+    static GroupingConfig parse(String spec) {
+        GroupingConfig c = DEFAULT;
+        if (spec == null || spec.isEmpty()) return c;
+        for (String kv : spec.split(",")) {
+            int eq = kv.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Expected key=value: " + kv);
+            c = c.with(kv.substring(0, eq).trim(), kv.substring(eq + 1).trim());
+        }
+        return c;
+    }
+
+    // one key changed; the values are copied through values() and validated by the constructor
+    GroupingConfig with(String key, String value) {
+        int i = Arrays.asList(KEYS).indexOf(key);
+        if (i < 0) throw new IllegalArgumentException("Unknown grouping key: " + key + " " + String.join("|", KEYS));
+        float[] v = values();
+        v[i] = key.equals("sceneMinScore") || key.equals("yBucketsPerPt") ? Integer.parseInt(value) : Float.parseFloat(value);
+        return new GroupingConfig(v);
+    }
+
+    // every value, indexed like KEYS
+    private float[] values() {
+        return new float[] {sceneMaxX, sceneMinScore, indentJump, dialogueEscape, gapFactor, defaultLineGap,
+                yBucketsPerPt, baselineTol, overdrawTol};
+    }
+
+    private GroupingConfig(float[] v) {
+        this(v[0], (int) v[1], v[2], v[3], v[4], v[5], (int) v[6], v[7], v[8]);
+    }
+
+    String get(String key) {
+        switch (key) {
+            case "sceneMaxX": return num(sceneMaxX);
+            case "sceneMinScore": return Integer.toString(sceneMinScore);
+            case "indentJump": return num(indentJump);
+            case "dialogueEscape": return num(dialogueEscape);
+            case "gapFactor": return num(gapFactor);
+            case "defaultLineGap": return num(defaultLineGap);
+            case "yBucketsPerPt": return Integer.toString(yBucketsPerPt);
+            case "baselineTol": return num(baselineTol);
+            case "overdrawTol": return num(overdrawTol);
+            default: throw new IllegalArgumentException("Unknown grouping key: " + key);
+        }
+    }
+
+    boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    // number of keys whose value differs from DEFAULT
+    int distanceFromDefault() {
+        int d = 0;
+        for (String k : KEYS) if (!get(k).equals(DEFAULT.get(k))) d++;
+        return d;
+    }
+
+    // Canonical form, part of cache keys: every key in KEYS order.
+    String key() {
+        return key(KEYS);
+    }
+
+    // Canonical form of LINE_KEYS only: configs with equal linesKey() build the same lines.
+    String linesKey() {
+        return key(LINE_KEYS);
+    }
+
+    private String key(String[] keys) {
+        StringBuilder sb = new StringBuilder();
+        for (String k : keys) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(k).append('=').append(get(k));
+        }
+        return sb.toString();
+    }
+
+    // only the keys that differ from DEFAULT, "default" if none
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String k : KEYS) {
+            String v = get(k);
+            if (v.equals(DEFAULT.get(k))) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(k).append('=').append(v);
+        }
+        return sb.length() == 0 ? "default" : sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof GroupingConfig && key().equals(((GroupingConfig) o).key());
+    }
+
+    @Override
+    public int hashCode() {
+        return key().hashCode();
+    }
+
+    // 90 -> "90", 1.6 -> "1.6"
+    private static String num(float f) {
+        return f == Math.rint(f) && Math.abs(f) < 1e7 ? Integer.toString((int) f) : Float.toString(f);
+    }
+}
@@ -0,0 +1,235 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Sweeps a grid of GroupingConfigs over one capture of a document and ranks them against a
+// labelled golden paragraph file (any json / ndjson PosDump wrote, corrected by hand):
+//
+//   GroupingTuner <pdf> <golden.json> [--grid=gapFactor=1.4:1.6,sceneMaxX=80:100] [--workers=N]
+//                 [--top=10] [--glyphs=file] [--start=N] [--pages=N] [--engine=stripper|raw]
+//
+// The PDF is parsed once. With --glyphs the capture is written there and reused by later
+// runs while the PDF (length, mtime), engine and page range are unchanged. Lines are built
+// once per distinct set of line keys (yBucketsPerPt, baselineTol, overdrawTol); every config
+// then only re-runs the grouper, spread over --workers threads.
+//
+// Each config gets Golden's kind and seg F1 scores; ranked by kind, then seg, then fewest
+// keys changed from DEFAULT.
+public final class GroupingTuner {
+    private GroupingTuner() {}
+
+    // glyph file: magic, pdf length, pdf mtime, engine, requested start / pages, GlyphBuffer
+    private static final int GLYPH_MAGIC = 0x50474231; // "PGB1"
+    private static final int GLYPH_HEADER = 4 + 8 + 8 + 4 + 4 + 4;
+
+    // used for every key --grid leaves out of a default-grid run
+    private static final String DEFAULT_GRID = "sceneMaxX=80:90:100:110,sceneMinScore=5:6:7,indentJump=25:35:45,"
+            + "dialogueEscape=10:15:20,gapFactor=1.4:1.6:1.8,yBucketsPerPt=1:2";
+
+    public static void main(String[] args) throws Exception {
+        RunOptions opt;
+        try {
+            opt = RunOptions.parseTune(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: GroupingTuner <pdf> <golden.json> [--grid=key=v1:v2,...] [--workers=N] [--top=10]"
+                    + " [--glyphs=file] [--start=N] [--pages=N]");
+            System.exit(2);
+            return;
+        }
+        File pdf = new File(opt.pdfPath);
+        List<ParaOut> golden = JsonOut.readParas(new File(opt.goldenPath));
+        List<GroupingConfig> grid = grid(opt.grid.isEmpty() ? DEFAULT_GRID : opt.grid);
+
+        long t0 = System.nanoTime();
+        File glyphFile = opt.glyphsPath == null ? null : new File(opt.glyphsPath);
+        GlyphBuffer glyphs = glyphFile == null ? null : readGlyphs(glyphFile, pdf, opt);
+        String source = "loaded from " + opt.glyphsPath;
+        if (glyphs == null) {
+            glyphs = capture(pdf, opt);
+            source = "captured";
+            if (glyphFile != null) {
+                writeGlyphs(glyphFile, pdf, opt, glyphs);
+                source += ", saved to " + opt.glyphsPath;
+            }
+        }
+        double prepMs = (System.nanoTime() - t0) / 1e6;
+
+        // golden files usually cover the whole document; score only the captured pages
+        BitSet captured = new BitSet();
+        for (int i = 0; i < glyphs.size; i++) captured.set(glyphs.page[i]);
+        golden.removeIf(p -> !captured.get(p.page));
+        if (golden.isEmpty()) throw new IOException("No golden paragraphs on the captured pages");
+
+        int workers = Math.max(1, Math.min(opt.effectiveWorkers(), grid.size()));
+        long t1 = System.nanoTime();
+        List<Score> scores = evaluate(glyphs, grid, golden, opt.maxParas, workers);
+        double tuneMs = (System.nanoTime() - t1) / 1e6;
+
+        System.out.printf(Locale.ROOT, "Glyphs: %d (%s) in %.1f ms%n", glyphs.size, source, prepMs);
+        System.out.printf(Locale.ROOT, "Tuned %d configs against %d golden paragraphs in %.1f ms (%.0f configs/s, %d workers)%n",
+                scores.size(), golden.size(), tuneMs, scores.size() * 1000.0 / Math.max(tuneMs, 1e-3), workers);
+        System.out.println(" rank  kindF1   segF1  paras  config");
+        int shown = Math.min(opt.top, scores.size());
+        for (int i = 0; i < shown; i++) printRow(i + 1, scores.get(i));
+        for (int i = shown; i < scores.size(); i++) {
+            if (scores.get(i).cfg.isDefault()) {
+                System.out.println("  ...");
+                printRow(i + 1, scores.get(i));
+            }
+        }
+        GroupingConfig best = scores.get(0).cfg;
+        System.out.println(best.isDefault() ? "Best: the default" : "Best: --grouping=" + best);
+    }
+
+    private static void printRow(int rank, Score s) {
+        System.out.printf(Locale.ROOT, "%5d  %.4f  %.4f  %5d  %s%n", rank, s.kindF1, s.segF1, s.paras, s.cfg);
+    }
+
+    // "key=v1:v2,key2=v3" -> every combination, keys not named at their DEFAULT value;
+    // DEFAULT itself is always in, so the report can place it
+    static List<GroupingConfig> grid(String spec) {
+        Map<String, String[]> axes = new LinkedHashMap<>();
+        for (String kv : spec.split(",")) {
+            if (kv.trim().isEmpty()) continue;
+            int eq = kv.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Expected key=v1:v2: " + kv);
+            axes.put(kv.substring(0, eq).trim(), kv.substring(eq + 1).trim().split(":"));
+        }
+        List<GroupingConfig> configs = new ArrayList<>();
+        configs.add(GroupingConfig.DEFAULT);
+        for (Map.Entry<String, String[]> axis : axes.entrySet()) {
+            List<GroupingConfig> next = new ArrayList<>(configs.size() * axis.getValue().length);
+            for (GroupingConfig c : configs) {
+                for (String v : axis.getValue()) next.add(c.with(axis.getKey(), v));
+            }
+            configs = next;
+        }
+        Set<GroupingConfig> distinct = new LinkedHashSet<>(configs);
+        distinct.add(GroupingConfig.DEFAULT);
+        return new ArrayList<>(distinct);
+    }
+
+    static final class Score {
+        final GroupingConfig cfg;
+        final double kindF1, segF1;
+        final int paras;
+
+        Score(GroupingConfig cfg, Golden.Match m) {
+            this.cfg = cfg;
+            this.kindF1 = m.kindF1;
+            this.segF1 = m.segF1;
+            this.paras = m.paras;
+        }
+    }
+
+    static final Comparator<Score> RANKING = Comparator.<Score>comparingDouble(s -> -s.kindF1)
+            .thenComparingDouble(s -> -s.segF1)
+            .thenComparingInt(s -> s.cfg.distanceFromDefault())
+            .thenComparing(s -> s.cfg.key());
+
+    // Ranked scores of every config. glyphs is re-bucketed in place, one linesKey at a time,
+    // before any grouping starts; the line lists are then shared read-only by the workers.
+    static List<Score> evaluate(GlyphBuffer glyphs, List<GroupingConfig> grid, List<ParaOut> golden,
+                                int maxParas, int workers) throws IOException, InterruptedException {
+        Map<String, List<PosDump.Line>> linesByKey = new HashMap<>();
+        for (GroupingConfig c : grid) {
+            if (linesByKey.containsKey(c.linesKey())) continue;
+            List<PosDump.Line> lines = PosDump.buildLines(glyphs, c);
+            PosDump.sortReadingOrder(lines);
+            // already in reading order, so grouping never sorts it
+            linesByKey.put(c.linesKey(), Collections.unmodifiableList(lines));
+        }
+        Golden gold = new Golden(golden);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "posdump-tune");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Score>> futures = new ArrayList<>(grid.size());
+            for (GroupingConfig c : grid) {
+                List<PosDump.Line> lines = linesByKey.get(c.linesKey());
+                futures.add(pool.submit(() ->
+                        new Score(c, gold.match(PosDump.groupLinesIntoParagraphs(lines, maxParas, c, Metrics.OFF)))));
+            }
+            List<Score> scores = new ArrayList<>(futures.size());
+            for (Future<Score> f : futures) {
+                try {
+                    scores.add(f.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+            scores.sort(RANKING);
+            return scores;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static GlyphBuffer capture(File pdf, RunOptions opt) throws IOException {
+        try (PDDocument doc = DocLoader.of(opt).load(pdf)) {
+            int total = doc.getNumberOfPages();
+            return PosDump.captureGlyphs(doc, opt.firstPage(total), opt.lastPage(total), opt.engine, Metrics.OFF);
+        }
+    }
+
+    // null when missing or captured from another PDF, engine or page range
+    static GlyphBuffer readGlyphs(File f, File pdf, RunOptions opt) throws IOException {
+        if (!f.isFile()) return null;
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() < GLYPH_HEADER || ch.size() > Integer.MAX_VALUE) return null;
+            ByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (in.getInt() != GLYPH_MAGIC || in.getLong() != pdf.length() || in.getLong() != pdf.lastModified()
+                    || in.getInt() != opt.engine.ordinal() || in.getInt() != opt.startPage || in.getInt() != opt.maxPages) {
+                return null;
+            }
+            return GlyphBuffer.read(in);
+        }
+    }
+
+    static void writeGlyphs(File f, File pdf, RunOptions opt, GlyphBuffer glyphs) throws IOException {
+        long bytes = GLYPH_HEADER + glyphs.serializedBytes();
+        if (bytes > Integer.MAX_VALUE) throw new IOException("Glyph capture over 2 GB");
+        ByteBuffer out = ByteBuffer.allocate((int) bytes);
+        out.putInt(GLYPH_MAGIC).putLong(pdf.length()).putLong(pdf.lastModified())
+           .putInt(opt.engine.ordinal()).putInt(opt.startPage).putInt(opt.maxPages);
+        glyphs.write(out);
+        out.flip();
+
+        // written aside and renamed, so an interrupted run never leaves a truncated capture
+        File tmp = new File(f.getAbsoluteFile().getParentFile(), f.getName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) ch.write(out);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
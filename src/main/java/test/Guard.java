@@ -0,0 +1,153 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Resource limits of one document's extraction, so a pathological PDF (millions of positioned
+// glyphs, corrupt underscore runs, spaced letters, text drawn many times over) ends with a
+// partial, flagged result instead of a hang or an OutOfMemoryError in a worker shared with
+// other documents:
+//
+//   --max-doc-ms=600000       wall time from the start of capture
+//   --max-page-glyphs=50000   glyphs kept per page; the rest of that page is dropped
+//   --max-glyphs=10000000     glyphs per document; capture stops on the page it is reached
+//   --max-line-chars=2000     characters per line; the rest of that line is dropped
+//
+// (0 = no limit.) The checks are cooperative and cheap: the capture engines make one compare
+// per glyph, and look at the clock and the document's glyph total every 1024 glyphs and at
+// each page; the grouper looks every 256 lines. A stop is raised as Exceeded, which
+// PosDump.capture catches, so the pages captured before it go through grouping as usual.
+//
+// Everything over a limit is noted here; writers flag their output with describe(), and
+// partial results are never cached. One Guard may be shared by the threads of one document
+// (ParallelCapture, Pipeline); per-page counting stays in each engine.
+final class Guard {
+
+    // no limits, nothing recorded: for callers that never see untrusted input (benchmarks)
+    static final Guard NONE = new Guard(0, 0, 0, 0);
+
+    // notes kept for describe(); beyond that only counted
+    private static final int MAX_NOTES = 8;
+
+    final int maxPageGlyphs;    // Integer.MAX_VALUE = no limit, as below
+    final int maxLineChars;
+    private final long maxGlyphs;
+    private final long maxMillis;
+    private final long deadline;
+    private final boolean counting;   // a total or a clock to keep
+
+    private final AtomicLong glyphs = new AtomicLong();
+    private volatile String stopped;
+    private volatile boolean outOfTime;
+    private final List<String> notes = new ArrayList<>();   // guarded by this
+    private int moreNotes;
+    private String lastNote;
+
+    Guard(long maxMillis, int maxPageGlyphs, long maxGlyphs, int maxLineChars) {
+        this.maxMillis = maxMillis;
+        this.maxPageGlyphs = maxPageGlyphs > 0 ? maxPageGlyphs : Integer.MAX_VALUE;
+        this.maxGlyphs = maxGlyphs > 0 ? maxGlyphs : Long.MAX_VALUE;
+        this.maxLineChars = maxLineChars > 0 ? maxLineChars : Integer.MAX_VALUE;
+        this.deadline = maxMillis > 0 ? System.nanoTime() + maxMillis * 1_000_000L : 0L;
+        this.counting = maxMillis > 0 || maxGlyphs > 0;
+    }
+
+    // A fresh guard for one document; its clock starts now.
+    static Guard of(RunOptions opt) {
+        return new Guard(opt.maxDocMs, opt.maxPageGlyphs, opt.maxGlyphs, opt.maxLineChars);
+    }
+
+    // Thrown by the capture engines once the document is stopped. PDFStreamEngine swallows an
+    // IOException from a form XObject's Do (logs it and goes on), so both engines override
+    // operatorException to let this one through; see rethrow.
+    static final class Exceeded extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded(String message) {
+            super(message);
+        }
+    }
+
+    // For the engines' operatorException: an Exceeded goes on up, anything else is left to PDFBox.
+    static void rethrow(IOException e) throws Exceeded {
+        if (e instanceof Exceeded) throw (Exceeded) e;
+    }
+
+    // Per captured glyph; n = glyphs seen on its page so far, this one included.
+    // false = drop it (the page is full, or the document stopped).
+    boolean admit(int page, int n) {
+        if (n > maxPageGlyphs) {
+            if (n == maxPageGlyphs + 1) note("page " + page + ": over " + maxPageGlyphs + " glyphs, rest of page dropped");
+            return false;
+        }
+        if ((n & 1023) == 0) return tick(page, 1024);
+        return stopped == null;
+    }
+
+    // After each captured page, with that page's final n: counts the glyphs admit has not yet.
+    void endPage(int page, int n) {
+        tick(page, Math.min(n, maxPageGlyphs) & 1023);
+    }
+
+    // At each page and text-showing operator: throws once the document is stopped.
+    void check(int page) throws Exceeded {
+        if (stopped == null) clock(page);
+        if (stopped != null) throw new Exceeded("Extraction stopped " + stopped);
+    }
+
+    // For the stages after capture (grouping): false once out of time. A document stopped
+    // for its glyph total still groups the pages it captured.
+    boolean inTime(int page) {
+        if (!outOfTime) clock(page);
+        return !outOfTime;
+    }
+
+    private boolean tick(int page, int n) {
+        if (!counting) return true;
+        if (glyphs.addAndGet(n) > maxGlyphs) stop(page, "over " + maxGlyphs + " glyphs");
+        else clock(page);
+        return stopped == null;
+    }
+
+    private void clock(int page) {
+        if (deadline != 0L && System.nanoTime() - deadline > 0) {
+            outOfTime = true;
+            stop(page, "over " + maxMillis + " ms");
+        }
+    }
+
+    private synchronized void stop(int page, String why) {
+        if (stopped == null) stopped = "at page " + page + ": " + why;
+    }
+
+    synchronized void note(String what) {
+        if (this == NONE || what.equals(lastNote)) return;   // one per page and kind is enough
+        lastNote = what;
+        if (notes.size() < MAX_NOTES) notes.add(what);
+        else moreNotes++;
+    }
+
+    boolean stopped() {
+        return stopped != null;
+    }
+
+    synchronized boolean partial() {
+        return stopped != null || !notes.isEmpty();
+    }
+
+    // stopped at page 412: over 600000 ms; page 3: over 50000 glyphs, rest of page dropped; ...
+    // null when nothing was cut
+    synchronized String describe() {
+        if (!partial()) return null;
+        StringBuilder sb = new StringBuilder();
+        if (stopped != null) sb.append("stopped ").append(stopped);
+        for (String n : notes) {
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(n);
+        }
+        if (moreNotes > 0) sb.append("; ").append(moreNotes).append(" more");
+        return sb.toString();
+    }
+}
@@ -2,86 +2,338 @@ package test;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 final class JsonOut {
     static void writeParasJson(File outFile, List<ParaOut> paras) throws IOException {
-        try (Writer w = new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8)) {
-            w.write("{\"paragraphs\":[\n");
-            for (int i = 0; i < paras.size(); i++) {
-                ParaOut p = paras.get(i);
-                w.write("  {");
-                w.write("\"index\":" + p.index + ",");
-                w.write("\"page\":" + p.page + ",");
-                w.write("\"kind\":\"" + p.kind + "\",");
-                w.write("\"style\":\"" + esc(p.style) + "\",");
-                w.write("\"minX\":" + trimFloat(p.minX) + ",");
-                w.write("\"fontSize\":" + trimFloat(p.fontSize) + ",");
-                w.write("\"text\":\"" + esc(p.text) + "\"");
-                w.write("}");
-                if (i < paras.size() - 1) w.write(",");
-                w.write("\n");
-            }
-            w.write("]}\n");
+        try (ParaWriter w = new ParaWriter(outFile, false)) {
+            for (ParaOut p : paras) w.write(p);
         }
     }
 
-    private static String esc(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\r", "")
-                .replace("\n", "\\n");
+    // Paragraphs back from a file ParaWriter wrote, json or ndjson, or a hand-labelled one
+    // like it (GroupingTuner's golden files). Only the flat paragraph objects are read: any
+    // object with a nested value (the {"paragraphs":[ wrapper) is stepped into, not parsed.
+    // Missing numbers read as 0 (NaN for null), a missing style as "". The "partial" flag
+    // of a cut result (ParaWriter.partial) is skipped.
+    static List<ParaOut> readParas(File f) throws IOException {
+        String s = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+        List<ParaOut> paras = new ArrayList<>();
+        ParaReader r = new ParaReader(s);
+        int i = 0;
+        while ((i = s.indexOf('{', i)) >= 0) {
+            r.pos = i + 1;
+            ParaOut p = r.object(paras.size());
+            if (p != null) paras.add(p);
+            i = r.pos;
+        }
+        return paras;
     }
 
-    private static String trimFloat(float f) {
-        // keep stable compact floats: 170 -> "170", 170.5 -> "170.5"
-        if (Math.abs(f - Math.round(f)) < 0.0001) return Integer.toString(Math.round(f));
-        return Float.toString(f);
-    }
-    public static List<ParaOut> toParaOut(List<String> paras) {
-    List<ParaOut> out = new ArrayList<>();
-    for (int i = 0; i < paras.size(); i++) {
-        String raw = paras.get(i);
-        String[] parts = raw.split("\n", 2);
-        String label = parts.length > 0 ? parts[0].trim() : "ACTION";
-        String body  = parts.length > 1 ? parts[1] : "";
+    private static final class ParaReader {
+        private final String s;
+        int pos;
+
+        ParaReader(String s) {
+            this.s = s;
+        }
+
+        // after '{': a paragraph, or null with pos just past the first nested '[' / '{'
+        ParaOut object(int ordinal) throws IOException {
+            int index = ordinal, page = 0, lines = 0;
+            Kind kind = null;
+            String style = "", text = null;
+            boolean partial = false;
+            float minX = 0, fontSize = 0, yTop = 0, yBottom = 0;
+            skipWs();
+            if (peek() == '}') { pos++; return null; }
+            while (true) {
+                String key = string();
+                skipWs();
+                expect(':');
+                skipWs();
+                char c = peek();
+                if (c == '{' || c == '[') { pos++; return null; }
+                if (c == '"') {
+                    String v = string();
+                    switch (key) {
+                        case "kind": kind = kind(v); break;
+                        case "style": style = v; break;
+                        case "text": text = v; break;
+                        case "partial": partial = true; break;
+                        default: break;
+                    }
+                } else {
+                    double v = number();
+                    switch (key) {
+                        case "index": index = (int) v; break;
+                        case "page": page = (int) v; break;
+                        case "lines": lines = (int) v; break;
+                        case "minX": minX = (float) v; break;
+                        case "fontSize": fontSize = (float) v; break;
+                        case "yTop": yTop = (float) v; break;
+                        case "yBottom": yBottom = (float) v; break;
+                        default: break;
+                    }
+                }
+                skipWs();
+                c = next();
+                if (c == '}') break;
+                if (c != ',') throw error("Expected , or }");
+                skipWs();
+            }
+            if (partial && kind == null) return null;
+            if (kind == null || text == null) throw error("Paragraph without kind or text");
+            return new ParaOut(index, page, kind, style, minX, fontSize, lines, yTop, yBottom, text);
+        }
 
-        Kind kind = parseKind(label);
+        private Kind kind(String v) throws IOException {
+            try {
+                return Kind.valueOf(v);
+            } catch (IllegalArgumentException e) {
+                throw error("Unknown kind " + v);
+            }
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder sb = null;
+            int start = pos;
+            while (true) {
+                char c = next();
+                if (c == '"') break;
+                if (c != '\\') {
+                    if (sb != null) sb.append(c);
+                    continue;
+                }
+                if (sb == null) sb = new StringBuilder(s.substring(start, pos - 1));
+                char e = next();
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > s.length()) throw error("Truncated escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("Bad escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: sb.append(e); // \" \\ \/
+                }
+            }
+            return sb == null ? s.substring(start, pos - 1) : sb.toString();
+        }
 
-        // style = the full label (e.g. "DIALOGUE_x170_f12" or "SCENE_S8_x80_f12")
-        String style = label;
+        private double number() throws IOException {
+            int start = pos;
+            while (pos < s.length() && "+-.0123456789eEnul".indexOf(s.charAt(pos)) >= 0) pos++;
+            String n = s.substring(start, pos);
+            if (n.equals("null")) return Double.NaN;
+            try {
+                return Double.parseDouble(n);
+            } catch (NumberFormatException e) {
+                throw error("Bad number " + n);
+            }
+        }
 
-        float minX = parseBucketValue(label, "_x");   // reads 170 from "_x170"
-        float font = parseBucketValue(label, "_f");   // reads 12 from "_f12"
+        private void skipWs() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
 
-        // page is unknown at this stage (because List<String> lost it); set 0 for now.
-        out.add(new ParaOut(i, 0, kind, style, minX, font, body));
+        private char peek() throws IOException {
+            if (pos >= s.length()) throw error("Unexpected end");
+            return s.charAt(pos);
+        }
+
+        private char next() throws IOException {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) throws IOException {
+            if (next() != c) throw error("Expected " + c);
+        }
+
+        private IOException error(String msg) {
+            return new IOException(msg + " at offset " + pos);
+        }
     }
-    return out;
-}
 
-private static Kind parseKind(String label) {
-    // label examples: "ACTION_x110_f12", "SCENE_S8_x80_f12", "CHARACTER_x240_f12"
-    String up = label.toUpperCase(Locale.ROOT);
-    if (up.startsWith("SCENE")) return Kind.SCENE;
-    if (up.startsWith("CHARACTER")) return Kind.CHARACTER;
-    if (up.startsWith("DIALOGUE")) return Kind.DIALOGUE;
-    if (up.startsWith("PAREN")) return Kind.PAREN;
-    return Kind.ACTION;
-}
+    // Streaming paragraph writer. Paragraphs are appended one at a time into a char buffer
+    // that is drained into a UTF-8 writer; escaping and number formatting write straight into
+    // that buffer, so a paragraph costs no intermediate Strings.
+    //   json:   {"paragraphs":[ ... ]}  (same layout writeParasJson always produced)
+    //   ndjson: one paragraph object per line, no wrapper, so it can be tailed while running
+    static final class ParaWriter implements ParaSink, Closeable {
+        private final Writer w;
+        private final boolean ndjson;
+        private final char[] buf = new char[8192];
+        private final char[] num = new char[24];
+        private int pos = 0;
+        private int count = 0;
+        private String partial;
 
-private static float parseBucketValue(String label, String marker) {
-    int idx = label.indexOf(marker);
-    if (idx < 0) return 0f;
-    idx += marker.length();
-    int end = idx;
-    while (end < label.length() && Character.isDigit(label.charAt(end))) end++;
-    if (end == idx) return 0f;
-    try { return Float.parseFloat(label.substring(idx, end)); }
-    catch (Exception ignored) { return 0f; }
-}
+        ParaWriter(File outFile, boolean ndjson) throws IOException {
+            this(new FileOutputStream(outFile), ndjson);
+        }
+
+        ParaWriter(OutputStream out, boolean ndjson) throws IOException {
+            this.w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.ndjson = ndjson;
+            if (!ndjson) raw("{\"paragraphs\":[\n");
+        }
+
+        @Override
+        public void accept(ParaOut p) throws IOException {
+            write(p);
+        }
 
+        void write(ParaOut p) throws IOException {
+            if (!ndjson) raw(count > 0 ? ",\n  {" : "  {");
+            else raw("{");
+            raw("\"index\":"); integer(p.index);
+            raw(",\"page\":"); integer(p.page);
+            raw(",\"kind\":\""); raw(p.kind.name());
+            raw("\",\"style\":\""); escaped(p.style);
+            raw("\",\"minX\":"); decimal(p.minX);
+            raw(",\"fontSize\":"); decimal(p.fontSize);
+            raw(",\"lines\":"); integer(p.lineCount);
+            raw(",\"yTop\":"); decimal(p.yTop);
+            raw(",\"yBottom\":"); decimal(p.yBottom);
+            raw(",\"text\":\""); escaped(p.text);
+            raw(ndjson ? "\"}\n" : "\"}");
+            count++;
+        }
+
+        int count() {
+            return count;
+        }
+
+        // Flags the output as cut short by the document's Guard: "partial" after the
+        // paragraphs array, or a last {"partial": ...} line in ndjson. null = complete.
+        void partial(String reason) {
+            partial = reason;
+        }
+
+        void flush() throws IOException {
+            drain();
+            w.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (partial != null) {
+                    raw(ndjson ? "{\"partial\":\"" : count > 0 ? "\n],\"partial\":\"" : "],\"partial\":\"");
+                    escaped(partial);
+                    raw(ndjson ? "\"}\n" : "\"}\n");
+                } else if (!ndjson) {
+                    raw(count > 0 ? "\n]}\n" : "]}\n");
+                }
+                drain();
+            } finally {
+                w.close();
+            }
+        }
+
+        private void put(char c) throws IOException {
+            if (pos == buf.length) drain();
+            buf[pos++] = c;
+        }
+
+        private void raw(String s) throws IOException {
+            for (int i = 0, n = s.length(); i < n; i++) put(s.charAt(i));
+        }
+
+        // one pass over s; everything JSON requires is escaped, including tabs and other controls
+        private void escaped(String s) throws IOException {
+            if (s == null) return;
+            for (int i = 0, n = s.length(); i < n; i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':  put('\\'); put('"'); break;
+                    case '\\': put('\\'); put('\\'); break;
+                    case '\n': put('\\'); put('n'); break;
+                    case '\r': put('\\'); put('r'); break;
+                    case '\t': put('\\'); put('t'); break;
+                    case '\b': put('\\'); put('b'); break;
+                    case '\f': put('\\'); put('f'); break;
+                    default:
+                        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                            put('\\'); put('u');
+                            put(HEX[(c >> 12) & 0xF]); put(HEX[(c >> 8) & 0xF]);
+                            put(HEX[(c >> 4) & 0xF]); put(HEX[c & 0xF]);
+                        } else {
+                            put(c);
+                        }
+                }
+            }
+        }
+
+        private void integer(long v) throws IOException {
+            if (v < 0) { put('-'); v = -v; }
+            int i = num.length;
+            do { num[--i] = (char) ('0' + (v % 10)); v /= 10; } while (v != 0);
+            while (i < num.length) put(num[i++]);
+        }
+
+        // keep stable compact floats: 170 -> "170", 170.5 -> "170.5", 108.33333 -> "108.333"
+        private void decimal(float f) throws IOException {
+            if (Float.isNaN(f) || Float.isInfinite(f)) { raw("null"); return; }
+            int r = Math.round(f);
+            if (Math.abs(f - r) < 0.0001) { integer(r); return; }
+
+            long scaled = Math.round(Math.abs((double) f) * 1000);
+            if (f < 0 && scaled != 0) put('-');
+            integer(scaled / 1000);
+            int frac = (int) (scaled % 1000);
+            if (frac == 0) return;
+            put('.');
+            put((char) ('0' + frac / 100));
+            if (frac % 100 != 0) put((char) ('0' + frac / 10 % 10));
+            if (frac % 10 != 0) put((char) ('0' + frac % 10));
+        }
+
+        private void drain() throws IOException {
+            if (pos > 0) {
+                w.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // quoted JSON string for small hand-built documents (metrics); same escaping as ParaWriter
+    static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                          .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
 }
@@ -0,0 +1,120 @@
+package test;
+
+import test.PosDump.Line;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Jitter-tolerant line assembly (GroupingConfig.baselineTol / overdrawTol), what buildLines
+// runs unless both tolerances are 0.
+//
+// Exact buckets split a baseline whose glyphs straddle a bucket edge: a word set in another
+// font, a raised mark, an accent placed a hair off its letter, 100.24 vs 100.26. Each half
+// becomes its own Line, and the spaced-letter / interleaved text that results is what
+// cleanupWeirdInterleaving then has to repair, when it can. Here the buckets of a page are
+// walked top-down in the order sortedOrder already gives them (its counting sort is the
+// per-page y hash), and every bucket within baselineTol of a line's first one joins that
+// line; the x-sorted runs of the buckets are merged, so assembly stays linear.
+//
+// The joined line then drops overdrawn glyphs: the same character again within overdrawTol
+// in x and y (and within half its width, so a real "ll" never qualifies), which is how fake
+// bold and shadowed text is drawn. The stripper engine already suppresses most of these;
+// the raw engine (GlyphEngine) relies on this.
+final class LineAssembler {
+    private LineAssembler() {}
+
+    // Lines in (page, y) order, like buildLines. A joined line takes the page, key and y of
+    // its most populated bucket, so gaps are measured from the real baseline.
+    static List<Line> assemble(GlyphBuffer g, float baselineTol, float overdrawTol, Guard guard) {
+        int[] order = g.sortedOrder();
+        int n = order.length;
+        int[] tmp = new int[n];
+        int[] runs = new int[16];
+        float bucketPt = 1f / g.yBucketsPerPt;
+        int maxChars = guard.maxLineChars;
+
+        List<Line> lines = new ArrayList<>();
+        for (int a = 0; a < n; ) {
+            int page = g.page[order[a]];
+            int top = g.yKey[order[a]];
+
+            // the buckets of this line: [runs[r], runs[r + 1]) in order, the last one ending at b
+            int b = a, count = 0, anchor = order[a], anchorLen = 0;
+            while (b < n && g.page[order[b]] == page && (g.yKey[order[b]] - top) * bucketPt <= baselineTol) {
+                int key = g.yKey[order[b]];
+                int e = b + 1;
+                while (e < n && g.yKey[order[e]] == key && g.page[order[e]] == page) e++;
+                if (count == runs.length) runs = Arrays.copyOf(runs, count * 2);
+                runs[count++] = b;
+                if (e - b > anchorLen) {
+                    anchor = order[b];
+                    anchorLen = e - b;
+                }
+                b = e;
+            }
+            if (count > 1) mergeRuns(g, order, tmp, runs, count, b);
+
+            Line ln = new Line(page, g.yKey[anchor], g.y[anchor]);
+            lines.add(ln);
+            boolean cut = false;
+            int kept = a;
+            for (int k = a; k < b; k++) {
+                int i = order[k];
+                if (overdrawTol > 0 && overdrawn(g, order, a, kept, i, overdrawTol)) continue;
+                order[kept++] = i;
+                if (ln.text.length() >= maxChars) {
+                    if (!cut) guard.note("page " + page + ": line over " + maxChars + " chars cut");
+                    cut = true;
+                    continue;
+                }
+                ln.addGlyph(g, i);
+            }
+            a = b;
+        }
+        return lines;
+    }
+
+    // i repeats a glyph kept before it on its line: order[from, to) is that line so far, in x order
+    private static boolean overdrawn(GlyphBuffer g, int[] order, int from, int to, int i, float tol) {
+        int len = g.charLength(i);
+        if (len == 0 || Character.isWhitespace(g.chars[g.charStart(i)])) return false;
+        float x = g.x[i];
+        for (int k = to - 1; k >= from; k--) {
+            int j = order[k];
+            float dx = x - g.x[j];
+            if (dx > tol) return false;
+            if (dx <= g.w[j] / 2 && Math.abs(g.y[i] - g.y[j]) <= tol && g.charLength(j) == len
+                    && Arrays.equals(g.chars, g.charStart(i), g.charStart(i) + len, g.chars, g.charStart(j), g.charStart(j) + len)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Merges the x-sorted runs order[runs[r] ..) of one line into one x-sorted run, pairwise;
+    // stable, ties keep the upper bucket first.
+    private static void mergeRuns(GlyphBuffer g, int[] order, int[] tmp, int[] runs, int count, int end) {
+        while (count > 1) {
+            int out = 0;
+            for (int r = 0; r < count; r += 2) {
+                if (r + 1 == count) {
+                    runs[out++] = runs[r];
+                    break;
+                }
+                merge(g, order, tmp, runs[r], runs[r + 1], r + 2 < count ? runs[r + 2] : end);
+                runs[out++] = runs[r];
+            }
+            count = out;
+        }
+    }
+
+    private static void merge(GlyphBuffer g, int[] a, int[] tmp, int lo, int mid, int hi) {
+        if (Float.compare(g.x[a[mid - 1]], g.x[a[mid]]) <= 0) return; // already in order
+        System.arraycopy(a, lo, tmp, lo, hi - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) a[k++] = Float.compare(g.x[tmp[j]], g.x[tmp[i]]) < 0 ? tmp[j++] : tmp[i++];
+        while (i < mid) a[k++] = tmp[i++];
+        while (j < hi) a[k++] = tmp[j++];
+    }
+}
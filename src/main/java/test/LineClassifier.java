@@ -0,0 +1,287 @@
+package test;
+
+import java.util.Arrays;
+
+// Per-line hot path of the grouper: normalize + cleanupWeirdInterleaving + sceneScore +
+// isCharacterCue + isParenthetical in one scan over the line, into a reused buffer.
+//
+// The results match the String helpers in PosDump exactly. Those stay as the reference and
+// as the fallback for the rare line carrying control characters or Unicode line
+// separators, where regex trim/split/$ semantics get subtle. On every other line the only
+// whitespace left after normalizing is ' ', which is what the scan below relies on.
+final class LineClassifier {
+
+    // --- result of the last classify(); valid until the next call ---
+    char[] text = new char[128];
+    int length;
+
+    int sceneScore;
+    boolean hasSceneNumber;
+    int sepCount;
+    int blockCount;
+    boolean mostlyCaps;
+    boolean cue;
+    boolean paren;
+
+    // --- scan state ---
+    private boolean nonBlank;
+    private int underscores;
+    private int lo, hi;            // first / last non-space index, -1 if none
+    private int tokens, oneCharTokens, tokenRun;
+    private boolean inBlock;
+    private int letters, upperLetters;
+    private int cueState, cueLetters;
+    private boolean cueOk;
+
+    private static final int CUE_START = 0, CUE_DIGITS = 1, CUE_WS = 2, CUE_WS_AFTER_PUNCT = 3, CUE_BODY = 4;
+
+    // Returns false when the line carries nothing (blank, Celtx footer); otherwise the fields
+    // above describe it and text[0..length) is the cleaned line.
+    boolean classify(CharSequence raw) {
+        int n = raw.length();
+        if (text.length < n) text = new char[Math.max(n, text.length * 2)];
+
+        // normalize: every run of ' ', '\t', NBSP becomes one ' ', trailing space dropped
+        reset();
+        int len = 0;
+        boolean inSpace = false;
+        for (int i = 0; i < n; i++) {
+            char c = raw.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\u00A0') {
+                if (!inSpace) {
+                    text[len] = ' ';
+                    scan(' ', len++);
+                    inSpace = true;
+                }
+                continue;
+            }
+            if (c < ' ' || c == '\u0085' || c == '\u2028' || c == '\u2029') return classifySlow(raw.toString());
+            inSpace = false;
+            text[len] = c;
+            scan(c, len++);
+        }
+        // only one ' ' can be trailing; scanning it changed nothing that matters
+        if (len > 0 && text[len - 1] == ' ') len--;
+        length = len;
+
+        if (!nonBlank) return false;
+        if (isCeltxFooter()) return false;
+
+        // cleanupWeirdInterleaving A: underscore-heavy text
+        if (underscores > 0 && underscores >= Math.max(2, length / 5)) {
+            joinUnderscores();
+            rescan();
+        }
+
+        // cleanupWeirdInterleaving B: mostly one-char tokens ("S A T S U M A") are joined
+        endToken();
+        if (tokens >= 8 && oneCharTokens >= (int) (tokens * 0.70)) {
+            dropSpaces();
+            rescan();
+            endToken();
+        }
+        if (!nonBlank) return false;
+
+        finish();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(text, 0, length);
+    }
+
+    // What the grouper needs of one classify(), kept: --pipeline classifies a page's lines
+    // on another thread before the grouper sees them.
+    static final class Result {
+        final char[] text;   // exactly the cleaned line
+        final int sceneScore;
+        final boolean cue;
+        final boolean paren;
+
+        Result(char[] text, int sceneScore, boolean cue, boolean paren) {
+            this.text = text;
+            this.sceneScore = sceneScore;
+            this.cue = cue;
+            this.paren = paren;
+        }
+    }
+
+    // the last classify() that returned true
+    Result result() {
+        return new Result(Arrays.copyOf(text, length), sceneScore, cue, paren);
+    }
+
+    // --- scan ---
+
+    private void reset() {
+        nonBlank = false;
+        underscores = 0;
+        lo = hi = -1;
+        tokens = oneCharTokens = tokenRun = 0;
+        inBlock = false;
+        sepCount = blockCount = 0;
+        letters = upperLetters = 0;
+        cueState = CUE_START;
+        cueLetters = 0;
+        cueOk = true;
+    }
+
+    private void rescan() {
+        reset();
+        for (int i = 0; i < length; i++) scan(text[i], i);
+    }
+
+    // One character of the (normalized) line; ' ' is the only whitespace that reaches here.
+    private void scan(char c, int i) {
+        if (c == ' ') {
+            endToken();
+            inBlock = false;
+            if (cueState == CUE_DIGITS) cueState = CUE_WS; // elsewhere ' ' is skipped or a valid cue char
+            return;
+        }
+
+        if (!nonBlank && !Character.isWhitespace(c)) nonBlank = true;
+        if (lo < 0) lo = i;
+        hi = i;
+        tokenRun++;
+
+        if (c == '_') underscores++;
+
+        if (isSceneSep(c)) {
+            sepCount++;
+            inBlock = false;
+        } else if (!inBlock) {
+            inBlock = true;
+            blockCount++;
+        }
+
+        if (c < 0x80) {
+            if (c >= 'A' && c <= 'Z') { letters++; upperLetters++; }
+            else if (c >= 'a' && c <= 'z') letters++;
+        } else if (Character.isLetter(c)) {
+            letters++;
+            if (Character.toUpperCase(c) == c) upperLetters++;
+        }
+
+        cue(c);
+    }
+
+    // isCharacterCue: strip "12", "12.", "3 - " style prefixes, the rest must be an
+    // upper-case name with at least two letters
+    private void cue(char c) {
+        switch (cueState) {
+            case CUE_START:
+                if (c >= '0' && c <= '9') { cueState = CUE_DIGITS; return; }
+                break;
+            case CUE_DIGITS:
+                if (c >= '0' && c <= '9') return;
+                if (c == '.' || c == ')' || c == '-') { cueState = CUE_WS_AFTER_PUNCT; return; }
+                break;
+            case CUE_WS:
+                if (c == '.' || c == ')' || c == '-') { cueState = CUE_WS_AFTER_PUNCT; return; }
+                break;
+            default:
+                break;
+        }
+        cueState = CUE_BODY;
+        if (!isCueChar(c)) cueOk = false;
+        else if (c != '?' && c != '-') cueLetters++;
+    }
+
+    private void endToken() {
+        if (tokenRun > 0) {
+            tokens++;
+            if (tokenRun == 1) oneCharTokens++;
+            tokenRun = 0;
+        }
+    }
+
+    private void finish() {
+        hasSceneNumber = lo >= 0 && text[lo] >= '0' && text[lo] <= '9';
+        mostlyCaps = letters >= 2 && (upperLetters / (double) letters) >= 0.90;
+        sceneScore = PosDump.sceneScoreOf(hasSceneNumber, mostlyCaps, sepCount, blockCount);
+
+        int trimmed = lo < 0 ? 0 : hi - lo + 1;
+        cue = trimmed >= 2 && trimmed <= 30 && cueState == CUE_BODY && cueOk && cueLetters >= 2;
+        paren = lo >= 0 && text[lo] == '(';
+    }
+
+    // --- cleanup rewrites (rare) ---
+
+    // "(?<=\\p{L})_(?=\\p{L})" -> "", then every other '_' -> ' '
+    private void joinUnderscores() {
+        char[] src = Arrays.copyOf(text, length);
+        int out = 0;
+        for (int i = 0; i < src.length; i++) {
+            char c = src[i];
+            if (c == '_') {
+                boolean between = i > 0 && i + 1 < src.length
+                        && Character.isLetter(Character.codePointBefore(src, i))
+                        && Character.isLetter(Character.codePointAt(src, i + 1));
+                if (!between) text[out++] = ' ';
+            } else {
+                text[out++] = c;
+            }
+        }
+        length = out;
+    }
+
+    private void dropSpaces() {
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            if (text[i] != ' ') text[out++] = text[i];
+        }
+        length = out;
+    }
+
+    private boolean isCeltxFooter() {
+        String f = "Created using Celtx";
+        if (length != f.length()) return false;
+        return f.regionMatches(true, 0, new String(text, 0, length), 0, length);
+    }
+
+    // exact legacy path for lines with control characters / line separators
+    private boolean classifySlow(String raw) {
+        String t = PosDump.normalize(raw);
+        if (t.isBlank()) return false;
+        if (t.equalsIgnoreCase("Created using Celtx")) return false;
+        t = PosDump.cleanupWeirdInterleaving(t);
+        if (t.isBlank()) return false;
+
+        PosDump.SceneScore sc = PosDump.sceneScore(t);
+        sceneScore = sc.score;
+        hasSceneNumber = sc.hasSceneNumber;
+        sepCount = sc.sepCount;
+        blockCount = sc.blockCount;
+        mostlyCaps = sc.mostlyCaps;
+        cue = PosDump.isCharacterCue(t);
+        paren = PosDump.isParenthetical(t);
+
+        length = t.length();
+        if (text.length < length) text = new char[length];
+        t.getChars(0, length, text, 0);
+        return true;
+    }
+
+    // PosDump.SCN_SEPS
+    private static boolean isSceneSep(char c) {
+        switch (c) {
+            case '.': case '/': case '\\': case '-': case '–': case '—': case '|': case ',':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // [A-ZÇĞİÖŞÜ\?\- ]
+    private static boolean isCueChar(char c) {
+        if (c >= 'A' && c <= 'Z') return true;
+        switch (c) {
+            case 'Ç': case 'Ğ': case 'İ': case 'Ö': case 'Ş': case 'Ü': case '?': case '-': case ' ':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package test;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-run memory against the budget: heap peak next to -Xmx and the stream cache budget,
+// the largest mapped-file footprint seen at a sample() and, on Linux, the process's peak
+// resident set (VmHWM).
+//
+// The heap peak is the largest total heap use seen since start(): just before each GC (from
+// the collectors' notifications, which is where the heap is fullest) and at each sample().
+// Summing the pools' own peaks would not do, those are reached at different times and add
+// up to a full eden on top of the old generation's peak. The figure is process-wide, so in
+// BatchRun / ExtractServer this is one report for all documents in flight, not a
+// per-document figure.
+final class MemoryReport {
+
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+    private static final Set<String> HEAP_POOLS = heapPools();
+
+    // heap in use before the latest GCs, raised by the listener on the GC notification thread
+    private static final AtomicLong GC_PEAK = new AtomicLong();
+    private static boolean listening;   // guarded by MemoryReport.class
+
+    private final DocLoader loader;
+    private long mappedPeak;   // guarded by this, BatchRun workers sample concurrently
+    private long heapPeak;     // guarded by this
+
+    private MemoryReport(DocLoader loader) {
+        this.loader = loader;
+    }
+
+    // Starts the heap peak over from the heap in use now; call before the first document is
+    // opened. Reports do not overlap, each run has one (CorpusBench one per document).
+    static MemoryReport start(DocLoader loader) {
+        listen();
+        MemoryReport r = new MemoryReport(loader);
+        r.heapPeak = heapUsed();
+        GC_PEAK.set(0L);
+        return r;
+    }
+
+    // While a document is open: mappings go away with it, so they are only visible here.
+    synchronized void sample() {
+        mappedPeak = Math.max(mappedPeak, mappedBytes());
+        heapPeak = Math.max(heapPeak, heapUsed());
+    }
+
+    synchronized long mappedPeak() {
+        return mappedPeak;
+    }
+
+    synchronized long heapPeak() {
+        heapPeak = Math.max(heapPeak, Math.max(GC_PEAK.get(), heapUsed()));
+        return heapPeak;
+    }
+
+    // total heap in use right now, all pools at the same moment
+    static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static synchronized void listen() {
+        if (listening) return;
+        listening = true;
+        NotificationListener onGc = (n, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType())) return;
+            GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData()).getGcInfo();
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> e : info.getMemoryUsageBeforeGc().entrySet()) {
+                if (HEAP_POOLS.contains(e.getKey())) used += e.getValue().getUsed();
+            }
+            GC_PEAK.accumulateAndGet(used, Math::max);
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) ((NotificationEmitter) gc).addNotificationListener(onGc, null, null);
+        }
+    }
+
+    private static Set<String> heapPools() {
+        Set<String> names = new HashSet<>();
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (p.getType() == MemoryType.HEAP) names.add(p.getName());
+        }
+        return names;
+    }
+
+    static long heapMax() {
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    static long mappedBytes() {
+        for (BufferPoolMXBean b : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("mapped".equals(b.getName())) return b.getMemoryUsed();
+        }
+        return 0L;
+    }
+
+    // peak resident set size of the process, -1 where /proc is not available
+    static long residentPeak() {
+        try {
+            List<String> lines = Files.readAllLines(PROC_STATUS, StandardCharsets.US_ASCII);
+            for (String line : lines) {
+                if (!line.startsWith("VmHWM:")) continue;
+                String kb = line.substring(6).trim();
+                int sp = kb.indexOf(' ');
+                return Long.parseLong(sp < 0 ? kb : kb.substring(0, sp)) << 10;
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, or a restricted /proc
+        }
+        return -1L;
+    }
+
+    // Memory: heap peak 41.2 of 512.0 MB, resident peak 160.3 MB, mapped 0.0 MB (buffered, 64 MB stream cache)
+    String summary() {
+        long rss = residentPeak();
+        return String.format(Locale.ROOT, "Memory: heap peak %.1f of %.1f MB, resident peak %s, mapped %.1f MB (%s)",
+                mb(heapPeak()), mb(heapMax()), rss < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f MB", mb(rss)),
+                mb(mappedPeak()), loader.describe());
+    }
+
+    void appendJson(StringBuilder sb) {
+        sb.append("{\"load\": \"").append(loader.access.name().toLowerCase(Locale.ROOT)).append('"')
+          .append(", \"streamCacheBudgetBytes\": ").append(loader.memBytes)
+          .append(", \"heapPeakBytes\": ").append(heapPeak())
+          .append(", \"heapMaxBytes\": ").append(heapMax())
+          .append(", \"mappedPeakBytes\": ").append(mappedPeak())
+          .append(", \"residentPeakBytes\": ").append(residentPeak());
+        if (loader.fonts != null) {
+            sb.append(", \"fontCache\": ");
+            loader.fonts.appendJson(sb);
+        }
+        sb.append('}');
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (double) (1 << 20);
+    }
+}
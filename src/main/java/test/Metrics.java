@@ -0,0 +1,339 @@
+package test;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import test.PosDump.Line;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Per-run instrumentation: wall time, CPU time and allocated bytes per pipeline stage,
+// glyph / line / paragraph counts per page, JFR events (posdump.Stage, posdump.Page) and
+// an optional metrics JSON (with the run's MemoryReport, if it has one).
+//
+// Stage time is exclusive: beginning a stage pauses the open one, so in stream mode (capture
+// calls lines, which feeds grouping, which writes) every stage only gets its own time.
+// CPU and allocation are those of the calling thread; ParallelCapture adds its workers' share
+// through addWorker, Pipeline its stage threads' through addStage. Nothing is measured
+// unless the run asked for --metrics or a JFR recording enables the events, and the
+// per-glyph loop is never instrumented.
+final class Metrics {
+
+    enum Stage { LOAD, CACHE, CAPTURE, LINES, GROUP, WRITE }
+
+    static final Metrics OFF = new Metrics(false);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final int STAGES = Stage.values().length;
+
+    final boolean enabled;
+    private final boolean jfrStages;
+    private final boolean jfrPages;
+    private final long startNanos = System.nanoTime();
+
+    private final long[] wall = new long[STAGES];
+    private final long[] cpu = new long[STAGES];
+    private final long[] alloc = new long[STAGES];
+    private final int[] calls = new int[STAGES];
+
+    // open stages, innermost last; the marks belong to the innermost one
+    private final Stage[] stack = new Stage[8];
+    private final StageEvent[] events = new StageEvent[8];
+    private int depth = 0;
+    private long markWall, markCpu, markAlloc;
+
+    // per page, index = page - firstPage
+    private int firstPage = 1;
+    private int[] glyphs = new int[0];
+    private int[] lines = new int[0];
+    private int[] paras = new int[0];
+    private long[] captureNanos = new long[0];
+    private long[] doneNanos = new long[0];    // System.nanoTime() at the end of each page
+    private long pagesNanos;                   // ... and when pages() was called
+
+    // heap / resident / mapped against the load budget; null = not reported
+    private MemoryReport memory;
+    // queue depths and stage busy times of a --pipeline run; null = not one
+    private Pipeline.Stats pipeline;
+
+    // enabled when JSON output is wanted or a JFR recording listens for our events
+    static Metrics create(boolean wantJson) {
+        boolean jfr = EventType.getEventType(StageEvent.class).isEnabled()
+                || EventType.getEventType(PageEvent.class).isEnabled();
+        return wantJson || jfr ? new Metrics(true) : OFF;
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        this.jfrStages = enabled && EventType.getEventType(StageEvent.class).isEnabled();
+        this.jfrPages = enabled && EventType.getEventType(PageEvent.class).isEnabled();
+    }
+
+    // --- stages ---
+
+    void begin(Stage s) {
+        if (!enabled) return;
+        long w = System.nanoTime(), c = cpuNow(), a = allocNow();
+        if (depth > 0) charge(stack[depth - 1], w, c, a);
+        if (depth == stack.length) throw new IllegalStateException("Stages nested too deep: " + s);
+        stack[depth] = s;
+        if (jfrStages) {
+            StageEvent e = new StageEvent();
+            e.stage = label(s);
+            e.begin();
+            events[depth] = e;
+        }
+        depth++;
+        calls[s.ordinal()]++;
+        markWall = w;
+        markCpu = c;
+        markAlloc = a;
+    }
+
+    void end(Stage s) {
+        if (!enabled) return;
+        if (depth == 0 || stack[depth - 1] != s) throw new IllegalStateException("Stage " + s + " is not open");
+        long w = System.nanoTime(), c = cpuNow(), a = allocNow();
+        charge(s, w, c, a);
+        depth--;
+        if (events[depth] != null) {
+            events[depth].commit();
+            events[depth] = null;
+        }
+        markWall = w;
+        markCpu = c;
+        markAlloc = a;
+    }
+
+    // CPU / allocation spent on other threads on behalf of stage s; the caller joins them
+    // before ending the stage
+    synchronized void addWorker(Stage s, long cpuNanos, long allocBytes) {
+        cpu[s.ordinal()] += cpuNanos;
+        alloc[s.ordinal()] += allocBytes;
+    }
+
+    // A stage that ran on a thread of its own (Pipeline): wall is its busy time, not counting
+    // waits on its queues. Call after joining that thread, from the thread that owns this.
+    void addStage(Stage s, int batches, long wallNanos, long cpuNanos, long allocBytes) {
+        if (!enabled) return;
+        int i = s.ordinal();
+        calls[i] += batches;
+        wall[i] += wallNanos;
+        cpu[i] += cpuNanos;
+        alloc[i] += allocBytes;
+    }
+
+    private void charge(Stage s, long w, long c, long a) {
+        int i = s.ordinal();
+        wall[i] += w - markWall;
+        cpu[i] += c - markCpu;
+        alloc[i] += a - markAlloc;
+    }
+
+    static long cpuNow() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0L;
+    }
+
+    static long allocNow() {
+        return THREADS instanceof com.sun.management.ThreadMXBean
+                ? ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() : 0L;
+    }
+
+    // --- pages ---
+
+    // Call once the page range is known; page numbers outside it are ignored.
+    void pages(int start, int end) {
+        if (!enabled) return;
+        int n = Math.max(0, end - start + 1);
+        firstPage = start;
+        glyphs = new int[n];
+        lines = new int[n];
+        paras = new int[n];
+        captureNanos = new long[n];
+        doneNanos = new long[n];
+        pagesNanos = System.nanoTime();
+    }
+
+    // At the start of a page's capture: the page's JFR event, begun, or null when no recording
+    // wants it. The engine hands it back to page(...), so every worker times its own pages.
+    PageEvent pageStart() {
+        if (!jfrPages) return null;
+        PageEvent e = new PageEvent();
+        e.begin();
+        return e;
+    }
+
+    // From CaptureStripper.endPage; ParallelCapture workers write disjoint pages.
+    void page(int pageNo, int glyphCount, long nanos, PageEvent event) {
+        int i = pageNo - firstPage;
+        if (!enabled || i < 0 || i >= glyphs.length) return;
+        glyphs[i] += glyphCount;
+        captureNanos[i] += nanos;
+        doneNanos[i] = System.nanoTime();
+        if (event != null) {
+            event.end();
+            event.page = pageNo;
+            event.glyphs = glyphCount;
+            event.commit();
+        }
+    }
+
+    // Wall time from the end of one captured page to the end of the next (the first from
+    // pages()), in page order; skipped pages are left out. In --stream runs that is the
+    // whole page: its capture plus the previous page's lines / grouping / writing. In
+    // sequential whole-range runs it is capture only; with ParallelCapture it means nothing.
+    long[] pageLatencies() {
+        long[] out = new long[doneNanos.length];
+        int n = 0;
+        long prev = pagesNanos;
+        for (long done : doneNanos) {
+            if (done == 0L) continue;
+            out[n++] = done - prev;
+            prev = done;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // the last page whose capture finished, firstPage - 1 when none did
+    int lastPage() {
+        for (int i = doneNanos.length - 1; i >= 0; i--) {
+            if (doneNanos[i] != 0L) return firstPage + i;
+        }
+        return firstPage - 1;
+    }
+
+    void lines(List<Line> built) {
+        if (!enabled) return;
+        for (Line ln : built) {
+            int i = ln.page - firstPage;
+            if (i >= 0 && i < lines.length) lines[i]++;
+        }
+    }
+
+    void paragraph(int pageNo) {
+        int i = pageNo - firstPage;
+        if (!enabled || i < 0 || i >= paras.length) return;
+        paras[i]++;
+    }
+
+    void memory(MemoryReport report) {
+        if (enabled) memory = report;
+    }
+
+    void pipeline(Pipeline.Stats stats) {
+        if (enabled) pipeline = stats;
+    }
+
+    // --- output ---
+
+    // Writes the metrics JSON, if out != null.
+    void finish(File out, String pdf, String mode) throws IOException {
+        if (!enabled || out == null) return;
+        long total = System.nanoTime() - startNanos;
+
+        StringBuilder sb = new StringBuilder(256 + glyphs.length * 96);
+        sb.append("{\n  \"pdf\": ");
+        JsonOut.appendString(sb, pdf);
+        sb.append(",\n  \"mode\": \"").append(mode).append('"');
+        sb.append(",\n  \"wallMs\": ").append(ms(total));
+        sb.append(",\n  \"pages\": ").append(glyphs.length);
+        sb.append(",\n  \"glyphs\": ").append(sum(glyphs));
+        sb.append(",\n  \"lines\": ").append(sum(lines));
+        sb.append(",\n  \"paragraphs\": ").append(sum(paras));
+        if (memory != null) {
+            sb.append(",\n  \"memory\": ");
+            memory.appendJson(sb);
+        }
+        if (pipeline != null) {
+            sb.append(",\n  \"pipeline\": ");
+            pipeline.appendJson(sb);
+        }
+
+        sb.append(",\n  \"stages\": [");
+        boolean first = true;
+        for (Stage s : Stage.values()) {
+            int i = s.ordinal();
+            if (calls[i] == 0) continue;
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"stage\": \"").append(label(s)).append('"')
+              .append(", \"calls\": ").append(calls[i])
+              .append(", \"wallMs\": ").append(ms(wall[i]))
+              .append(", \"cpuMs\": ").append(ms(cpu[i]))
+              .append(", \"allocBytes\": ").append(alloc[i]).append('}');
+        }
+        sb.append(first ? "]" : "\n  ]");
+
+        sb.append(",\n  \"perPage\": [");
+        for (int i = 0; i < glyphs.length; i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"page\": ").append(firstPage + i)
+              .append(", \"glyphs\": ").append(glyphs[i])
+              .append(", \"lines\": ").append(lines[i])
+              .append(", \"paragraphs\": ").append(paras[i])
+              .append(", \"captureMs\": ").append(ms(captureNanos[i])).append('}');
+        }
+        sb.append(glyphs.length == 0 ? "]" : "\n  ]");
+        sb.append("\n}\n");
+
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)) {
+            w.write(sb.toString());
+        }
+    }
+
+    // out.json -> out.metrics.json, script.ndjson -> script.metrics.json
+    static File besides(File output) {
+        String name = output.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(output.getAbsoluteFile().getParentFile(), base + ".metrics.json");
+    }
+
+    private static String label(Stage s) {
+        return s.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static long sum(int[] xs) {
+        long s = 0;
+        for (int x : xs) s += x;
+        return s;
+    }
+
+    @Name("posdump.Stage")
+    @Label("PosDump Stage")
+    @Category("PosDump")
+    @Description("One span of a pipeline stage (inclusive of nested stages)")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+    }
+
+    @Name("posdump.Page")
+    @Label("PosDump Page")
+    @Category("PosDump")
+    @Description("Capture of one page; its lines and paragraphs are in the metrics JSON")
+    static final class PageEvent extends Event {
+        @Label("Page")
+        int page;
+
+        @Label("Glyphs")
+        int glyphs;
+    }
+}
@@ -1,25 +1,46 @@
 package test;
 
-import java.util.Map;
+import java.io.IOException;
 
 enum Kind { SCENE, ACTION, CHARACTER, PAREN, DIALOGUE }
 
 final class ParaOut {
     final int index;
-    final int page;
+    final int page;         // 1-based page of the paragraph's lines (a paragraph never spans pages)
     final Kind kind;
     final String style;     // e.g. "DIALOGUE_x170_f12" or "SCENE_S8_x80_f12"
-    final float minX;
-    final float fontSize;
+    final float minX;       // exact, the style label carries the bucketed value
+    final float fontSize;   // mean of the lines' average glyph size
+    final int lineCount;
+    final float yTop;       // y of the first / last line, top-down page coordinates
+    final float yBottom;
     final String text;
 
-    ParaOut(int index, int page, Kind kind, String style, float minX, float fontSize, String text) {
+    ParaOut(int index, int page, Kind kind, String style, float minX, float fontSize,
+            int lineCount, float yTop, float yBottom, String text) {
         this.index = index;
         this.page = page;
         this.kind = kind;
         this.style = style;
         this.minX = minX;
         this.fontSize = fontSize;
+        this.lineCount = lineCount;
+        this.yTop = yTop;
+        this.yBottom = yBottom;
         this.text = text;
     }
 }
+
+// Consumer of finished paragraphs, in order: JSON writer, console, collecting list.
+interface ParaSink {
+    void accept(ParaOut p) throws IOException;
+
+    // both, in that order; second may be null
+    static ParaSink tee(ParaSink first, ParaSink second) {
+        if (second == null) return first;
+        return p -> {
+            first.accept(p);
+            second.accept(p);
+        };
+    }
+}
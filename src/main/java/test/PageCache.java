@@ -0,0 +1,281 @@
+package test;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import test.PosDump.Line;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Persistent per-page cache of extracted Lines for incremental re-extraction of revised drafts.
+//
+// Each page is fingerprinted from everything the stripper's output depends on: the page
+// dictionary (content streams by raw bytes), the fonts / XObjects / graphics states its
+// content refers to (resolved through inherited resources), and the boxes/rotation that
+// drive the direction-adjusted coordinates. Pages whose fingerprint is already cached are
+// not captured again: their stored lines are used. Entries are stored without a page number,
+// so a page that merely moved (pages inserted before it) still hits.
+final class PageCache {
+    private static final int MAGIC = 0x50474331; // "PGC1"
+    private static final String EXT = ".pl";
+
+    private final File dir;
+    private final long maxBytes;
+    private final PosDump.Engine engine;
+    private final String linesKey;
+
+    // per-document memo: fonts and XObjects are usually shared by every page
+    private final Map<COSBase, byte[]> memo = new IdentityHashMap<>();
+
+    int hits = 0;
+    int misses = 0;
+
+    // only the line keys of the grouping config (bucket, tolerances) shape the cached lines
+    PageCache(File dir, long maxBytes, PosDump.Engine engine, GroupingConfig grouping) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.engine = engine;
+        this.linesKey = grouping.linesKey();
+        Files.createDirectories(dir.toPath());
+    }
+
+    // Call when switching to another PDDocument; the memo is keyed by object identity.
+    void resetDocument() {
+        memo.clear();
+    }
+
+    String fingerprint(PDPage page) throws IOException {
+        MessageDigest md = ResultCache.sha256();
+        md.update(PosDump.CLASSIFIER_VERSION.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        // the engines differ on overdrawn text and split accents
+        if (engine != PosDump.Engine.STRIPPER) {
+            md.update(engine.name().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        if (!linesKey.equals(GroupingConfig.DEFAULT.linesKey())) {
+            md.update(linesKey.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+
+        // the page dictionary minus its /Parent back-pointer (which would pull in the whole tree)
+        // and /Resources, which is handled below
+        COSDictionary dict = page.getCOSObject();
+        TreeMap<String, COSBase> entries = new TreeMap<>();
+        for (Map.Entry<COSName, COSBase> e : dict.entrySet()) {
+            COSName k = e.getKey();
+            if (!COSName.PARENT.equals(k) && !COSName.RESOURCES.equals(k)) entries.put(k.getName(), e.getValue());
+        }
+        for (Map.Entry<String, COSBase> e : entries.entrySet()) {
+            md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+            digest(md, e.getValue(), new IdentityHashMap<>());
+        }
+
+        // Only the resources this page's content actually names. Exporters like Celtx share
+        // one resource dictionary across all pages, so adding a font for one edited page
+        // would otherwise invalidate every page of the draft.
+        PDResources res = page.getResources();
+        if (res != null) {
+            COSDictionary resDict = res.getCOSObject();
+            for (String[] used : usedResources(page)) {
+                COSBase category = resDict.getDictionaryObject(COSName.getPDFName(used[0]));
+                if (!(category instanceof COSDictionary)) continue;
+                md.update(used[0].getBytes(StandardCharsets.UTF_8));
+                md.update(used[1].getBytes(StandardCharsets.UTF_8));
+                digest(md, ((COSDictionary) category).getItem(COSName.getPDFName(used[1])), new IdentityHashMap<>());
+            }
+        }
+        box(md, page.getMediaBox());
+        box(md, page.getCropBox());
+        md.update((byte) (page.getRotation() / 90));
+
+        return ResultCache.hex(md.digest());
+    }
+
+    // {category, name} pairs for every Tf / Do / gs operand in the page content, in order
+    private static List<String[]> usedResources(PDPage page) throws IOException {
+        List<String[]> used = new ArrayList<>();
+        PDFStreamParser parser = new PDFStreamParser(page);
+        COSName lastName = null;
+        for (Object token = parser.parseNextToken(); token != null; token = parser.parseNextToken()) {
+            if (token instanceof COSName) {
+                lastName = (COSName) token;
+            } else if (token instanceof Operator) {
+                String op = ((Operator) token).getName();
+                if (lastName != null) {
+                    if ("Tf".equals(op)) used.add(new String[] {"Font", lastName.getName()});
+                    else if ("Do".equals(op)) used.add(new String[] {"XObject", lastName.getName()});
+                    else if ("gs".equals(op)) used.add(new String[] {"ExtGState", lastName.getName()});
+                }
+                lastName = null;
+            }
+        }
+        return used;
+    }
+
+    // null on miss; otherwise the page's lines re-stamped with pageNo
+    List<Line> get(String fingerprint, int pageNo) {
+        File f = entry(fingerprint);
+        if (!f.isFile()) {
+            misses++;
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            List<Line> lines = read(in, pageNo);
+            f.setLastModified(System.currentTimeMillis());
+            hits++;
+            return lines;
+        } catch (IOException | RuntimeException e) {
+            misses++;
+            return null;
+        }
+    }
+
+    void put(String fingerprint, List<Line> lines) throws IOException {
+        File tmp = File.createTempFile(fingerprint, ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                write(out, lines);
+            }
+            try {
+                Files.move(tmp.toPath(), entry(fingerprint).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), entry(fingerprint).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    void evict() {
+        ResultCache.evictLru(dir, EXT, maxBytes);
+    }
+
+    private File entry(String fingerprint) {
+        return new File(dir, fingerprint + EXT);
+    }
+
+    private static void write(DataOutputStream out, List<Line> lines) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(lines.size());
+        for (Line ln : lines) {
+            out.writeInt(ln.yKey);
+            out.writeFloat(ln.y);
+            out.writeFloat(ln.minX);
+            out.writeFloat(ln.maxX);
+            out.writeFloat(ln.avgFont);
+            out.writeInt(ln.fontCount);
+            ResultCache.writeString(out, ln.text.toString());
+        }
+    }
+
+    private static List<Line> read(DataInputStream in, int pageNo) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a page cache entry");
+        int n = in.readInt();
+        List<Line> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int yKey = in.readInt();
+            Line ln = new Line(pageNo, yKey, in.readFloat());
+            ln.minX = in.readFloat();
+            ln.maxX = in.readFloat();
+            ln.avgFont = in.readFloat();
+            ln.fontCount = in.readInt();
+            ln.text.append(ResultCache.readString(in));
+            lines.add(ln);
+        }
+        return lines;
+    }
+
+    private static void box(MessageDigest md, PDRectangle r) {
+        if (r == null) return;
+        floatBits(md, r.getLowerLeftX());
+        floatBits(md, r.getLowerLeftY());
+        floatBits(md, r.getUpperRightX());
+        floatBits(md, r.getUpperRightY());
+    }
+
+    private static void floatBits(MessageDigest md, float f) {
+        int b = Float.floatToIntBits(f);
+        md.update((byte) (b >>> 24));
+        md.update((byte) (b >>> 16));
+        md.update((byte) (b >>> 8));
+        md.update((byte) b);
+    }
+
+    // Structural digest of a COS value. Indirect objects are digested once per document and
+    // fed in as their own hash; onPath guards against reference cycles.
+    private void digest(MessageDigest md, COSBase v, Map<COSBase, Boolean> onPath) throws IOException {
+        if (v instanceof COSObject) {
+            COSBase target = ((COSObject) v).getObject();
+            if (target == null) { md.update((byte) 'z'); return; }
+            if (onPath.containsKey(target)) { md.update((byte) 'R'); return; }
+
+            byte[] sub = memo.get(target);
+            if (sub == null) {
+                MessageDigest subMd = ResultCache.sha256();
+                onPath.put(target, Boolean.TRUE);
+                digest(subMd, target, onPath);
+                onPath.remove(target);
+                sub = subMd.digest();
+                memo.put(target, sub);
+            }
+            md.update((byte) 'O');
+            md.update(sub);
+            return;
+        }
+
+        if (v instanceof COSDictionary) {
+            COSDictionary d = (COSDictionary) v;
+            md.update((byte) (v instanceof COSStream ? 's' : 'd'));
+            TreeMap<String, COSBase> sorted = new TreeMap<>();
+            for (Map.Entry<COSName, COSBase> e : d.entrySet()) {
+                if (!COSName.PARENT.equals(e.getKey())) sorted.put(e.getKey().getName(), e.getValue());
+            }
+            for (Map.Entry<String, COSBase> e : sorted.entrySet()) {
+                md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+                digest(md, e.getValue(), onPath);
+            }
+            if (v instanceof COSStream) {
+                // raw (still encoded) bytes: no need to inflate just to compare
+                try (InputStream in = ((COSStream) v).createRawInputStream()) {
+                    byte[] buf = new byte[8192];
+                    for (int n; (n = in.read(buf)) > 0; ) md.update(buf, 0, n);
+                }
+            }
+            md.update((byte) 'e');
+        } else if (v instanceof COSArray) {
+            md.update((byte) 'a');
+            for (COSBase item : (COSArray) v) digest(md, item, onPath);
+            md.update((byte) 'e');
+        } else if (v instanceof COSName) {
+            md.update((byte) 'n');
+            md.update(((COSName) v).getName().getBytes(StandardCharsets.UTF_8));
+        } else if (v instanceof COSString) {
+            md.update((byte) 't');
+            md.update(((COSString) v).getBytes());
+        } else if (v instanceof COSInteger) {
+            md.update((byte) 'i');
+            md.update(Long.toString(((COSInteger) v).longValue()).getBytes(StandardCharsets.US_ASCII));
+        } else if (v instanceof COSFloat) {
+            md.update((byte) 'f');
+            floatBits(md, ((COSFloat) v).floatValue());
+        } else if (v instanceof COSBoolean) {
+            md.update((byte) (((COSBoolean) v).getValue() ? 'T' : 'F'));
+        } else {
+            md.update((byte) '0'); // COSNull / null
+        }
+    }
+}
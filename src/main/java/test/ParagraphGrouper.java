@@ -0,0 +1,265 @@
+package test;
+
+import test.PosDump.Line;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+// The ordered, stateful part of groupLinesIntoParagraphs: lines go in one at a time
+// (already in reading order), finished paragraphs come out as ParaOut records through a
+// ParaSink as soon as the next boundary is seen. Only the cross-line state lives here, so
+// the same grouper can be fed the whole document at once or page by page.
+final class ParagraphGrouper {
+
+    // helper: detect page numbers / footer-ish single tokens (extra grouping only)
+    // examples: "7.", "11.", "8.", "5."
+    private static final Pattern PAGE_NO = Pattern.compile("^\\d{1,3}\\s*[\\.)]$");
+
+    // helper: detect transition-ish parentheticals (extra grouping only)
+    // examples: "(KESME)", "(CUT TO)", "(FADE OUT)"
+    private static final Pattern TRANS_PAREN = Pattern.compile("^\\(\\s*[A-ZÇĞİÖŞÜ ]{3,}\\s*\\)$");
+
+    private final GroupingConfig cfg;
+    private final int maxParas;
+    private final ParaSink out;
+    private float paraBreakGap;
+    private int emitted = 0;
+    private boolean full = false;
+
+    private final StringBuilder cur = new StringBuilder();
+    private final LineClassifier cls = new LineClassifier();
+    private Line prev = null;
+
+    // paragraphs per page (page of a paragraph's first line)
+    Metrics metrics = Metrics.OFF;
+    private int curPage = 0;
+
+    // the document's time limit, looked at every 256 lines; once out of time the grouper
+    // is full, and finish() still emits the paragraph in progress
+    Guard guard = Guard.NONE;
+    private int seen = 0;
+
+    // --- kind-aware state ---
+    private Kind curKind = null;
+    private boolean dialogueMode = false;
+
+    // track max scene score inside current paragraph (only used when curKind==SCENE)
+    private int curSceneScoreMax = 0;
+
+    // indent baseline for current paragraph
+    private float curParaMinX = -1f;
+
+    private float curMinXMin = Float.MAX_VALUE;
+    private float curFontSum = 0f;
+    private int curLines = 0;
+    private float curYTop = 0f;
+    private float curYBottom = 0f;
+
+    // NEW: remember a baseline "action" indent we've seen, to allow safe dialogue→action switch
+    private float seenActionMinX = Float.NaN;
+
+    ParagraphGrouper(GroupingConfig cfg, float paraBreakGap, int maxParas, ParaSink out) {
+        this.cfg = cfg;
+        this.paraBreakGap = paraBreakGap;
+        this.maxParas = maxParas;
+        this.out = out;
+    }
+
+    // streaming callers refine the gap estimate as more pages come in
+    void setParaBreakGap(float paraBreakGap) {
+        this.paraBreakGap = paraBreakGap;
+    }
+
+    boolean isFull() {
+        return full;
+    }
+
+    // Returns false once maxParas paragraphs have been emitted (or the guard ran out of
+    // time); further lines are ignored.
+    boolean accept(Line ln) throws IOException {
+        if (full || !inTime(ln)) return false;
+
+        // normalize + underscore/spaced-letter cleanup + scene score + cue flags, one scan;
+        // false for blank lines and the Celtx footer
+        if (!cls.classify(ln.text)) return true;
+        return place(ln, cls.text, cls.length, cls.sceneScore, cls.cue, cls.paren);
+    }
+
+    // The same for a line classified ahead of time (Pipeline); null = nothing on the line.
+    boolean accept(Line ln, LineClassifier.Result r) throws IOException {
+        if (full || !inTime(ln)) return false;
+        if (r == null) return true;
+        return place(ln, r.text, r.text.length, r.sceneScore, r.cue, r.paren);
+    }
+
+    private boolean inTime(Line ln) {
+        if ((++seen & 255) != 0 || guard.inTime(ln.page)) return true;
+        full = true;
+        return false;
+    }
+
+    private boolean place(Line ln, char[] text, int length, int sceneScore, boolean cue, boolean paren)
+            throws IOException {
+        boolean sceneIndentLikely = ln.minX <= cfg.sceneMaxX;
+        boolean isStrongScene = sceneScore >= cfg.sceneMinScore && sceneIndentLikely;
+
+        // classify (KEEP ORDER: SCENE first)
+        Kind lineKind;
+        if (isStrongScene) lineKind = Kind.SCENE;
+        else if (cue) lineKind = Kind.CHARACTER;
+        else if (paren) lineKind = Kind.PAREN;
+        else if (dialogueMode) lineKind = Kind.DIALOGUE;
+        else lineKind = Kind.ACTION;
+
+        // --- SAFE dialogue→action escape hatch (does NOT affect character/scene detection) ---
+        // If we're in dialogue mode and we see a line that is "dialogue by mode"
+        // but its indent is close to the action baseline, treat it as ACTION and end dialogue mode.
+        // This helps: dialogue-chain accidentally swallowing action blocks.
+        if (dialogueMode && lineKind == Kind.DIALOGUE && !Float.isNaN(seenActionMinX)) {
+            // If indent is near action indent (or smaller), it's probably action.
+            if (ln.minX <= (seenActionMinX + cfg.dialogueEscape)) {
+                lineKind = Kind.ACTION;
+                dialogueMode = false;
+            }
+        }
+
+        boolean newPara;
+
+        if (prev == null) newPara = true;
+        else if (ln.page != prev.page) newPara = true;
+        else {
+            float gap = ln.y - prev.y;
+            newPara = gap >= paraBreakGap;
+        }
+
+        // force boundaries for these
+        if (lineKind == Kind.SCENE || lineKind == Kind.CHARACTER || lineKind == Kind.PAREN) {
+            newPara = true;
+        }
+
+        // kind change breaks paragraph
+        if (!newPara && curKind != null && curKind != lineKind) {
+            newPara = true;
+        }
+
+        // indent jump splits paragraphs for ACTION/DIALOGUE (your existing core test)
+        if (!newPara && curKind != null && curKind == lineKind) {
+            if (lineKind == Kind.ACTION || lineKind == Kind.DIALOGUE) {
+                if (curParaMinX >= 0 && Math.abs(ln.minX - curParaMinX) >= cfg.indentJump) {
+                    newPara = true;
+                }
+            }
+        }
+
+        if (newPara) {
+            if (cur.length() > 0) {
+                emitCurrent();
+                if (emitted >= maxParas) {
+                    full = true;
+                    return false;
+                }
+                cur.setLength(0);
+            }
+
+            curKind = lineKind;
+            curPage = ln.page;
+            curMinXMin = ln.minX;
+            curFontSum = 0f;
+            curLines = 0;
+            curYTop = ln.y;
+
+            // reset scene max for the new paragraph
+            curSceneScoreMax = (lineKind == Kind.SCENE) ? sceneScore : 0;
+
+            curParaMinX = ln.minX;
+
+        } else {
+            cur.append("\n");
+        }
+
+        cur.append(text, 0, length);
+        prev = ln;
+
+        // update current para stats
+        curMinXMin = Math.min(curMinXMin, ln.minX);
+        curFontSum += ln.avgFontSize();
+        curLines++;
+        curYBottom = ln.y;
+
+        // update max score while building a SCENE paragraph
+        if (curKind == Kind.SCENE) {
+            curSceneScoreMax = Math.max(curSceneScoreMax, sceneScore);
+        }
+
+        // record action baseline (for later dialogue→action switching)
+        if (lineKind == Kind.ACTION) {
+            if (Float.isNaN(seenActionMinX)) seenActionMinX = ln.minX;
+            else seenActionMinX = Math.min(seenActionMinX, ln.minX);
+        }
+
+        // update mode
+        if (lineKind == Kind.CHARACTER) dialogueMode = true;
+        else if (lineKind == Kind.SCENE) dialogueMode = false;
+        return true;
+    }
+
+    // Emits the open paragraph (if any). Call once after the last line.
+    void finish() throws IOException {
+        if (!full && emitted < maxParas && cur.length() > 0) {
+            emitCurrent();
+            cur.setLength(0);
+        }
+    }
+
+    private void emitCurrent() throws IOException {
+        Kind k = (curKind == null ? Kind.ACTION : curKind);
+        float paraFont = (curLines > 0) ? (curFontSum / curLines) : 0f;
+
+        String bodyTrim = cur.toString().trim();
+        String header = PosDump.paraHeader(k, curSceneScoreMax, curMinXMin, paraFont);
+
+        // --- EXTRA STYLE GROUPING ONLY (no behavior change) ---
+        // 1) Page numbers: keep kind as-is, but force distinct style label.
+        if (PAGE_NO.matcher(bodyTrim).matches()) {
+            // Example: ACTION_x110_f12 becomes ACTION_PG_x110_f12
+            header = k.name() + "_PG_" + "x" + PosDump.bucket10(curMinXMin) + "_f" + PosDump.bucketFont(paraFont);
+        }
+
+        // 2) Transition-like parenthetical: group separately
+        if (k == Kind.PAREN && TRANS_PAREN.matcher(bodyTrim).matches()) {
+            // Example: PAREN_TR_x240_f12
+            header = "PAREN_TR_" + "x" + PosDump.bucket10(curMinXMin) + "_f" + PosDump.bucketFont(paraFont);
+        }
+
+        // 3) Corrupt-ish paragraph: group separately
+        if (looksCorrupt(bodyTrim)) {
+            // Example: ACTION_CORR_x110_f12
+            header = k.name() + "_CORR_" + "x" + PosDump.bucket10(curMinXMin) + "_f" + PosDump.bucketFont(paraFont);
+        }
+
+        metrics.paragraph(curPage);
+        out.accept(new ParaOut(emitted, curPage, k, header, curMinXMin, paraFont,
+                curLines, curYTop, curYBottom, bodyTrim));
+        emitted++;
+    }
+
+    // helper: detect "corrupt-ish" line (extra grouping only)
+    // long runs without spaces, or many underscores, etc.
+    // (we do NOT change kind; we only change style label)
+    static boolean looksCorrupt(String txt) {
+        if (txt == null) return false;
+        String s = txt.trim();
+        if (s.isEmpty()) return false;
+
+        // very long token without spaces (after cleanup) tends to be an artifact
+        int underscores = 0, maxRun = 0, run = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '_' && ++underscores >= 6) return true;
+            if (!Character.isWhitespace(c)) run++;
+            else { maxRun = Math.max(maxRun, run); run = 0; }
+        }
+        maxRun = Math.max(maxRun, run);
+        return maxRun >= 35;
+    }
+}
@@ -0,0 +1,114 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Splits start..end into contiguous page chunks and captures each chunk on its own thread.
+// PDDocument and the PDFBox engines are not thread-safe, so every chunk but the first opens
+// its own document (each with the loader's full stream cache budget); the first captures from
+// the caller's, which sits idle meanwhile. N chunks hold N documents, not N + 1.
+final class ParallelCapture {
+    private ParallelCapture() {}
+
+    // one chunk's glyphs and the last page it captured completely
+    private static final class Chunk {
+        final GlyphBuffer glyphs;
+        final int end;
+        int lastPage;
+
+        Chunk(int start, int end) {
+            this.glyphs = new GlyphBuffer((end - start + 1) * GlyphBuffer.GLYPHS_PER_PAGE);
+            this.end = end;
+            this.lastPage = start - 1;
+        }
+    }
+
+    // Worker CPU time and allocations (including each chunk's own load) are added to the
+    // caller's CAPTURE stage. All chunks count against the one guard of the document, so a
+    // stop cuts every chunk at once; the result then ends where the first cut chunk did, and
+    // the later chunks' pages are dropped rather than leaving a hole in the range.
+    // doc: pdf, already open; left open
+    static GlyphBuffer capture(DocLoader loader, File pdf, PDDocument doc, int start, int end, int workers,
+                               PosDump.Engine engine, Metrics metrics, Guard guard) throws IOException {
+        int pages = end - start + 1;
+        int chunks = Math.max(1, Math.min(workers, pages));
+        if (chunks == 1) return PosDump.captureGlyphs(doc, start, end, engine, metrics, guard);
+
+        ExecutorService pool = Executors.newFixedThreadPool(chunks, r -> {
+            Thread t = new Thread(r, "posdump-capture");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Chunk>> parts = new ArrayList<>(chunks);
+            int from = start;
+            for (int c = 0; c < chunks; c++) {
+                // spread the remainder over the first chunks: 10 pages / 3 -> 4,3,3
+                int size = pages / chunks + (c < pages % chunks ? 1 : 0);
+                int a = from, b = from + size - 1;
+                boolean own = c > 0;
+                parts.add(pool.submit(() -> {
+                    long cpu0 = metrics.enabled ? Metrics.cpuNow() : 0L;
+                    long alloc0 = metrics.enabled ? Metrics.allocNow() : 0L;
+                    PDDocument d = own ? loader.load(pdf) : doc;
+                    try {
+                        Chunk chunk = new Chunk(a, b);
+                        PosDump.capture(d, a, b, engine, new GlyphBuffer(GlyphBuffer.GLYPHS_PER_PAGE),
+                                (no, page) -> {
+                                    chunk.glyphs.addAll(page);
+                                    chunk.lastPage = no;
+                                }, null, metrics, guard);
+                        return chunk;
+                    } finally {
+                        if (own) d.close();
+                        if (metrics.enabled) {
+                            metrics.addWorker(Metrics.Stage.CAPTURE, Metrics.cpuNow() - cpu0, Metrics.allocNow() - alloc0);
+                        }
+                    }
+                }));
+                from += size;
+            }
+
+            // chunks are contiguous and ascending, so appending in submit order keeps page order
+            List<GlyphBuffer> done = new ArrayList<>(chunks);
+            int total = 0;
+            boolean cut = false;
+            for (Future<Chunk> f : parts) {
+                Chunk c = f.get();
+                if (cut) continue;
+                done.add(c.glyphs);
+                total += c.glyphs.size;
+                cut = c.lastPage < c.end;
+            }
+            GlyphBuffer all = new GlyphBuffer(total);
+            for (GlyphBuffer b : done) all.addAll(b);
+            return all;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting " + pdf, e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException("Extraction failed for " + pdf, c);
+        } finally {
+            pool.shutdownNow();
+            // the first chunk works on the caller's document, which the caller closes next;
+            // the engines notice the interrupt within a page
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
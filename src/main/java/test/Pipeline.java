@@ -0,0 +1,399 @@
+package test;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import test.PosDump.Line;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// --pipeline: the --stream pipeline with every stage on a thread of its own, joined by
+// bounded queues of per-page batches:
+//
+//   capture --glyphs--> lines --lines--> group --paras--> write
+//
+//   capture  PDFBox on the calling thread; each page's glyphs are copied out of the engine
+//   lines    buildLines, reading order and LineClassifier (normalize, underscore / spaced
+//            letter cleanup, scene score, cue flags) for every line of the page
+//   group    the ordered, stateful part: running gap median and ParagraphGrouper, fed exactly
+//            as streamParagraphs feeds it, so the output is identical to --stream
+//   write    the caller's ParaSink (JSON, stdout)
+//
+// With a core per stage, a document takes about as long as its slowest stage instead of the
+// sum of all four. Every queue holds at most --pipeline-depth pages, so memory stays bounded
+// as in --stream. Stats reports how full each queue ran and how long its producer was
+// blocked on it or its consumer starved, next to each stage's busy time.
+//
+// A failing stage stops the others and its exception is rethrown from run(); an interrupt of
+// the calling thread (ExtractServer deadline) cancels the stage threads the same way.
+final class Pipeline {
+
+    private static final Object END = new Object();
+
+    // caller-side waits re-check for a failed stage this often
+    private static final long POLL_MS = 20;
+
+    private final int depth;
+    private final Channel<Page> glyphs;
+    private final Channel<Page> lines;
+    private final Channel<List<ParaOut>> paras;
+    private final List<Worker> workers = new ArrayList<>(3);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // set by group once maxParas is reached: capture ends at its next page (CaptureDone) and
+    // lines skips the pages already queued
+    private volatile boolean full;
+
+    private Pipeline(int depth) {
+        this.depth = depth;
+        glyphs = new Channel<>("glyphs", depth);
+        lines = new Channel<>("lines", depth);
+        paras = new Channel<>("paras", depth);
+    }
+
+    // One page on its way through: glyphs, then its lines and their classifications.
+    private static final class Page {
+        final GlyphBuffer glyphs;
+        List<Line> lines;
+        LineClassifier.Result[] classified;   // per line, null = nothing on it
+
+        Page(GlyphBuffer glyphs) {
+            this.glyphs = glyphs;
+        }
+    }
+
+    static Stats run(PDDocument doc, int start, int end, int maxParas, PosDump.Engine engine, GroupingConfig cfg,
+                     int depth, Metrics metrics, Guard guard, ParaSink out) throws IOException {
+        Pipeline p = new Pipeline(Math.max(1, depth));
+        p.workers.add(new Worker(p, Metrics.Stage.LINES, () -> p.lines(cfg, metrics, guard)));
+        p.workers.add(new Worker(p, Metrics.Stage.GROUP, () -> p.group(cfg, maxParas, metrics, guard)));
+        p.workers.add(new Worker(p, Metrics.Stage.WRITE, () -> p.write(out)));
+        for (Worker w : p.workers) w.start();
+
+        long t0 = System.nanoTime();
+        try {
+            PosDump.PageListener onPage = (pageNo, page) -> {
+                if (p.failure.get() != null) throw new InterruptedIOException("Pipeline stopped");
+                if (p.full) throw new PosDump.CaptureDone();
+                GlyphBuffer copy = new GlyphBuffer(page.size);
+                copy.addAll(page);
+                p.send(p.glyphs, new Page(copy));
+            };
+            metrics.begin(Metrics.Stage.CAPTURE);
+            PosDump.capture(doc, start, end, engine, new GlyphBuffer(), onPage, null, metrics, guard);
+            metrics.end(Metrics.Stage.CAPTURE);
+            p.send(p.glyphs, END);
+        } catch (Throwable t) {
+            p.fail(t);
+        }
+        long captureNanos = System.nanoTime() - t0;
+        p.joinAll();
+
+        Throwable t = p.failure.get();
+        if (t instanceof IOException) throw (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        if (t != null) throw new IOException(t);
+
+        for (Worker w : p.workers) metrics.addStage(w.stage, w.batches, w.busyNanos, w.cpuNanos, w.allocBytes);
+        Stats stats = new Stats(p, captureNanos - p.glyphs.putWaitNanos);
+        metrics.pipeline(stats);
+        return stats;
+    }
+
+    // --- stages ---
+
+    private void lines(GroupingConfig cfg, Metrics metrics, Guard guard) throws InterruptedException {
+        Worker self = (Worker) Thread.currentThread();
+        LineClassifier cls = new LineClassifier();
+        for (Page pg; (pg = glyphs.take()) != null; ) {
+            if (full) continue;
+            long t0 = System.nanoTime();
+            List<Line> built = PosDump.buildLines(pg.glyphs, cfg, guard);
+            PosDump.sortReadingOrder(built);
+            LineClassifier.Result[] classified = new LineClassifier.Result[built.size()];
+            for (int i = 0; i < classified.length; i++) {
+                if (cls.classify(built.get(i).text)) classified[i] = cls.result();
+            }
+            metrics.lines(built);
+            pg.lines = built;
+            pg.classified = classified;
+            self.busy(t0);
+            lines.put(pg);
+        }
+        lines.put(END);
+    }
+
+    private void group(GroupingConfig cfg, int maxParas, Metrics metrics, Guard guard)
+            throws IOException, InterruptedException {
+        Worker self = (Worker) Thread.currentThread();
+        List<ParaOut> batch = new ArrayList<>();
+        GapStats gaps = new GapStats();
+        ParagraphGrouper grouper = new ParagraphGrouper(cfg, cfg.defaultLineGap * cfg.gapFactor, maxParas, batch::add);
+        grouper.metrics = metrics;
+        grouper.guard = guard;
+        List<Line> pending = new ArrayList<>();
+        List<LineClassifier.Result> pendingClassified = new ArrayList<>();
+
+        for (Page pg; (pg = lines.take()) != null; ) {
+            if (grouper.isFull()) continue;
+            long t0 = System.nanoTime();
+            List<Line> ls = pg.lines;
+            for (int i = 1; i < ls.size(); i++) {
+                gaps.add(ls.get(i).y - ls.get(i - 1).y);
+            }
+            pending.addAll(ls);
+            for (LineClassifier.Result r : pg.classified) pendingClassified.add(r);
+            if (gaps.count() >= PosDump.STREAM_WARMUP_GAPS) feed(grouper, cfg, gaps, pending, pendingClassified);
+            full = grouper.isFull();
+            self.busy(t0);
+            flush(batch);
+        }
+        long t0 = System.nanoTime();
+        feed(grouper, cfg, gaps, pending, pendingClassified);
+        grouper.finish();
+        self.busy(t0);
+        flush(batch);
+        paras.put(END);
+    }
+
+    // same as PosDump.feed, with the classifications made by the lines stage
+    private static void feed(ParagraphGrouper grouper, GroupingConfig cfg, GapStats gaps, List<Line> pending,
+                             List<LineClassifier.Result> classified) throws IOException {
+        grouper.setParaBreakGap(gaps.median(cfg.defaultLineGap) * cfg.gapFactor);
+        for (int i = 0; i < pending.size(); i++) {
+            if (!grouper.accept(pending.get(i), classified.get(i))) break;
+        }
+        pending.clear();
+        classified.clear();
+    }
+
+    // hands the paragraphs emitted so far to write
+    private void flush(List<ParaOut> batch) throws InterruptedException {
+        if (batch.isEmpty()) return;
+        paras.put(new ArrayList<>(batch));
+        batch.clear();
+    }
+
+    private void write(ParaSink out) throws IOException, InterruptedException {
+        Worker self = (Worker) Thread.currentThread();
+        for (List<ParaOut> batch; (batch = paras.take()) != null; ) {
+            long t0 = System.nanoTime();
+            for (ParaOut p : batch) out.accept(p);
+            self.busy(t0);
+        }
+    }
+
+    // --- plumbing ---
+
+    // From the calling thread: blocks while the queue is full, but gives up once a stage failed.
+    private void send(Channel<Page> ch, Object item) throws IOException {
+        try {
+            if (!ch.offer(item)) throw new InterruptedIOException("Pipeline stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction cancelled");
+        }
+    }
+
+    // first failure wins; the stage threads are interrupted out of their queue waits
+    private void fail(Throwable t) {
+        if (!failure.compareAndSet(null, t)) return;
+        for (Worker w : workers) w.interrupt();
+    }
+
+    private void joinAll() {
+        boolean interrupted = false;
+        for (Worker w : workers) {
+            while (true) {
+                try {
+                    w.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    fail(new InterruptedIOException("Extraction cancelled"));
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static final class Worker extends Thread {
+        final Pipeline pipeline;
+        final Metrics.Stage stage;
+        final Body body;
+        // written by this thread, read after join
+        int batches;
+        long busyNanos, cpuNanos, allocBytes;
+
+        Worker(Pipeline pipeline, Metrics.Stage stage, Body body) {
+            super("posdump-" + stage.name().toLowerCase(Locale.ROOT));
+            setDaemon(true);
+            this.pipeline = pipeline;
+            this.stage = stage;
+            this.body = body;
+        }
+
+        void busy(long since) {
+            busyNanos += System.nanoTime() - since;
+            batches++;
+        }
+
+        @Override
+        public void run() {
+            long c0 = Metrics.cpuNow(), a0 = Metrics.allocNow();
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                // stopped by fail(); the first failure is what gets reported
+                pipeline.fail(new InterruptedIOException("Extraction cancelled"));
+            } catch (Throwable t) {
+                pipeline.fail(t);
+            } finally {
+                cpuNanos = Metrics.cpuNow() - c0;
+                allocBytes = Metrics.allocNow() - a0;
+            }
+        }
+    }
+
+    // A bounded queue that keeps its own statistics: the producer side (puts, depth after
+    // each put, time blocked on a full queue) and the consumer side (time starved on an
+    // empty one) each have a single writer and are read after the threads are joined.
+    private final class Channel<T> {
+        final String name;
+        final int capacity;
+        private final ArrayBlockingQueue<Object> q;
+
+        long puts, depthSum, putWaitNanos, takeWaitNanos;
+        int maxDepth;
+
+        Channel(String name, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+            this.q = new ArrayBlockingQueue<>(capacity);
+        }
+
+        // stage threads: wait as long as it takes, fail() interrupts
+        void put(Object item) throws InterruptedException {
+            if (!q.offer(item)) {
+                long t0 = System.nanoTime();
+                q.put(item);
+                putWaitNanos += System.nanoTime() - t0;
+            }
+            counted(item);
+        }
+
+        // calling thread: false once a stage has failed
+        boolean offer(Object item) throws InterruptedException {
+            if (!q.offer(item)) {
+                long t0 = System.nanoTime();
+                try {
+                    while (!q.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+                        if (failure.get() != null) return false;
+                    }
+                } finally {
+                    putWaitNanos += System.nanoTime() - t0;
+                }
+            }
+            counted(item);
+            return true;
+        }
+
+        private void counted(Object item) {
+            if (item == END) return;
+            int d = q.size();
+            puts++;
+            depthSum += d;
+            maxDepth = Math.max(maxDepth, d);
+        }
+
+        // null at the end of the stream
+        @SuppressWarnings("unchecked")
+        T take() throws InterruptedException {
+            Object item = q.poll();
+            if (item == null) {
+                long t0 = System.nanoTime();
+                item = q.take();
+                takeWaitNanos += System.nanoTime() - t0;
+            }
+            return item == END ? null : (T) item;
+        }
+
+        double avgDepth() {
+            return puts == 0 ? 0.0 : depthSum / (double) puts;
+        }
+    }
+
+    // --- report ---
+
+    static final class Stats {
+        final int depth;
+        final String[] queues = new String[3];
+        final long[] batches = new long[3];
+        final int[] maxDepth = new int[3];
+        final double[] avgDepth = new double[3];
+        final long[] blockedNanos = new long[3];   // producer waiting for room
+        final long[] starvedNanos = new long[3];   // consumer waiting for work
+        final String[] stages = {"capture", "lines", "group", "write"};
+        final long[] busyNanos = new long[4];
+
+        private Stats(Pipeline p, long captureBusyNanos) {
+            depth = p.depth;
+            List<Channel<?>> chs = List.of(p.glyphs, p.lines, p.paras);
+            for (int i = 0; i < 3; i++) {
+                Channel<?> c = chs.get(i);
+                queues[i] = c.name;
+                batches[i] = c.puts;
+                maxDepth[i] = c.maxDepth;
+                avgDepth[i] = c.avgDepth();
+                blockedNanos[i] = c.putWaitNanos;
+                starvedNanos[i] = c.takeWaitNanos;
+            }
+            busyNanos[0] = captureBusyNanos;
+            for (int i = 0; i < 3; i++) busyNanos[i + 1] = p.workers.get(i).busyNanos;
+        }
+
+        // Pipeline: depth 4; busy ms capture 812.3 lines 120.4 group 40.2 write 61.0;
+        //   glyphs max 4 avg 2.31 blocked 0.0 starved 1.2 ms, lines ..., paras ...
+        String summary() {
+            StringBuilder sb = new StringBuilder("Pipeline: depth ").append(depth).append("; busy ms");
+            for (int i = 0; i < stages.length; i++) {
+                sb.append(' ').append(stages[i]).append(' ').append(String.format(Locale.ROOT, "%.1f", busyNanos[i] / 1e6));
+            }
+            for (int i = 0; i < queues.length; i++) {
+                sb.append(i == 0 ? "; " : ", ").append(String.format(Locale.ROOT,
+                        "%s max %d avg %.2f blocked %.1f starved %.1f ms", queues[i], maxDepth[i], avgDepth[i],
+                        blockedNanos[i] / 1e6, starvedNanos[i] / 1e6));
+            }
+            return sb.toString();
+        }
+
+        void appendJson(StringBuilder sb) {
+            sb.append("{\"depth\": ").append(depth).append(", \"queues\": [");
+            for (int i = 0; i < queues.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append("{\"queue\": \"").append(queues[i]).append('"')
+                  .append(", \"batches\": ").append(batches[i])
+                  .append(", \"maxDepth\": ").append(maxDepth[i])
+                  .append(", \"avgDepth\": ").append(String.format(Locale.ROOT, "%.3f", avgDepth[i]))
+                  .append(", \"blockedMs\": ").append(String.format(Locale.ROOT, "%.3f", blockedNanos[i] / 1e6))
+                  .append(", \"starvedMs\": ").append(String.format(Locale.ROOT, "%.3f", starvedNanos[i] / 1e6)).append('}');
+            }
+            sb.append("], \"busyMs\": {");
+            for (int i = 0; i < stages.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append('"').append(stages[i]).append("\": ").append(String.format(Locale.ROOT, "%.3f", busyNanos[i] / 1e6));
+            }
+            sb.append("}}");
+        }
+    }
+}
@@ -1,39 +1,22 @@
 package test;
 
 
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.pdfbox.text.TextPosition;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.util.*;
+import java.util.regex.Pattern;
 
 public class PosDump {
 
-    // One "glyph" with position
-static class G {
-    final int page;
-    final float x;
-    final float y;
-    final float w;
-    final float fontSize;
-    final String ch;
-    final int yKey;
-
-    G(int page, float x, float y, float w, float fontSize, String ch) {
-        this.page = page;
-        this.x = x;
-        this.y = y;
-        this.w = w;
-        this.fontSize = fontSize;
-        this.ch = ch;
-        this.yKey = Math.round(y * 2); // 0.5pt bucket (change 2->1 for 1pt)
-    }
-}
-
-
     // One reconstructed line
     static class Line {
         final int page;
@@ -51,12 +34,13 @@ static class G {
             this.y = y;
         }
 
-        void addGlyph(G g) {
-            minX = Math.min(minX, g.x);
-            maxX = Math.max(maxX, g.x + g.w);
-            avgFont += g.fontSize;
+        void addGlyph(GlyphBuffer b, int i) {
+            float gx = b.x[i];
+            minX = Math.min(minX, gx);
+            maxX = Math.max(maxX, gx + b.w[i]);
+            avgFont += b.fontSize[i];
             fontCount++;
-            text.append(g.ch);
+            text.append(b.chars, b.charStart(i), b.charLength(i));
         }
 
         float avgFontSize() {
@@ -64,15 +48,110 @@ static class G {
         }
     }
 
+    interface PageListener {
+        void page(int pageNo, GlyphBuffer glyphs) throws IOException;
+    }
+
+    // --engine: PDFTextStripper (reference) or the raw GlyphEngine
+    enum Engine { STRIPPER, RAW }
+
+    // Both engines call this before every page, so a cancelled extraction (ExtractServer
+    // timeout) stops within one page instead of running the document to the end.
+    static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Extraction cancelled");
+    }
+
+    // Thrown by a PageListener that wants no more pages (its grouper is full): capture ends
+    // the pass there, normally, instead of running PDFBox over the rest of the range.
+    static final class CaptureDone extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CaptureDone() {
+            super("Capture done");
+        }
+    }
+
     // Custom stripper that captures TextPositions
     static class CaptureStripper extends PDFTextStripper {
-        final List<G> glyphs = new ArrayList<>();
+        final GlyphBuffer glyphs;
+
+        // streaming mode: called from endPage with that page's glyphs, which are then dropped
+        PageListener onPage;
 
         CaptureStripper() throws IOException {
+            this(new GlyphBuffer());
+        }
+
+        CaptureStripper(GlyphBuffer glyphs) throws IOException {
             super();
+            this.glyphs = glyphs;
             setSortByPosition(true);
         }
 
+        // incremental mode: these page numbers are not processed at all
+        BitSet skipPages;
+
+        // per-page glyph counts and capture time; checked once per page, never per glyph
+        Metrics metrics = Metrics.OFF;
+        private long pageStartNanos;
+        private int pageStartGlyphs;
+        private Metrics.PageEvent pageEvent;
+
+        // the document's limits; glyphs are counted before the stripper's own per-glyph
+        // work (overlap suppression, sorting), so a page over the limit costs no more
+        Guard guard = Guard.NONE;
+        private int pageGlyphs;
+
+        @Override
+        public void processPage(PDPage page) throws IOException {
+            if (skipPages != null && skipPages.get(getCurrentPageNo())) return;
+            checkInterrupted();
+            guard.check(getCurrentPageNo());
+            super.processPage(page);
+        }
+
+        @Override
+        protected void showText(byte[] string) throws IOException {
+            if (guard.stopped()) guard.check(getCurrentPageNo());
+            super.showText(string);
+        }
+
+        @Override
+        protected void operatorException(Operator operator, List<COSBase> operands, IOException e) throws IOException {
+            Guard.rethrow(e);
+            super.operatorException(operator, operands, e);
+        }
+
+        @Override
+        protected void processTextPosition(TextPosition text) {
+            if (guard.admit(getCurrentPageNo(), ++pageGlyphs)) super.processTextPosition(text);
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            super.startPage(page);
+            pageGlyphs = 0;
+            if (metrics.enabled) {
+                pageStartNanos = System.nanoTime();
+                pageStartGlyphs = glyphs.size;
+                pageEvent = metrics.pageStart();
+            }
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+            guard.endPage(getCurrentPageNo(), pageGlyphs);
+            if (metrics.enabled) {
+                metrics.page(getCurrentPageNo(), glyphs.size - pageStartGlyphs, System.nanoTime() - pageStartNanos, pageEvent);
+                pageEvent = null;
+            }
+            if (onPage != null) {
+                onPage.page(getCurrentPageNo(), glyphs);
+                glyphs.clear();
+            }
+        }
+
         @Override
         protected void writeString(String string, List<TextPosition> textPositions) throws IOException {
             int page = getCurrentPageNo();
@@ -83,309 +162,440 @@ static class G {
                 // Ignore pure control chars
                 if (u.equals("\r") || u.equals("\n")) continue;
 
-                glyphs.add(new G(
+                glyphs.add(
                         page,
                         tp.getXDirAdj(),
                         tp.getYDirAdj(),
                         tp.getWidthDirAdj(),
                         tp.getFontSizeInPt(),
                         u
-                ));
+                );
             }
         }
     }
 
+    // separate from the JSON layout version: bump when classification or labels change,
+    // so cached results from an older classifier are not served
+    static final String CLASSIFIER_VERSION = "posdump-3";
+
     public static void main(String[] args) throws Exception {
-        String pdfPath   = args.length > 0 ? args[0] : "input.pdf";
-        int startPage    = args.length > 1 ? Integer.parseInt(args[1]) : 1;   // 1-based
-        int maxPages     = args.length > 2 ? Integer.parseInt(args[2]) : 5;
-        int maxParas     = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        RunOptions opt = RunOptions.parse(args);
+        File pdf = new File(opt.pdfPath);
+        File out = new File(opt.ndjson ? "out.ndjson" : "out.json");
+        File bin = opt.bin ? new File("out.bin") : null;
+        File metricsFile = opt.metricsPath == null ? null
+                : opt.metricsPath.isEmpty() ? Metrics.besides(out) : new File(opt.metricsPath);
+        Metrics metrics = Metrics.create(metricsFile != null);
+        Breakdown breakdown = opt.breakdownPath == null ? null : new Breakdown();
+        String mode;
+
+        ResultCache cache = opt.cacheDir == null ? null : new ResultCache(new File(opt.cacheDir), opt.cacheBytes);
+        metrics.begin(Metrics.Stage.CACHE);
+        String cacheKey = cache == null ? null : cache.key(pdf, opt.startPage, opt.maxPages, opt.maxParas, opt.engine, opt.grouping);
+        List<ParaOut> cached = cache == null ? null : cache.get(cacheKey);
+        metrics.end(Metrics.Stage.CACHE);
+        if (cached != null) {
+            metrics.begin(Metrics.Stage.WRITE);
+            writeAndPrint(out, bin, cached, opt.ndjson, null);
+            metrics.end(Metrics.Stage.WRITE);
+            if (breakdown != null) {
+                for (ParaOut p : cached) breakdown.accept(p);
+                writeBreakdown(breakdown, pdf, opt.breakdownPath);
+            }
+            System.out.println(cache.stats());
+            finishMetrics(metrics, metricsFile, pdf, "cached");
+            return;
+        }
 
-        try (PDDocument doc = Loader.loadPDF(new File(pdfPath))) {
+        List<ParaOut> result;
+        Guard guard;
+        DocLoader loader = DocLoader.of(opt);
+        MemoryReport memory = MemoryReport.start(loader);
+        metrics.memory(memory);
+        metrics.begin(Metrics.Stage.LOAD);
+        try (PDDocument doc = loader.load(pdf)) {
             int total = doc.getNumberOfPages();
-            int start = Math.max(1, Math.min(startPage, total));
-            int end   = Math.min(total, start + maxPages - 1);
-
-            CaptureStripper stripper = new CaptureStripper();
-            stripper.setStartPage(start);
-            stripper.setEndPage(end);
+            int start = opt.firstPage(total);
+            int end   = opt.lastPage(total);
+            metrics.end(Metrics.Stage.LOAD);
+            metrics.pages(start, end);
+            guard = Guard.of(opt);
+
+            if (opt.stream || opt.pipeline) {
+                mode = opt.pipeline ? "pipeline" : "stream";
+                // only keep the paragraphs around when they have to go into the cache
+                List<ParaOut> kept = cache == null ? null : new ArrayList<>();
+                try (JsonOut.ParaWriter w = new JsonOut.ParaWriter(out, opt.ndjson);
+                     BinOut.ParaWriter b = bin == null ? null : new BinOut.ParaWriter(bin)) {
+                    ParaSink sink = p -> {
+                        w.accept(p);
+                        if (b != null) b.accept(p);
+                        printPara(p);
+                        if (kept != null) kept.add(p);
+                        if (breakdown != null) breakdown.accept(p);
+                    };
+                    if (opt.pipeline) {
+                        // the write stage times itself on its own thread
+                        Pipeline.Stats stats = Pipeline.run(doc, start, end, opt.maxParas, opt.engine, opt.grouping,
+                                opt.pipelineDepth, metrics, guard, sink);
+                        System.out.println(stats.summary());
+                    } else {
+                        streamParagraphs(doc, start, end, opt.maxParas, opt.engine, opt.grouping, metrics, guard, p -> {
+                            metrics.begin(Metrics.Stage.WRITE);
+                            sink.accept(p);
+                            metrics.end(Metrics.Stage.WRITE);
+                        });
+                    }
+                    w.partial(guard.describe());
+                }
+                System.out.println("Wrote: " + out.getAbsolutePath());
+                if (bin != null) System.out.println("Wrote: " + bin.getAbsolutePath());
+                result = kept;
+            } else {
+                List<Line> lines;
+                if (opt.pageCacheDir != null) {
+                    mode = "incremental";
+                    PageCache pages = new PageCache(new File(opt.pageCacheDir), opt.pageCacheBytes, opt.engine, opt.grouping);
+                    lines = extractLinesIncremental(doc, start, end, opt.engine, opt.grouping, pages, metrics, guard);
+                    System.out.println("Incremental: re-extracted " + pages.misses + " of "
+                            + (end - start + 1) + " pages");
+                } else {
+                    int workers = opt.effectiveWorkers();
+                    mode = workers > 1 ? "parallel" : "batch";
+                    metrics.begin(Metrics.Stage.CAPTURE);
+                    GlyphBuffer glyphs = workers > 1
+                            ? ParallelCapture.capture(loader, pdf, doc, start, end, workers, opt.engine, metrics, guard)
+                            : captureGlyphs(doc, start, end, opt.engine, metrics, guard);
+                    metrics.end(Metrics.Stage.CAPTURE);
+                    metrics.begin(Metrics.Stage.LINES);
+                    lines = buildLines(glyphs, opt.grouping, guard);
+                    metrics.lines(lines);
+                    metrics.end(Metrics.Stage.LINES);
+                }
+                metrics.begin(Metrics.Stage.GROUP);
+                result = new ArrayList<>();
+                groupLinesIntoParagraphs(lines, opt.maxParas, opt.grouping, metrics, guard,
+                        ParaSink.tee(result::add, breakdown));
+                metrics.end(Metrics.Stage.GROUP);
+                metrics.begin(Metrics.Stage.WRITE);
+                writeAndPrint(out, bin, result, opt.ndjson, guard.describe());
+                metrics.end(Metrics.Stage.WRITE);
+            }
+            memory.sample();
+        }
 
-            stripper.getText(doc);
+        if (guard.partial()) System.out.println("Partial: " + guard.describe());
+        if (cache != null && !guard.partial()) {
+            metrics.begin(Metrics.Stage.CACHE);
+            cache.put(cacheKey, result);
+            metrics.end(Metrics.Stage.CACHE);
+            System.out.println(cache.stats());
+        }
+        if (breakdown != null) writeBreakdown(breakdown, pdf, opt.breakdownPath);
+        System.out.println(memory.summary());
+        if (loader.fonts != null) System.out.println(loader.fonts.stats());
+        finishMetrics(metrics, metricsFile, pdf, mode);
+    }
 
-            List<Line> lines = buildLines(stripper.glyphs);
-            List<String> paras = groupLinesIntoParagraphs(lines, maxParas);
-File out = new File("out.json");
-List<ParaOut> outParas = JsonOut.toParaOut(paras);
-JsonOut.writeParasJson(new File("out.json"), outParas);
-System.out.println("Wrote: " + out.getAbsolutePath());
+    // path "" = breakdown.json
+    private static void writeBreakdown(Breakdown breakdown, File pdf, String path) throws IOException {
+        breakdown.finish();
+        Breakdown.Project project = new Breakdown.Project();
+        project.add(pdf, breakdown);
+        File f = new File(path.isEmpty() ? "breakdown.json" : path);
+        project.write(f);
+        System.out.println(project.summary() + ": " + f.getAbsolutePath());
+    }
 
-for (int i = 0; i < paras.size(); i++) {
-    String[] parts = paras.get(i).split("\n", 2);
-    String kind = parts[0];
-    String body = parts.length > 1 ? parts[1] : "";
-    System.out.printf("PARA_%d [%s]%n%s%n%n", i, kind, body);
-}
+    private static void finishMetrics(Metrics metrics, File metricsFile, File pdf, String mode) throws IOException {
+        metrics.finish(metricsFile, pdf.getPath(), mode);
+        if (metricsFile != null) System.out.println("Metrics: " + metricsFile.getAbsolutePath());
+    }
 
+    // bin: also write the binary format there, null = JSON only
+    // partial: what the document's Guard cut, flagged in the JSON; null = complete
+    static void writeAndPrint(File out, File bin, List<ParaOut> paras, boolean ndjson, String partial) throws IOException {
+        try (JsonOut.ParaWriter w = new JsonOut.ParaWriter(out, ndjson)) {
+            for (ParaOut p : paras) w.write(p);
+            w.partial(partial);
+        }
+        System.out.println("Wrote: " + out.getAbsolutePath());
+        if (bin != null) {
+            try (BinOut.ParaWriter w = new BinOut.ParaWriter(bin)) {
+                for (ParaOut p : paras) w.write(p);
+            }
+            System.out.println("Wrote: " + bin.getAbsolutePath());
         }
 
-}
-static String kindLabel(Kind k, SceneScore sc) {
-    if (k != Kind.SCENE) return k.name();
-
-    // purely for logging / grouping visibility
-    // SCENE_1 = strong; SCENE_2 = weaker
-    int tier = (sc != null && sc.score >= 7) ? 1 : 2;
-    return "SCENE_" + tier;
-}
-
-private static List<String> groupLinesIntoParagraphs(List<Line> lines, int maxParas) {
+        for (ParaOut p : paras) printPara(p);
+    }
 
-    // sort reading order: page asc, y asc (top -> bottom in your current coordinate system)
-    lines.sort(Comparator
-            .comparingInt((Line l) -> l.page)
-            .thenComparing((Line l) -> l.y)
-            .thenComparing(l -> l.minX)); // helps stabilize order within same Y
+    static void printPara(ParaOut p) {
+        System.out.printf("PARA_%d [%s]%n%s%n%n", p.index, p.style, p.text);
+    }
 
-    // estimate baseline line gap using median gap (next - prev)
-    List<Float> gaps = new ArrayList<>();
-    for (int i = 1; i < lines.size(); i++) {
-        Line a = lines.get(i - 1);
-        Line b = lines.get(i);
-        if (a.page != b.page) continue;
-        gaps.add(b.y - a.y);
+    // The whole sequential pipeline for one opened document: capture, lines, paragraphs.
+    // guard: the document's limits; whatever they cut is recorded there
+    static List<ParaOut> extractParagraphs(PDDocument doc, int start, int end, int maxParas, Engine engine,
+                                          GroupingConfig cfg, Metrics metrics, Guard guard) throws IOException {
+        List<ParaOut> paras = new ArrayList<>();
+        extractParagraphs(doc, start, end, maxParas, engine, cfg, metrics, guard, paras::add);
+        return paras;
     }
-    float baseline = median(gaps, 13f);
-    float paraBreakGap = baseline * 1.6f;
-
-    List<String> paras = new ArrayList<>();
-    StringBuilder cur = new StringBuilder();
-    Line prev = null;
-
-    // --- kind-aware state ---
-    Kind curKind = null;
-    boolean dialogueMode = false;
-
-    // track max scene score inside current paragraph (only used when curKind==SCENE)
-    int curSceneScoreMax = 0;
-
-    // indent baseline for current paragraph
-    float curParaMinX = -1f;
-
-    float curMinXMin = Float.MAX_VALUE;
-    float curFontAvg = 0f;
-    int curFontCount = 0;
-
-    // NEW: remember a baseline "action" indent we've seen, to allow safe dialogue→action switch
-    float seenActionMinX = Float.NaN;
-
-    // helper: detect page numbers / footer-ish single tokens (extra grouping only)
-    // examples: "7.", "11.", "8.", "5."
-    final java.util.regex.Pattern PAGE_NO = java.util.regex.Pattern.compile("^\\d{1,3}\\s*[\\.)]$");
-
-    // helper: detect transition-ish parentheticals (extra grouping only)
-    // examples: "(KESME)", "(CUT TO)", "(FADE OUT)"
-    final java.util.regex.Pattern TRANS_PAREN = java.util.regex.Pattern.compile("^\\(\\s*[A-ZÇĞİÖŞÜ ]{3,}\\s*\\)$");
-
-    // helper: detect "corrupt-ish" line (extra grouping only)
-    // long runs without spaces, or many underscores, etc.
-    // (we do NOT change kind; we only change style label)
-    java.util.function.Predicate<String> looksCorrupt = (String txt) -> {
-        if (txt == null) return false;
-        String s = txt.trim();
-        if (s.isEmpty()) return false;
-
-        long underscores = s.chars().filter(ch -> ch == '_').count();
-        if (underscores >= 6) return true;
-
-        // very long token without spaces (after cleanup) tends to be an artifact
-        int maxRun = 0, run = 0;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (!Character.isWhitespace(c)) run++;
-            else { maxRun = Math.max(maxRun, run); run = 0; }
-        }
-        maxRun = Math.max(maxRun, run);
-        return maxRun >= 35;
-    };
 
-    for (Line ln : lines) {
-        String t = normalize(ln.text.toString());
-        if (t.isBlank()) continue;
-        if (t.equalsIgnoreCase("Created using Celtx")) continue;
-
-        // IMPORTANT: fix underscore + spaced-letter artifacts early
-        t = cleanupWeirdInterleaving(t);
-        if (t.isBlank()) continue;
-
-        // --- scene scorer (non-destructive) ---
-        SceneScore sc = sceneScore(t);
-
-        boolean sceneIndentLikely = ln.minX <= 90f; // tune later
-        boolean isStrongScene = sc.score >= 6 && sceneIndentLikely;
-
-        // classify (KEEP ORDER: SCENE first)
-        Kind lineKind;
-        if (isStrongScene) lineKind = Kind.SCENE;
-        else if (isCharacterCue(t)) lineKind = Kind.CHARACTER;
-        else if (isParenthetical(t)) lineKind = Kind.PAREN;
-        else if (dialogueMode) lineKind = Kind.DIALOGUE;
-        else lineKind = Kind.ACTION;
-
-        // --- SAFE dialogue→action escape hatch (does NOT affect character/scene detection) ---
-        // If we're in dialogue mode and we see a line that is "dialogue by mode"
-        // but its indent is close to the action baseline, treat it as ACTION and end dialogue mode.
-        // This helps: dialogue-chain accidentally swallowing action blocks.
-        if (dialogueMode && lineKind == Kind.DIALOGUE && !Float.isNaN(seenActionMinX)) {
-            // If indent is near action indent (or smaller), it's probably action.
-            if (ln.minX <= (seenActionMinX + 15f)) { // tune later
-                lineKind = Kind.ACTION;
-                dialogueMode = false;
-            }
-        }
+    static void extractParagraphs(PDDocument doc, int start, int end, int maxParas, Engine engine,
+                                  GroupingConfig cfg, Metrics metrics, Guard guard, ParaSink out) throws IOException {
+        metrics.pages(start, end);
+        metrics.begin(Metrics.Stage.CAPTURE);
+        GlyphBuffer glyphs = captureGlyphs(doc, start, end, engine, metrics, guard);
+        metrics.end(Metrics.Stage.CAPTURE);
+
+        metrics.begin(Metrics.Stage.LINES);
+        List<Line> lines = buildLines(glyphs, cfg, guard);
+        metrics.lines(lines);
+        metrics.end(Metrics.Stage.LINES);
+
+        metrics.begin(Metrics.Stage.GROUP);
+        groupLinesIntoParagraphs(lines, maxParas, cfg, metrics, guard, out);
+        metrics.end(Metrics.Stage.GROUP);
+    }
 
-        // Temp debug:
-        if (t.contains("HIRT")) {
-            System.out.println("DBG HIRT t=[" + t + "] isScene=" + isSceneHeading(t)
-                    + " isChar=" + isCharacterCue(t));
-        }
+    // Captures start..end (1-based, inclusive) of an already opened document with the chosen engine.
+    // Stage timing is up to the caller; metrics only receives the per-page counts.
+    static GlyphBuffer captureGlyphs(PDDocument doc, int start, int end, Engine engine,
+                                     Metrics metrics) throws IOException {
+        return captureGlyphs(doc, start, end, engine, metrics, Guard.NONE);
+    }
 
-        boolean newPara;
+    static GlyphBuffer captureGlyphs(PDDocument doc, int start, int end, Engine engine,
+                                     Metrics metrics, Guard guard) throws IOException {
+        GlyphBuffer glyphs = new GlyphBuffer((end - start + 1) * GlyphBuffer.GLYPHS_PER_PAGE);
+        capture(doc, start, end, engine, glyphs, null, null, metrics, guard);
+        return glyphs;
+    }
 
-        if (prev == null) newPara = true;
-        else if (ln.page != prev.page) newPara = true;
-        else {
-            float gap = ln.y - prev.y;
-            newPara = gap >= paraBreakGap;
+    // One capture pass of either engine. With onPage set, glyphs only ever holds the current
+    // page; pages in skipPages (may be null) are not processed at all. A stop by the guard, or
+    // onPage throwing CaptureDone, ends the pass normally: the pages captured before it are
+    // kept (and were passed to onPage).
+    static void capture(PDDocument doc, int start, int end, Engine engine, GlyphBuffer glyphs,
+                        PageListener onPage, BitSet skipPages, Metrics metrics, Guard guard) throws IOException {
+        try {
+            if (engine == Engine.RAW) {
+                GlyphEngine raw = new GlyphEngine(glyphs);
+                raw.metrics = metrics;
+                raw.guard = guard;
+                raw.onPage = onPage;
+                raw.skipPages = skipPages;
+                raw.capture(doc, start, end);
+                return;
+            }
+            CaptureStripper stripper = new CaptureStripper(glyphs);
+            stripper.metrics = metrics;
+            stripper.guard = guard;
+            stripper.onPage = onPage;
+            stripper.skipPages = skipPages;
+            stripper.setStartPage(start);
+            stripper.setEndPage(end);
+            stripper.writeText(doc, Writer.nullWriter()); // only the glyphs are used, skip building the text
+        } catch (Guard.Exceeded e) {
+            // recorded on the guard; the page it happened on is lost
+        } catch (CaptureDone e) {
+            // the listener has all it needs
         }
+    }
 
-        // force boundaries for these
-        if (lineKind == Kind.SCENE || lineKind == Kind.CHARACTER || lineKind == Kind.PAREN) {
-            newPara = true;
+    // Incremental variant of captureGlyphs + buildLines for revised drafts: pages whose
+    // fingerprint is already in the page cache reuse their stored lines, and only the other
+    // pages are captured. Grouping still runs over the merged lines.
+    static List<Line> extractLinesIncremental(PDDocument doc, int start, int end, Engine engine, GroupingConfig cfg,
+                                              PageCache cache, Metrics metrics, Guard guard) throws IOException {
+        metrics.begin(Metrics.Stage.CACHE);
+        cache.resetDocument();
+        int n = end - start + 1;
+        String[] fingerprints = new String[n];
+        List<List<Line>> perPage = new ArrayList<>(Collections.nCopies(n, null));
+        BitSet cached = new BitSet();
+
+        int pageNo = 0;
+        for (PDPage page : doc.getPages()) {
+            if (++pageNo < start) continue;
+            if (pageNo > end) break;
+            int i = pageNo - start;
+            fingerprints[i] = cache.fingerprint(page);
+            List<Line> hit = cache.get(fingerprints[i], pageNo);
+            if (hit != null) {
+                perPage.set(i, hit);
+                cached.set(pageNo);
+            }
         }
-
-        // kind change breaks paragraph
-        if (!newPara && curKind != null && curKind != lineKind) {
-            newPara = true;
+        metrics.end(Metrics.Stage.CACHE);
+
+        if (cached.cardinality() < n) {
+            PageListener onPage = (p, glyphs) -> {
+                metrics.begin(Metrics.Stage.LINES);
+                List<Line> lines = buildLines(glyphs, cfg, guard);
+                metrics.end(Metrics.Stage.LINES);
+                metrics.begin(Metrics.Stage.CACHE);
+                // a page cut by the guard would be served later as if it were complete
+                if (!guard.partial()) cache.put(fingerprints[p - start], lines);
+                metrics.end(Metrics.Stage.CACHE);
+                perPage.set(p - start, lines);
+            };
+            metrics.begin(Metrics.Stage.CAPTURE);
+            capture(doc, start, end, engine, new GlyphBuffer(), onPage, cached, metrics, guard);
+            metrics.end(Metrics.Stage.CAPTURE);
+            metrics.begin(Metrics.Stage.CACHE);
+            cache.evict();
+            metrics.end(Metrics.Stage.CACHE);
         }
 
-        // indent jump splits paragraphs for ACTION/DIALOGUE (your existing core test)
-        if (!newPara && curKind != null && curKind == lineKind) {
-            if (lineKind == Kind.ACTION || lineKind == Kind.DIALOGUE) {
-                if (curParaMinX >= 0 && Math.abs(ln.minX - curParaMinX) >= 35f) { // tune later
-                    newPara = true;
-                }
-            }
+        List<Line> all = new ArrayList<>();
+        for (List<Line> lines : perPage) {
+            if (lines != null) all.addAll(lines);
         }
+        metrics.lines(all);
+        return all;
+    }
 
-        if (newPara) {
-            if (cur.length() > 0) {
-                Kind k = (curKind == null ? Kind.ACTION : curKind);
-                float paraFont = (curFontCount > 0) ? (curFontAvg / curFontCount) : 0f;
-
-                String bodyTrim = cur.toString().trim();
-                String header = paraHeader(k, curSceneScoreMax, curMinXMin, paraFont);
-
-                // --- EXTRA STYLE GROUPING ONLY (no behavior change) ---
-                // 1) Page numbers: keep kind as-is, but force distinct style label.
-                if (PAGE_NO.matcher(bodyTrim).matches()) {
-                    // Example: ACTION_x110_f12 becomes ACTION_PG_x110_f12
-                    header = k.name() + "_PG_" + "x" + bucket10(curMinXMin) + "_f" + bucketFont(paraFont);
-                }
-
-                // 2) Transition-like parenthetical: group separately
-                if (k == Kind.PAREN && TRANS_PAREN.matcher(bodyTrim).matches()) {
-                    // Example: PAREN_TR_x240_f12
-                    header = "PAREN_TR_" + "x" + bucket10(curMinXMin) + "_f" + bucketFont(paraFont);
-                }
-
-                // 3) Corrupt-ish paragraph: group separately
-                if (looksCorrupt.test(bodyTrim)) {
-                    // Example: ACTION_CORR_x110_f12
-                    header = k.name() + "_CORR_" + "x" + bucket10(curMinXMin) + "_f" + bucketFont(paraFont);
-                }
-
-                paras.add(header + "\n" + bodyTrim);
-                if (paras.size() >= maxParas) break;
-                cur.setLength(0);
+    // Page-at-a-time pipeline: each page's glyphs are turned into lines and fed to the grouper
+    // from endPage, so memory stays bounded by a few pages plus the grouper's cross-page state.
+    // The paragraph-gap threshold uses the running median of gaps seen so far instead of the
+    // whole-document median; lines are held back until STREAM_WARMUP_GAPS gaps are known so
+    // a sparse title page does not decide the threshold on its own.
+    static final int STREAM_WARMUP_GAPS = 64;
+
+    static void streamParagraphs(PDDocument doc, int start, int end, int maxParas, Engine engine,
+                                 GroupingConfig cfg, Metrics metrics, Guard guard, ParaSink out) throws IOException {
+        GapStats gaps = new GapStats();
+        ParagraphGrouper grouper = new ParagraphGrouper(cfg, cfg.defaultLineGap * cfg.gapFactor, maxParas, out);
+        grouper.metrics = metrics;
+        grouper.guard = guard;
+        List<Line> pending = new ArrayList<>();
+
+        PageListener onPage = (pageNo, glyphs) -> {
+            metrics.begin(Metrics.Stage.LINES);
+            List<Line> lines = buildLines(glyphs, cfg, guard);
+            sortReadingOrder(lines);
+            for (int i = 1; i < lines.size(); i++) {
+                gaps.add(lines.get(i).y - lines.get(i - 1).y);
             }
+            metrics.lines(lines);
+            metrics.end(Metrics.Stage.LINES);
+            pending.addAll(lines);
+            if (gaps.count() >= STREAM_WARMUP_GAPS) feed(grouper, cfg, gaps, pending, metrics);
+            if (grouper.isFull()) throw new CaptureDone();
+        };
+        // exclusive timing: lines / group / write spans opened from endPage are not capture time
+        metrics.begin(Metrics.Stage.CAPTURE);
+        capture(doc, start, end, engine, new GlyphBuffer(), onPage, null, metrics, guard);
+        metrics.end(Metrics.Stage.CAPTURE);
+        feed(grouper, cfg, gaps, pending, metrics);
+        metrics.begin(Metrics.Stage.GROUP);
+        grouper.finish();
+        metrics.end(Metrics.Stage.GROUP);
+    }
 
-            curKind = lineKind;
-            curMinXMin = ln.minX;
-            curFontAvg = ln.avgFontSize();
-            curFontCount = 1;
-
-            // reset scene max for the new paragraph
-            curSceneScoreMax = (lineKind == Kind.SCENE) ? sc.score : 0;
-
-            curParaMinX = ln.minX;
-
-        } else {
-            cur.append("\n");
+    private static void feed(ParagraphGrouper grouper, GroupingConfig cfg, GapStats gaps, List<Line> pending,
+                             Metrics metrics) throws IOException {
+        metrics.begin(Metrics.Stage.GROUP);
+        grouper.setParaBreakGap(gaps.median(cfg.defaultLineGap) * cfg.gapFactor);
+        for (Line ln : pending) {
+            if (!grouper.accept(ln)) break;
         }
+        pending.clear();
+        metrics.end(Metrics.Stage.GROUP);
+    }
+
+static String kindLabel(Kind k, SceneScore sc) {
+    if (k != Kind.SCENE) return k.name();
 
-        cur.append(t);
-        prev = ln;
+    // purely for logging / grouping visibility
+    // SCENE_1 = strong; SCENE_2 = weaker
+    int tier = (sc != null && sc.score >= 7) ? 1 : 2;
+    return "SCENE_" + tier;
+}
 
-        // update current para stats
-        curMinXMin = Math.min(curMinXMin, ln.minX);
-        curFontAvg += ln.avgFontSize();
-        curFontCount++;
+static List<ParaOut> groupLinesIntoParagraphs(List<Line> lines, int maxParas, GroupingConfig cfg,
+                                              Metrics metrics) throws IOException {
+    List<ParaOut> paras = new ArrayList<>();
+    groupLinesIntoParagraphs(lines, maxParas, cfg, metrics, Guard.NONE, paras::add);
+    return paras;
+}
 
-        // update max score while building a SCENE paragraph
-        if (curKind == Kind.SCENE) {
-            curSceneScoreMax = Math.max(curSceneScoreMax, sc.score);
-        }
+static void groupLinesIntoParagraphs(List<Line> lines, int maxParas, GroupingConfig cfg,
+                                     Metrics metrics, Guard guard, ParaSink out) throws IOException {
 
-        // record action baseline (for later dialogue→action switching)
-        if (lineKind == Kind.ACTION) {
-            if (Float.isNaN(seenActionMinX)) seenActionMinX = ln.minX;
-            else seenActionMinX = Math.min(seenActionMinX, ln.minX);
-        }
+    sortReadingOrder(lines);
 
-        // update mode
-        if (lineKind == Kind.CHARACTER) dialogueMode = true;
-        else if (lineKind == Kind.SCENE) dialogueMode = false;
+    // estimate baseline line gap using median gap (next - prev)
+    float[] gaps = new float[Math.max(0, lines.size() - 1)];
+    int gapCount = 0;
+    for (int i = 1; i < lines.size(); i++) {
+        Line a = lines.get(i - 1);
+        Line b = lines.get(i);
+        if (a.page != b.page) continue;
+        gaps[gapCount++] = b.y - a.y;
     }
+    float baseline = GapStats.median(gaps, gapCount, cfg.defaultLineGap);
+    float paraBreakGap = baseline * cfg.gapFactor;
 
-    if (paras.size() < maxParas && cur.length() > 0) {
-        Kind k = (curKind == null ? Kind.ACTION : curKind);
-        float paraFont = (curFontCount > 0) ? (curFontAvg / curFontCount) : 0f;
-
-        String bodyTrim = cur.toString().trim();
-        String header = paraHeader(k, curSceneScoreMax, curMinXMin, paraFont);
+    ParagraphGrouper grouper = new ParagraphGrouper(cfg, paraBreakGap, maxParas, out);
+    grouper.metrics = metrics;
+    grouper.guard = guard;
+    for (Line ln : lines) {
+        if (!grouper.accept(ln)) break;
+    }
+    grouper.finish();
+}
 
-        // same extra grouping at end
-        if (PAGE_NO.matcher(bodyTrim).matches()) {
-            header = k.name() + "_PG_" + "x" + bucket10(curMinXMin) + "_f" + bucketFont(paraFont);
-        }
-        if (k == Kind.PAREN && TRANS_PAREN.matcher(bodyTrim).matches()) {
-            header = "PAREN_TR_" + "x" + bucket10(curMinXMin) + "_f" + bucketFont(paraFont);
-        }
-        if (looksCorrupt.test(bodyTrim)) {
-            header = k.name() + "_CORR_" + "x" + bucket10(curMinXMin) + "_f" + bucketFont(paraFont);
+// reading order: page asc, y asc (top -> bottom in your current coordinate system),
+// minX to stabilize order within the same y
+private static final Comparator<Line> READING_ORDER = (a, b) -> {
+    if (a.page != b.page) return Integer.compare(a.page, b.page);
+    int c = Float.compare(a.y, b.y);
+    return c != 0 ? c : Float.compare(a.minX, b.minX);
+};
+
+static void sortReadingOrder(List<Line> lines) {
+    // buildLines emits one line per (page, yKey) in that order, and yKey is monotonic in y,
+    // so this is normally a single check; only lines merged from elsewhere need the sort
+    for (int i = 1; i < lines.size(); i++) {
+        if (READING_ORDER.compare(lines.get(i - 1), lines.get(i)) > 0) {
+            lines.sort(READING_ORDER);
+            return;
         }
-
-        paras.add(header + "\n" + bodyTrim);
     }
-
-    return paras;
 }
 
 
+// Precompiled patterns for the String helpers below. The grouper's per-line path goes
+// through LineClassifier, which matches these without regex; they remain the reference.
+private static final Pattern UNDERSCORE_IN_WORD = Pattern.compile("(?<=\\p{L})_(?=\\p{L})");
+private static final Pattern WS = Pattern.compile("\\s+");
+private static final Pattern TABS = Pattern.compile("[\\t]+");
+private static final Pattern MULTI_SPACE = Pattern.compile("[ ]{2,}");
+private static final Pattern TRAILING_WS = Pattern.compile("\\s+$");
+private static final Pattern SCENE_HEADING = Pattern.compile("^\\d+\\s*\\S.*");
+private static final Pattern CUE_PREFIX = Pattern.compile("^\\s*\\d+\\s*[\\.)\\-]?\\s*");
+private static final Pattern CUE_NAME = Pattern.compile("^[A-ZÇĞİÖŞÜ\\?\\- ]+$");
+private static final Pattern SCENE_NUMBER = Pattern.compile("^\\d{1,4}.*");
+
 static String cleanupWeirdInterleaving(String s) {
     if (s == null || s.isEmpty()) return s;
 
     // A) underscore-heavy text => remove underscores between letters, replace rest with spaces
-    int underscoreCount = (int) s.chars().filter(ch -> ch == '_').count();
+    int underscoreCount = 0;
+    for (int i = 0; i < s.length(); i++) if (s.charAt(i) == '_') underscoreCount++;
     if (underscoreCount > 0 && underscoreCount >= Math.max(2, s.length() / 5)) {
         // remove underscores between letters
-        s = s.replaceAll("(?<=\\p{L})_(?=\\p{L})", "");
+        s = UNDERSCORE_IN_WORD.matcher(s).replaceAll("");
         s = s.replace('_', ' ');
     }
 
     // B) spaced letters like "s ? r a d a" (or "S A T S U M A")
     // If most tokens are 1 char, join them back.
-    String[] toks = s.trim().split("\\s+");
+    String[] toks = WS.split(s.trim());
     if (toks.length >= 8) {
         int oneChar = 0;
         for (String t : toks) if (t.length() == 1) oneChar++;
@@ -410,59 +620,77 @@ private static String guessType(String paragraphText) {
     return "Action?";
 }
 
-private static float median(List<Float> xs, float fallback) {
-    if (xs == null || xs.isEmpty()) return fallback;
-    List<Float> s = new ArrayList<>(xs);
-    s.sort(Float::compare);
-    int mid = s.size() / 2;
-    return s.size() % 2 == 0 ? (s.get(mid - 1) + s.get(mid)) / 2f : s.get(mid);
+// buildLines with the config's baseline bucket; re-buckets the glyphs if they were captured
+// with another one. With a baseline or overdraw tolerance, LineAssembler builds the lines.
+static List<Line> buildLines(GlyphBuffer glyphs, GroupingConfig cfg) {
+    return buildLines(glyphs, cfg, Guard.NONE);
 }
 
-private static List<Line> buildLines(List<G> glyphs) {
-    glyphs.sort(Comparator
-            .comparingInt((G g) -> g.page)
-            .thenComparingInt((G g) -> g.yKey)
-            .thenComparingDouble(g -> g.x));
+static List<Line> buildLines(GlyphBuffer glyphs, GroupingConfig cfg, Guard guard) {
+    glyphs.rekey(cfg.yBucketsPerPt);
+    if (cfg.baselineTol > 0 || cfg.overdrawTol > 0) {
+        return LineAssembler.assemble(glyphs, cfg.baselineTol, cfg.overdrawTol, guard);
+    }
+    return buildLines(glyphs, guard);
+}
+
+// exact (page, yKey) buckets, every glyph kept
+static List<Line> buildLines(GlyphBuffer glyphs) {
+    return buildLines(glyphs, Guard.NONE);
+}
+
+// guard.maxLineChars: glyphs past it are dropped from their line (one cut noted per line),
+// which bounds the per-line cleanup of underscore and spaced-letter runs
+static List<Line> buildLines(GlyphBuffer glyphs, Guard guard) {
+    int[] order = glyphs.sortedOrder();
+    int maxChars = guard.maxLineChars;
 
     List<Line> lines = new ArrayList<>();
     Line cur = null;
+    Line cut = null;
 
-    for (G g : glyphs) {
-        if (cur == null || cur.page != g.page || cur.yKey != g.yKey) {
-            cur = new Line(g.page, g.yKey, g.y);
+    for (int i : order) {
+        int page = glyphs.page[i];
+        int yKey = glyphs.yKey[i];
+        if (cur == null || cur.page != page || cur.yKey != yKey) {
+            cur = new Line(page, yKey, glyphs.y[i]);
             lines.add(cur);
         }
-        cur.addGlyph(g);
+        if (cur.text.length() >= maxChars) {
+            if (cut != cur) guard.note("page " + page + ": line over " + maxChars + " chars cut");
+            cut = cur;
+            continue;
+        }
+        cur.addGlyph(glyphs, i);
     }
     return lines;
 }
 
 
-private static String normalize(String s) {
+static String normalize(String s) {
     s = s.replace("\u00A0", " ");
-    s = s.replaceAll("[\\t]+", " ");
-    s = s.replaceAll("[ ]{2,}", " ");
-    return s.replaceAll("\\s+$", ""); // only trim end
+    s = TABS.matcher(s).replaceAll(" ");
+    s = MULTI_SPACE.matcher(s).replaceAll(" ");
+    return TRAILING_WS.matcher(s).replaceAll(""); // only trim end
 }
-enum Kind { SCENE, CHARACTER, PAREN, DIALOGUE, ACTION }
 
 static boolean isSceneHeading(String s) {
     String t = s.trim();
     // your headings like "7KIRIK ...", "3?ERMIN EV. IÇ. GECE"
     // Accept '?' because of encoding issues
-    return t.matches("^\\d+\\s*\\S.*") && t.equals(t.toUpperCase());
+    return SCENE_HEADING.matcher(t).matches() && t.equals(t.toUpperCase());
 }
 static boolean isCharacterCue(String s) {
     String t = s.trim();
     if (t.length() < 2 || t.length() > 30) return false;
 
     // Strip optional numeric prefix like "1.HIRT", "2) HIRT", "3 - HIRT"
-    String cue = t.replaceFirst("^\\s*\\d+\\s*[\\.)\\-]?\\s*", "").trim();
+    String cue = CUE_PREFIX.matcher(t).replaceFirst("").trim();
     if (cue.isEmpty()) return false;
 
     // If the remaining cue is a clean uppercase name, ACCEPT it immediately.
     // This prevents "1.HIRT" being killed by isSceneHeading().
-    if (cue.matches("^[A-ZÇĞİÖŞÜ\\?\\- ]+$")) {
+    if (CUE_NAME.matcher(cue).matches()) {
         long letters = cue.chars().filter(Character::isLetter).count();
         if (letters >= 2) return true;
     }
@@ -506,7 +734,7 @@ static SceneScore sceneScore(String s) {
     if (t.isEmpty()) return new SceneScore(0, false, 0, 0, false);
 
     // has leading scene number (e.g., "7KHT..." or "7 KHT...")
-    boolean hasNum = t.matches("^\\d{1,4}.*");
+    boolean hasNum = SCENE_NUMBER.matcher(t).matches();
 
     // count separator-ish chars (., /, etc.)
     int sepCount = 0;
@@ -517,7 +745,7 @@ static SceneScore sceneScore(String s) {
     // block count heuristic: split by separators and spaces, count non-empty “chunks”
     String tmp = t;
     for (int i = 0; i < SCN_SEPS.length(); i++) tmp = tmp.replace(SCN_SEPS.charAt(i), ' ');
-    String[] chunks = tmp.trim().split("\\s+");
+    String[] chunks = WS.split(tmp.trim());
     int blockCount = 0;
     for (String c : chunks) if (!c.isEmpty()) blockCount++;
 
@@ -532,6 +760,10 @@ static SceneScore sceneScore(String s) {
     }
     boolean mostlyCaps = letters >= 2 && (upperLetters / (double) letters) >= 0.90;
 
+    return new SceneScore(sceneScoreOf(hasNum, mostlyCaps, sepCount, blockCount), hasNum, sepCount, blockCount, mostlyCaps);
+}
+
+static int sceneScoreOf(boolean hasNum, boolean mostlyCaps, int sepCount, int blockCount) {
     // scoring (tune later)
     int score = 0;
     if (hasNum) score += 3;
@@ -541,7 +773,7 @@ static SceneScore sceneScore(String s) {
 
     if (blockCount >= 3) score += 1;    // “KHT MUTFAK IÇ GÜN” becomes 4 blocks
 
-    return new SceneScore(score, hasNum, sepCount, blockCount, mostlyCaps);
+    return score;
 }
 
 static String sceneFlags(SceneScore sc) {
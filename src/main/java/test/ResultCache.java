@@ -0,0 +1,206 @@
+package test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// On-disk cache of extraction results, keyed by content: SHA-256 of the PDF bytes plus the
+// page range, maxParas, the capture engine, the grouping config and
+// PosDump.CLASSIFIER_VERSION. A hit returns the ParaOut list without touching PDFBox.
+//
+// One file per entry (<key>.pc). Writes go to a unique temp file that is atomically renamed
+// into place, so concurrent workers (threads or processes) never see a torn entry. A hit
+// bumps the file's mtime; when the directory grows past maxBytes the least recently used
+// entries are deleted.
+final class ResultCache {
+    private static final int MAGIC = 0x50434332; // "PCC2"; PCC1 entries read as misses
+    private static final String EXT = ".pc";
+
+    private final File dir;
+    private final long maxBytes;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong puts = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    ResultCache(File dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir.toPath());
+    }
+
+    String key(File pdf, int startPage, int maxPages, int maxParas, PosDump.Engine engine,
+               GroupingConfig grouping) throws IOException {
+        MessageDigest md = sha256();
+        try (InputStream in = new FileInputStream(pdf)) {
+            byte[] buf = new byte[64 * 1024];
+            for (int n; (n = in.read(buf)) > 0; ) md.update(buf, 0, n);
+        }
+        String params = "|" + startPage + "|" + maxPages + "|" + maxParas + "|" + PosDump.CLASSIFIER_VERSION;
+        // stripper keys stay what they were before the raw engine existed
+        if (engine != PosDump.Engine.STRIPPER) params += "|" + engine;
+        if (!grouping.isDefault()) params += "|" + grouping.key();
+        md.update(params.getBytes(StandardCharsets.UTF_8));
+        return hex(md.digest());
+    }
+
+    // null on miss (including an entry that vanished or is unreadable)
+    List<ParaOut> get(String key) {
+        File f = entry(key);
+        if (!f.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            List<ParaOut> paras = read(in);
+            f.setLastModified(System.currentTimeMillis()); // LRU touch
+            hits.incrementAndGet();
+            return paras;
+        } catch (IOException | RuntimeException e) {
+            // evicted under us or corrupt: treat as a miss and let the next put replace it
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void put(String key, List<ParaOut> paras) throws IOException {
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                write(out, paras);
+            }
+            try {
+                Files.move(tmp.toPath(), entry(key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), entry(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            puts.incrementAndGet();
+        } finally {
+            tmp.delete(); // no-op after a successful move
+        }
+        evict();
+    }
+
+    // Drops least recently used entries until the cache fits maxBytes again.
+    synchronized void evict() {
+        evictions.addAndGet(evictLru(dir, EXT, maxBytes));
+    }
+
+    // Deletes the oldest-mtime *ext files in dir until their total size is <= maxBytes.
+    // Returns the number of files deleted. Shared with PageCache.
+    static int evictLru(File dir, String ext, long maxBytes) {
+        File[] files = dir.listFiles((d, n) -> n.endsWith(ext));
+        if (files == null) return 0;
+
+        long total = 0;
+        long[] size = new long[files.length];
+        long[] mtime = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            size[i] = files[i].length();
+            mtime[i] = files[i].lastModified();
+            total += size[i];
+        }
+        if (total <= maxBytes) return 0;
+
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> mtime[i]));
+        int deleted = 0;
+        for (int i : order) {
+            if (total <= maxBytes) break;
+            if (files[i].delete()) {
+                total -= size[i];
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    String stats() {
+        return "Cache: hits=" + hits.get() + " misses=" + misses.get()
+                + " puts=" + puts.get() + " evictions=" + evictions.get();
+    }
+
+    private File entry(String key) {
+        return new File(dir, key + EXT);
+    }
+
+    private static void write(DataOutputStream out, List<ParaOut> paras) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(paras.size());
+        for (ParaOut p : paras) {
+            out.writeInt(p.index);
+            out.writeInt(p.page);
+            out.writeByte(p.kind.ordinal());
+            writeString(out, p.style);
+            out.writeFloat(p.minX);
+            out.writeFloat(p.fontSize);
+            out.writeInt(p.lineCount);
+            out.writeFloat(p.yTop);
+            out.writeFloat(p.yBottom);
+            writeString(out, p.text);
+        }
+    }
+
+    private static List<ParaOut> read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a cache entry");
+        int n = in.readInt();
+        List<ParaOut> paras = new ArrayList<>(n);
+        Kind[] kinds = Kind.values();
+        for (int i = 0; i < n; i++) {
+            int index = in.readInt();
+            int page = in.readInt();
+            Kind kind = kinds[in.readByte()];
+            String style = readString(in);
+            float minX = in.readFloat();
+            float fontSize = in.readFloat();
+            int lineCount = in.readInt();
+            float yTop = in.readFloat();
+            float yBottom = in.readFloat();
+            String text = readString(in);
+            paras.add(new ParaOut(index, page, kind, style, minX, fontSize, lineCount, yTop, yBottom, text));
+        }
+        return paras;
+    }
+
+    // writeUTF caps at 64 KB; paragraphs can in principle be longer
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] b) {
+        char[] out = new char[b.length * 2];
+        String digits = "0123456789abcdef";
+        for (int i = 0; i < b.length; i++) {
+            out[2 * i] = digits.charAt((b[i] >> 4) & 0xF);
+            out[2 * i + 1] = digits.charAt(b[i] & 0xF);
+        }
+        return new String(out);
+    }
+}
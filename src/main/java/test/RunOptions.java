@@ -0,0 +1,286 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Command line for PosDump: positional <pdf> [startPage] [maxPages] [maxParas],
+// plus optional --key=value flags anywhere on the line.
+// BatchRun takes its inputs positionally and the page range only as flags;
+// ExtractServer takes flags only, the page range being per-request defaults.
+// GroupingTuner takes <pdf> <golden.json> positionally, the page range only as flags.
+// CorpusBench takes its inputs like BatchRun; DraftDiff takes the two drafts positionally.
+// Each entry point accepts only the flags it honours; any other is an "Unknown option".
+final class RunOptions {
+    String pdfPath = "input.pdf";
+    int startPage = 1;     // 1-based
+    int maxPages = 5;
+    int maxParas = 200;
+
+    // 1 = sequential (default); <= 0 = one worker per core
+    int workers = 1;
+
+    // page-at-a-time pipeline with bounded memory (single-threaded)
+    boolean stream = false;
+
+    // --pipeline: the stream pipeline with each stage on its own thread (Pipeline), at most
+    // --pipeline-depth pages queued between two stages
+    boolean pipeline = false;
+    int pipelineDepth = 4;
+
+    // --format=ndjson writes out.ndjson, one paragraph object per line
+    boolean ndjson = false;
+
+    // --bin also writes the binary paragraph file (BinOut): out.bin, <name>.bin in batch
+    boolean bin = false;
+
+    // batch only: input dirs / pdfs / @list files, output dir, ScriptIndex file to build
+    // (DraftDiff: the two drafts)
+    final List<String> inputs = new ArrayList<>();
+    String outDir = ".";
+    String indexPath = null;
+    // --out of a tool that writes one file (DraftDiff's report); when set, --out goes here
+    // instead of outDir
+    String outPath = null;
+
+    // --breakdown[=file.json]: scene / character breakdown (Breakdown), per project in batch
+    String breakdownPath = null;
+
+    // document loading (DocLoader): --load=buffered|mmap, per-document main-memory cap of
+    // PDFBox's stream cache (--doc-mem-mb), where the rest spills (--temp-dir, default java.io.tmpdir)
+    DocLoader.Access load = DocLoader.Access.BUFFERED;
+    long docMemBytes = 64L << 20;
+    String tempDir = null;
+    // parsed fonts kept across documents in this JVM (FontCache), 0 = off; on by default only
+    // where documents follow each other (batch, server, diff), a single document never hits
+    long fontCacheBytes = 0;
+
+    // per-document limits (Guard), 0 = none: wall time of the extraction, glyphs kept per
+    // page and per document, characters per line
+    long maxDocMs = 600_000;
+    int maxPageGlyphs = 50_000;
+    long maxGlyphs = 10_000_000;
+    int maxLineChars = 2_000;
+
+    // --cache=dir enables the on-disk result cache, capped at --cache-mb (LRU eviction)
+    String cacheDir = null;
+    long cacheBytes = 256L << 20;
+
+    // --page-cache=dir: incremental mode, only pages whose content changed are re-extracted
+    String pageCacheDir = null;
+    long pageCacheBytes = 256L << 20;
+
+    // --grouping=gapFactor=1.5,sceneMaxX=100: grouper thresholds over GroupingConfig.DEFAULT
+    GroupingConfig grouping = GroupingConfig.DEFAULT;
+
+    // tuner only: labelled paragraphs to score against, --grid=key=v1:v2,... (empty = the
+    // tuner's default grid), how many ranked configs to print, --glyphs=file glyph capture to reuse
+    String goldenPath = null;
+    String grid = "";
+    int top = 10;
+    String glyphsPath = null;
+
+    // CorpusBench only: untimed runs of the first document before measuring, and the kind F1
+    // every labelled document has to reach for a zero exit status
+    int warmup = 1;
+    double minF1 = 0.99;
+
+    // --engine=stripper|raw: glyph capture through PDFTextStripper (default) or GlyphEngine
+    PosDump.Engine engine = PosDump.Engine.STRIPPER;
+
+    // --metrics writes stage / per-page metrics JSON next to the output (out.metrics.json),
+    // --metrics=file somewhere else; "" = next to the output, null = off
+    String metricsPath = null;
+
+    // server only: localhost port, pending requests beyond the busy workers, per-request
+    // deadline (queue wait included), largest accepted upload
+    int port = 8089;
+    int queue = 16;
+    long timeoutMs = 30_000;
+    long maxUploadBytes = 64L << 20;
+
+    static final long FONT_CACHE_BYTES = 32L << 20;
+
+    // flags honoured, per entry point
+    private static final String RANGE = "start pages paras ";
+    private static final String LOADING = "load doc-mem-mb temp-dir font-cache-mb ";
+    private static final String LIMITS = "max-doc-ms max-page-glyphs max-glyphs max-line-chars ";
+    private static final String EXTRACT = RANGE + LOADING + LIMITS + "engine grouping ";
+    private static final Set<String> POSDUMP = keys(EXTRACT + "workers stream pipeline pipeline-depth format bin"
+            + " breakdown cache cache-mb page-cache page-cache-mb metrics");
+    private static final Set<String> BATCH = keys(EXTRACT + "workers format bin out index breakdown cache cache-mb metrics");
+    private static final Set<String> BENCH = keys(EXTRACT + "stream pipeline pipeline-depth warmup min-f1");
+    private static final Set<String> SERVER = keys(EXTRACT + "workers format port queue timeout-ms max-upload-mb");
+    private static final Set<String> TUNE = keys(RANGE + LOADING + "engine workers grid top glyphs");
+    private static final Set<String> DIFF = keys(EXTRACT + "out cache cache-mb");
+
+    static RunOptions parse(String[] args) {
+        RunOptions o = new RunOptions();
+        List<String> pos = o.applyFlags(args, POSDUMP);
+
+        if (pos.size() > 0) o.pdfPath = pos.get(0);
+        if (pos.size() > 1) o.startPage = Integer.parseInt(pos.get(1));
+        if (pos.size() > 2) o.maxPages = Integer.parseInt(pos.get(2));
+        if (pos.size() > 3) o.maxParas = Integer.parseInt(pos.get(3));
+        o.applyFlags(args, POSDUMP); // explicit --start/--pages/--paras win over positionals
+        return o;
+    }
+
+    // batch defaults: whole documents, one worker per core
+    static RunOptions parseBatch(String[] args) {
+        RunOptions o = new RunOptions();
+        o.maxPages = Integer.MAX_VALUE;
+        o.maxParas = Integer.MAX_VALUE;
+        o.workers = 0;
+        o.fontCacheBytes = FONT_CACHE_BYTES;
+        o.inputs.addAll(o.applyFlags(args, BATCH));
+        return o;
+    }
+
+    // bench defaults: whole documents, one after another
+    static RunOptions parseBench(String[] args) {
+        RunOptions o = new RunOptions();
+        o.maxPages = Integer.MAX_VALUE;
+        o.maxParas = Integer.MAX_VALUE;
+        o.fontCacheBytes = FONT_CACHE_BYTES;
+        o.inputs.addAll(o.applyFlags(args, BENCH));
+        return o;
+    }
+
+    // server defaults: whole documents, one worker per core
+    static RunOptions parseServer(String[] args) {
+        RunOptions o = new RunOptions();
+        o.maxPages = Integer.MAX_VALUE;
+        o.maxParas = Integer.MAX_VALUE;
+        o.workers = 0;
+        o.fontCacheBytes = FONT_CACHE_BYTES;
+        List<String> pos = o.applyFlags(args, SERVER);
+        if (!pos.isEmpty()) throw new IllegalArgumentException("Unexpected argument: " + pos.get(0));
+        return o;
+    }
+
+    // tuner defaults: whole documents, one worker per core
+    static RunOptions parseTune(String[] args) {
+        RunOptions o = new RunOptions();
+        o.maxPages = Integer.MAX_VALUE;
+        o.maxParas = Integer.MAX_VALUE;
+        o.workers = 0;
+        List<String> pos = o.applyFlags(args, TUNE);
+        if (pos.size() != 2) throw new IllegalArgumentException("Expected <pdf> <golden.json>, got " + pos);
+        o.pdfPath = pos.get(0);
+        o.goldenPath = pos.get(1);
+        return o;
+    }
+
+    // diff defaults: whole documents, report to diff.json
+    static RunOptions parseDiff(String[] args) {
+        RunOptions o = new RunOptions();
+        o.maxPages = Integer.MAX_VALUE;
+        o.maxParas = Integer.MAX_VALUE;
+        o.outPath = "diff.json";
+        o.fontCacheBytes = FONT_CACHE_BYTES;
+        List<String> pos = o.applyFlags(args, DIFF);
+        if (pos.size() != 2) throw new IllegalArgumentException("Expected <old> <new>, got " + pos);
+        o.inputs.addAll(pos);
+        return o;
+    }
+
+    // applies every --key=value flag, returns the positional arguments; a key outside
+    // honoured is rejected like a misspelt one
+    private List<String> applyFlags(String[] args, Set<String> honoured) {
+        List<String> pos = new ArrayList<>();
+
+        for (String a : args) {
+            if (!a.startsWith("--")) { pos.add(a); continue; }
+
+            int eq = a.indexOf('=');
+            String key = eq < 0 ? a.substring(2) : a.substring(2, eq);
+            String val = eq < 0 ? "" : a.substring(eq + 1);
+            if (!honoured.contains(key)) throw new IllegalArgumentException("Unknown option: " + a);
+
+            switch (key) {
+                case "workers": workers = Integer.parseInt(val); break;
+                case "stream": stream = val.isEmpty() || Boolean.parseBoolean(val); break;
+                case "pipeline": pipeline = val.isEmpty() || Boolean.parseBoolean(val); break;
+                case "pipeline-depth": pipelineDepth = Integer.parseInt(val); break;
+                case "format": ndjson = parseFormat(val); break;
+                case "bin": bin = val.isEmpty() || Boolean.parseBoolean(val); break;
+                case "start": startPage = Integer.parseInt(val); break;
+                case "pages": maxPages = Integer.parseInt(val); break;
+                case "paras": maxParas = Integer.parseInt(val); break;
+                case "out": if (outPath != null) outPath = val; else outDir = val; break;
+                case "index": indexPath = val; break;
+                case "breakdown": breakdownPath = val; break;
+                case "doc-mem-mb": docMemBytes = Long.parseLong(val) << 20; break;
+                case "load": load = parseLoad(val); break;
+                case "temp-dir": tempDir = val; break;
+                case "font-cache-mb": fontCacheBytes = Long.parseLong(val) << 20; break;
+                case "max-doc-ms": maxDocMs = Long.parseLong(val); break;
+                case "max-page-glyphs": maxPageGlyphs = Integer.parseInt(val); break;
+                case "max-glyphs": maxGlyphs = Long.parseLong(val); break;
+                case "max-line-chars": maxLineChars = Integer.parseInt(val); break;
+                case "cache": cacheDir = val; break;
+                case "cache-mb": cacheBytes = Long.parseLong(val) << 20; break;
+                case "page-cache": pageCacheDir = val; break;
+                case "page-cache-mb": pageCacheBytes = Long.parseLong(val) << 20; break;
+                case "metrics": metricsPath = val; break;
+                case "engine": engine = parseEngine(val); break;
+                case "grouping": grouping = GroupingConfig.parse(val); break;
+                case "grid": grid = val; break;
+                case "top": top = Integer.parseInt(val); break;
+                case "glyphs": glyphsPath = val; break;
+                case "warmup": warmup = Integer.parseInt(val); break;
+                case "min-f1": minF1 = Double.parseDouble(val); break;
+                case "port": port = Integer.parseInt(val); break;
+                case "queue": queue = Integer.parseInt(val); break;
+                case "timeout-ms": timeoutMs = Long.parseLong(val); break;
+                case "max-upload-mb": maxUploadBytes = Long.parseLong(val) << 20; break;
+                default: throw new IllegalArgumentException("Unknown option: " + a);
+            }
+        }
+        return pos;
+    }
+
+    private static Set<String> keys(String names) {
+        return new HashSet<>(Arrays.asList(names.trim().split(" +")));
+    }
+
+    private static boolean parseFormat(String val) {
+        switch (val) {
+            case "json": return false;
+            case "ndjson": return true;
+            default: throw new IllegalArgumentException("Unknown format: " + val + " (json|ndjson)");
+        }
+    }
+
+    private static PosDump.Engine parseEngine(String val) {
+        switch (val) {
+            case "stripper": return PosDump.Engine.STRIPPER;
+            case "raw": return PosDump.Engine.RAW;
+            default: throw new IllegalArgumentException("Unknown engine: " + val + " (stripper|raw)");
+        }
+    }
+
+    private static DocLoader.Access parseLoad(String val) {
+        switch (val) {
+            case "buffered": return DocLoader.Access.BUFFERED;
+            case "mmap": return DocLoader.Access.MMAP;
+            default: throw new IllegalArgumentException("Unknown load mode: " + val + " (buffered|mmap)");
+        }
+    }
+
+    int effectiveWorkers() {
+        return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    // first/last page (1-based, inclusive) of the requested range in a document of `total` pages
+    int firstPage(int total) {
+        return Math.max(1, Math.min(startPage, total));
+    }
+
+    int lastPage(int total) {
+        return (int) Math.min(total, (long) firstPage(total) + maxPages - 1);
+    }
+}
@@ -0,0 +1,484 @@
+package test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Persistent inverted index over classified paragraphs of many scripts, so questions like
+// "every scene where HIRT speaks" or "all night exteriors" are answered without a PDF.
+//
+//   ScriptIndex build <index.pix> <file.bin | dir>...      (BinOut files, see --bin)
+//   BatchRun ... --index=<index.pix>                         (indexes the batch it just ran)
+//   ScriptIndex query <index.pix> [cue:NAME] [scene:TERM]... [say:TERM]...
+//
+// Three fields: CUE (a CHARACTER paragraph's name, extensions like "(V.O.)" dropped;
+// cue:NAME matches every name containing all of NAME's tokens, so cue:HIRT finds "1.HIRT"
+// and "2.HIRT" but cue:"ALİ BEY" not "ALİ"),
+// SCENE (tokens of a SCENE heading: "DIŞ", "GECE", the scene number) and DIALOGUE (tokens of
+// DIALOGUE text). Every posting carries document, paragraph index, page and the scene it
+// belongs to, so a query resolves to scenes: each condition gives a scene set and the
+// answer is their intersection.
+//
+// Terms are folded Turkish-aware: I, İ, ı and i are all "i" (headings are often typed with
+// ASCII capitals, "IÇ" for "İÇ"), ç ş ğ ö ü â î û lose their marks, the rest is lowercased,
+// and a suffix after an apostrophe ("HİRT'in") is dropped. Queries go through the same fold,
+// so "İÇ", "iç" and "IC" all match.
+//
+// File layout (big-endian, mapped by Reader):
+//   header    magic "PIX1", doc / scene / term / posting counts, section offsets
+//   docs      name (heap offset, length)
+//   scenes    doc, paragraph index, page, heading (heap offset, length)
+//   terms     field, term (heap offset, length), first posting, posting count;
+//             sorted by field, then term, for binary search
+//   postings  doc, paragraph index, page, scene (-1 before the first heading)
+//   heap      UTF-8 strings
+public final class ScriptIndex {
+    private ScriptIndex() {}
+
+    enum Field { CUE, SCENE, DIALOGUE }
+
+    static final int MAGIC = 0x50495831; // "PIX1"
+    private static final int HEADER = 10 * 4;
+    private static final int DOC = 8, SCENE = 20, TERM = 20, POSTING = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("build") || args[0].equals("query"))) {
+            System.err.println("Usage: ScriptIndex build <index.pix> <file.bin | dir>...\n"
+                    + "       ScriptIndex query <index.pix> [cue:NAME] [scene:TERM]... [say:TERM]...");
+            System.exit(2);
+        }
+        File index = new File(args[1]);
+        long t0 = System.nanoTime();
+        if (args[0].equals("build")) {
+            Builder b = new Builder();
+            for (int i = 2; i < args.length; i++) addBinFiles(b, new File(args[i]));
+            b.write(index);
+            System.out.printf(Locale.ROOT, "Indexed %d documents, %d scenes, %d terms in %.1f ms: %s%n",
+                    b.docs.size(), b.sceneCount, b.termCount, (System.nanoTime() - t0) / 1e6, index.getAbsolutePath());
+            return;
+        }
+
+        Reader r = Reader.open(index);
+        Query q = new Query();
+        for (int i = 2; i < args.length; i++) q.parse(args[i]);
+        List<Scene> scenes = r.scenes(q);
+        double ms = (System.nanoTime() - t0) / 1e6;
+        for (Scene s : scenes) {
+            System.out.printf(Locale.ROOT, "%s  p.%d  #%d  %s%n", s.doc, s.page, s.para, s.heading);
+        }
+        System.out.printf(Locale.ROOT, "%d scenes (%.2f ms)%n", scenes.size(), ms);
+    }
+
+    private static void addBinFiles(Builder b, File f) throws IOException {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids == null) return;
+            Arrays.sort(kids);
+            for (File k : kids) {
+                if (k.isDirectory() || k.getName().endsWith(".bin")) addBinFiles(b, k);
+            }
+            return;
+        }
+        try (BinOut.Reader r = BinOut.Reader.open(f)) {
+            List<ParaOut> paras = new ArrayList<>(r.size());
+            for (int i = 0; i < r.size(); i++) {
+                // only these kinds are indexed; skip decoding the rest
+                Kind k = r.kind(i);
+                if (k == Kind.SCENE || k == Kind.CHARACTER || k == Kind.DIALOGUE) paras.add(r.para(i));
+            }
+            b.add(f.getPath(), paras);
+        }
+    }
+
+    // --- folding / tokenizing ---
+
+    // Folded form of one character, 0 to drop it (combining dot of a decomposed "i̇").
+    static char fold(char c) {
+        switch (c) {
+            case 'I': case 'İ': case 'ı': case 'i': case 'î': case 'Î': return 'i';
+            case 'ç': case 'Ç': return 'c';
+            case 'ş': case 'Ş': return 's';
+            case 'ğ': case 'Ğ': return 'g';
+            case 'ö': case 'Ö': return 'o';
+            case 'ü': case 'Ü': case 'û': case 'Û': return 'u';
+            case 'â': case 'Â': return 'a';
+            case '\u0307': return 0;
+            default: return Character.toLowerCase(c);
+        }
+    }
+
+    // Folded tokens: runs of letters or of digits ("12DIŞ" -> "12", "dis"), apostrophe
+    // suffixes dropped.
+    static List<String> tokens(CharSequence s) {
+        List<String> out = new ArrayList<>();
+        StringBuilder tok = new StringBuilder();
+        int type = 0; // 0 none, 1 letters, 2 digits
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '\u0307') continue;
+            int t = Character.isLetter(c) ? 1 : Character.isDigit(c) ? 2 : 0;
+            if (t != type && tok.length() > 0) {
+                out.add(tok.toString());
+                tok.setLength(0);
+            }
+            type = t;
+            if (t != 0) {
+                tok.append(fold(c));
+            } else if ((c == '\'' || c == '’') && i + 1 < n && Character.isLetter(s.charAt(i + 1))) {
+                while (i + 1 < n && (Character.isLetter(s.charAt(i + 1)) || s.charAt(i + 1) == '\u0307')) i++;
+            }
+        }
+        if (tok.length() > 0) out.add(tok.toString());
+        return out;
+    }
+
+    // "HİRT (V.O.)" -> "hirt", "ADNAN  BEY" -> "adnan bey"
+    static String cueName(CharSequence s) {
+        String t = s.toString();
+        int paren = t.indexOf('(');
+        if (paren >= 0) t = t.substring(0, paren);
+        return String.join(" ", tokens(t));
+    }
+
+    // --- building ---
+
+    static final class Builder {
+        private final Map<String, List<ParaOut>> docs = new HashMap<>();
+        int sceneCount, termCount;
+
+        // Thread-safe; documents may arrive in any order, they are written sorted by name.
+        synchronized void add(String doc, List<ParaOut> paras) {
+            docs.put(doc, paras);
+        }
+
+        synchronized void write(File file) throws IOException {
+            List<String> names = new ArrayList<>(docs.keySet());
+            names.sort(null);
+
+            ByteArrayOutputStream heap = new ByteArrayOutputStream(64 * 1024);
+            ByteArrayOutputStream docBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream sceneBytes = new ByteArrayOutputStream();
+            DataOutputStream docOut = new DataOutputStream(docBytes);
+            DataOutputStream sceneOut = new DataOutputStream(sceneBytes);
+            // "field\0term" -> postings as doc, para, page, scene quadruples
+            Map<String, IntList> postings = new HashMap<>();
+
+            int scenes = 0;
+            for (int d = 0; d < names.size(); d++) {
+                putString(docOut, heap, names.get(d));
+                int scene = -1;
+                for (ParaOut p : docs.get(names.get(d))) {
+                    Set<String> keys = new LinkedHashSet<>();
+                    switch (p.kind) {
+                        case SCENE:
+                            scene = scenes++;
+                            sceneOut.writeInt(d);
+                            sceneOut.writeInt(p.index);
+                            sceneOut.writeInt(p.page);
+                            putString(sceneOut, heap, p.text);
+                            for (String t : tokens(p.text)) keys.add(key(Field.SCENE, t));
+                            break;
+                        case CHARACTER:
+                            String c = cueName(p.text);
+                            if (!c.isEmpty()) keys.add(key(Field.CUE, c));
+                            break;
+                        case DIALOGUE:
+                            for (String t : tokens(p.text)) keys.add(key(Field.DIALOGUE, t));
+                            break;
+                        default:
+                            break;
+                    }
+                    for (String k : keys) postings.computeIfAbsent(k, x -> new IntList()).add(d, p.index, p.page, scene);
+                }
+            }
+
+            List<String> keys = new ArrayList<>(postings.keySet());
+            keys.sort(null); // field ordinal first (one char), then the term
+            ByteArrayOutputStream termBytes = new ByteArrayOutputStream(keys.size() * TERM);
+            ByteArrayOutputStream postBytes = new ByteArrayOutputStream();
+            DataOutputStream termOut = new DataOutputStream(termBytes);
+            DataOutputStream postOut = new DataOutputStream(postBytes);
+            int posted = 0;
+            for (String k : keys) {
+                IntList l = postings.get(k);
+                termOut.writeInt(k.charAt(0) - '0');
+                putString(termOut, heap, k.substring(2));
+                termOut.writeInt(posted);
+                termOut.writeInt(l.size / 4);
+                for (int i = 0; i < l.size; i++) postOut.writeInt(l.a[i]);
+                posted += l.size / 4;
+            }
+
+            long total = (long) HEADER + docBytes.size() + sceneBytes.size() + termBytes.size()
+                    + postBytes.size() + heap.size();
+            if (total > Integer.MAX_VALUE) throw new IOException("Index over 2 GB");
+            int docsOff = HEADER;
+            int scenesOff = docsOff + docBytes.size();
+            int termsOff = scenesOff + sceneBytes.size();
+            int postingsOff = termsOff + termBytes.size();
+            int heapOff = postingsOff + postBytes.size();
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+                    o.writeInt(MAGIC);
+                    o.writeInt(names.size());
+                    o.writeInt(scenes);
+                    o.writeInt(keys.size());
+                    o.writeInt(posted);
+                    o.writeInt(docsOff);
+                    o.writeInt(scenesOff);
+                    o.writeInt(termsOff);
+                    o.writeInt(postingsOff);
+                    o.writeInt(heapOff);
+                    docBytes.writeTo(o);
+                    sceneBytes.writeTo(o);
+                    termBytes.writeTo(o);
+                    postBytes.writeTo(o);
+                    heap.writeTo(o);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmp.delete(); // no-op after the move
+            }
+            sceneCount = scenes;
+            termCount = keys.size();
+        }
+
+        private static String key(Field f, String term) {
+            return (char) ('0' + f.ordinal()) + "\0" + term;
+        }
+
+        private static void putString(DataOutputStream out, ByteArrayOutputStream heap, String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(heap.size());
+            out.writeInt(b.length);
+            heap.write(b);
+        }
+    }
+
+    private static final class IntList {
+        int[] a = new int[16];
+        int size;
+
+        void add(int doc, int para, int page, int scene) {
+            if (size + 4 > a.length) a = Arrays.copyOf(a, a.length * 2);
+            a[size++] = doc;
+            a[size++] = para;
+            a[size++] = page;
+            a[size++] = scene;
+        }
+    }
+
+    // --- querying ---
+
+    static final class Hit {
+        final String doc;
+        final int para;
+        final int page;
+        final int scene; // Reader scene id, -1 before the first heading
+
+        Hit(String doc, int para, int page, int scene) {
+            this.doc = doc;
+            this.para = para;
+            this.page = page;
+            this.scene = scene;
+        }
+    }
+
+    static final class Scene {
+        final String doc;
+        final int para;
+        final int page;
+        final String heading;
+
+        Scene(String doc, int para, int page, String heading) {
+            this.doc = doc;
+            this.para = para;
+            this.page = page;
+            this.heading = heading;
+        }
+    }
+
+    // AND of conditions; an empty query matches every scene
+    static final class Query {
+        final List<String> cues = new ArrayList<>();
+        final List<String> sceneTerms = new ArrayList<>();
+        final List<String> sayTerms = new ArrayList<>();
+
+        Query cue(String name) { cues.add(name); return this; }
+        Query scene(String term) { sceneTerms.add(term); return this; }
+        Query say(String term) { sayTerms.add(term); return this; }
+
+        // cue:NAME, scene:TERM, say:TERM
+        void parse(String arg) {
+            int colon = arg.indexOf(':');
+            String field = colon < 0 ? "" : arg.substring(0, colon);
+            String value = arg.substring(colon + 1);
+            switch (field) {
+                case "cue": cue(value); break;
+                case "scene": scene(value); break;
+                case "say": say(value); break;
+                default: throw new IllegalArgumentException("Unknown condition: " + arg + " (cue:|scene:|say:)");
+            }
+        }
+    }
+
+    // Mapped index; every lookup is a binary search over the term table plus a walk of that
+    // term's postings. Thread-safe (absolute reads only).
+    static final class Reader {
+        private final ByteBuffer buf;
+        private final int docs, scenes, terms;
+        private final int docsOff, scenesOff, termsOff, postingsOff, heapOff;
+        private final String[] docNames;
+
+        private Reader(ByteBuffer buf) throws IOException {
+            this.buf = buf;
+            if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) throw new IOException("Not a script index");
+            docs = buf.getInt(4);
+            scenes = buf.getInt(8);
+            terms = buf.getInt(12);
+            docsOff = buf.getInt(20);
+            scenesOff = buf.getInt(24);
+            termsOff = buf.getInt(28);
+            postingsOff = buf.getInt(32);
+            heapOff = buf.getInt(36);
+            if (heapOff > buf.limit() || (long) termsOff + (long) terms * TERM > postingsOff) {
+                throw new IOException("Corrupt script index");
+            }
+            docNames = new String[docs];
+            for (int d = 0; d < docs; d++) docNames[d] = string(docsOff + d * DOC);
+        }
+
+        static Reader open(File f) throws IOException {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                if (ch.size() > Integer.MAX_VALUE) throw new IOException("Not a script index: " + f);
+                return new Reader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            }
+        }
+
+        int documents() { return docs; }
+        int sceneCount() { return scenes; }
+        int termCount() { return terms; }
+
+        // CHARACTER paragraphs whose cue matches name (see cueTerms)
+        List<Hit> cue(String name) {
+            List<Hit> out = new ArrayList<>();
+            for (int t : cueTerms(name)) out.addAll(hits(t));
+            return out;
+        }
+
+        // SCENE / DIALOGUE paragraphs containing the (single) term
+        List<Hit> term(Field field, String term) {
+            List<String> t = tokens(term);
+            return t.size() == 1 ? hits(find(field, t.get(0))) : List.of();
+        }
+
+        List<Scene> scenes(Query q) {
+            BitSet match = new BitSet(scenes);
+            match.set(0, scenes);
+            for (String c : q.cues) {
+                BitSet any = new BitSet(scenes);
+                for (int t : cueTerms(c)) any.or(sceneSet(t));
+                match.and(any);
+            }
+            for (String t : q.sceneTerms) matchTerms(match, Field.SCENE, t);
+            for (String t : q.sayTerms) matchTerms(match, Field.DIALOGUE, t);
+
+            List<Scene> out = new ArrayList<>(match.cardinality());
+            for (int s = match.nextSetBit(0); s >= 0; s = match.nextSetBit(s + 1)) out.add(scene(s));
+            return out;
+        }
+
+        // keeps the scenes holding every token of term; a term with no tokens ("-", "...")
+        // matches nothing, like a cue: that names no one
+        private void matchTerms(BitSet match, Field field, String term) {
+            List<String> toks = tokens(term);
+            if (toks.isEmpty()) match.clear();
+            for (String tok : toks) match.and(sceneSet(find(field, tok)));
+        }
+
+        Scene scene(int id) {
+            int at = scenesOff + id * SCENE;
+            return new Scene(docNames[buf.getInt(at)], buf.getInt(at + 4), buf.getInt(at + 8), string(at + 12));
+        }
+
+        // Term rows of the cue names that contain every token of name. CUE sorts first, so
+        // the names are rows 0..n; a few hundred per corpus, scanned linearly.
+        private List<Integer> cueTerms(String name) {
+            List<String> want = tokens(name.indexOf('(') < 0 ? name : name.substring(0, name.indexOf('(')));
+            List<Integer> out = new ArrayList<>();
+            if (want.isEmpty()) return out;
+            for (int t = 0; t < terms; t++) {
+                int at = termsOff + t * TERM;
+                if (buf.getInt(at) != Field.CUE.ordinal()) break;
+                if (Arrays.asList(string(at + 4).split(" ")).containsAll(want)) out.add(t);
+            }
+            return out;
+        }
+
+        private BitSet sceneSet(int t) {
+            BitSet set = new BitSet(scenes);
+            if (t < 0) return set;
+            int at = termsOff + t * TERM;
+            int first = buf.getInt(at + 12), count = buf.getInt(at + 16);
+            for (int i = 0; i < count; i++) {
+                int scene = buf.getInt(postingsOff + (first + i) * POSTING + 12);
+                if (scene >= 0) set.set(scene);
+            }
+            return set;
+        }
+
+        private List<Hit> hits(int t) {
+            if (t < 0) return List.of();
+            int at = termsOff + t * TERM;
+            int first = buf.getInt(at + 12), count = buf.getInt(at + 16);
+            List<Hit> out = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int p = postingsOff + (first + i) * POSTING;
+                out.add(new Hit(docNames[buf.getInt(p)], buf.getInt(p + 4), buf.getInt(p + 8), buf.getInt(p + 12)));
+            }
+            return out;
+        }
+
+        // term table row of (field, term), -1 if absent
+        private int find(Field field, String term) {
+            int lo = 0, hi = terms - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int at = termsOff + mid * TERM;
+                int c = Integer.compare(buf.getInt(at), field.ordinal());
+                if (c == 0) c = string(at + 4).compareTo(term);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -1;
+        }
+
+        // heap string referenced by the (offset, length) pair at `at`
+        private String string(int at) {
+            byte[] b = new byte[buf.getInt(at + 4)];
+            buf.get(heapOff + buf.getInt(at), b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+}